@@ -1,12 +1,15 @@
 "use client";
 
 import dynamic from "next/dynamic";
+import useSWR from "swr";
 import { useAirQuality } from "@/hooks/useAirQuality";
 import { AirQualityFilters } from "@/components/airquality/AirQualityFilters";
 import { AirQualityStats } from "@/components/airquality/AirQualityStats";
 import { AirQualityList } from "@/components/airquality/AirQualityList";
 import { Card } from "@/components/ui/card";
 import { LineChart, Line, XAxis, YAxis, Tooltip, ResponsiveContainer } from "recharts";
+import { AirQualityHistory } from "@/types";
+import { API_BASE, fetcher } from "@/lib/api";
 
 const AirQualityMap = dynamic(() => import("./AirQualityMap"), {
     ssr: false,
@@ -34,19 +37,20 @@ export default function AirQualityPage() {
         setPollutant,
     } = useAirQuality();
 
-    const historyData = selectedStation?.historyTime?.reduce((acc, time, i) => {
-        if (i % 6 === 0) {
-            const date = new Date(time);
-            const pm25Val = selectedStation.historyPm25?.[i];
-            const pm10Val = selectedStation.historyPm10?.[i];
-            acc.push({
-                time: date.toLocaleDateString("en-US", { month: "short", day: "numeric" }),
-                pm25: pm25Val !== undefined && pm25Val >= 0 ? pm25Val : null,
-                pm10: pm10Val !== undefined && pm10Val >= 0 ? pm10Val : null,
-            });
-        }
-        return acc;
-    }, [] as any[]) || [];
+    const { data: history } = useSWR<AirQualityHistory>(
+        selectedStation
+            ? `${API_BASE}/airqualitydata/history?city=${encodeURIComponent(selectedStation.city)}` +
+              `&country=${encodeURIComponent(selectedStation.country)}&points=56`
+            : null,
+        fetcher,
+        { revalidateOnFocus: false }
+    );
+
+    const historyData = history?.time?.map((time, i) => ({
+        time: new Date(time * 1000).toLocaleDateString("en-US", { month: "short", day: "numeric" }),
+        pm25: history.pm25?.[i] ?? null,
+        pm10: history.pm10?.[i] ?? null,
+    })) || [];
 
     return (
         <div className="h-screen w-screen relative overflow-hidden">
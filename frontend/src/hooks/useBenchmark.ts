@@ -17,6 +17,10 @@ const ENDPOINTS: APIEndpoint[] = [
     { name: "Weather", path: "/weatherdata", description: "Fetch weather station data" },
 ];
 
+/**
+ * Sequential response-time check from the browser. It measures one client, so it says nothing about
+ * capacity; use the server-side load test (`./gradlew loadTest`, see the README) for that.
+ */
 export function useBenchmark() {
     const [selectedEndpoints, setSelectedEndpoints] = useState<string[]>(
         ENDPOINTS.map(e => e.name)
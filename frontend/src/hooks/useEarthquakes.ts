@@ -32,19 +32,13 @@ export function useEarthquakes() {
     const mapRef = useRef<L.Map | null>(null);
 
     const { data, error, isLoading } = useSWR<Earthquake[]>(
-        `${API_BASE}/mapdata?limit=2000`,
+        // We only care about Europe for this dashboard view; the backend filters before sending
+        `${API_BASE}/mapdata?limit=2000&minlatitude=30&maxlatitude=75&minlongitude=-30&maxlongitude=45`,
         fetcher,
         { revalidateOnFocus: false }
     );
 
-    // We only care about Europe for this dashboard view
-    const europeData = useMemo(() => {
-        if (!data) return [];
-        return data.filter((eq) =>
-            eq.latitude >= 30 && eq.latitude <= 75 &&
-            eq.longitude >= -30 && eq.longitude <= 45
-        );
-    }, [data]);
+    const europeData = useMemo(() => data ?? [], [data]);
 
     // Calculate min/max magnitude for the sliders
     const magnitudeRange = useMemo(() => {
@@ -3,7 +3,7 @@
 import useSWR from "swr";
 import { useMemo, useState, useRef } from "react";
 import { WeatherStation } from "@/types";
-import { API_BASE, fetcher } from "@/lib/api";
+import { API_BASE, columnarFetcher } from "@/lib/api";
 
 export type WeatherIconType = "sun" | "cloud-sun" | "cloud" | "fog" | "rain" | "snow" | "snowflake" | "storm" | "unknown";
 
@@ -88,7 +88,7 @@ export function useWeatherStations() {
 
     const { data: rawData, error, isLoading } = useSWR<WeatherStation[]>(
         region === "all" ? `${API_BASE}/weatherdata?nstations=100` : `${API_BASE}/weatherdata?country=${region}`,
-        fetcher,
+        columnarFetcher,
         { revalidateOnFocus: false }
     );
 
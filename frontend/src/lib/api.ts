@@ -1,3 +1,27 @@
+import { COLUMNAR_TYPE, decodeColumnar, toRows } from "@/lib/columnar";
+
 export const API_BASE = process.env.NEXT_PUBLIC_API_URL || "http://localhost:8081";
 
-export const fetcher = (url: string) => fetch(url).then((res) => res.json());
+// Error responses (e.g. 503 while a dataset is still loading) are thrown, so SWR reports
+// and retries them instead of handing the error body to the page as data.
+async function checked(res: Response): Promise<Response> {
+    if (!res.ok) {
+        const body = await res.json().catch(() => null);
+        throw new Error(body?.error ?? `Request failed with status ${res.status}`);
+    }
+    return res;
+}
+
+export const fetcher = (url: string) => fetch(url).then(checked).then((res) => res.json());
+
+// Asks for the compact columnar encoding and returns the rows as plain objects;
+// responses the server only has as JSON (clusters) are parsed as usual.
+export const columnarFetcher = async (url: string) => {
+    const res = await checked(
+        await fetch(url, { headers: { Accept: `${COLUMNAR_TYPE}, application/json;q=0.9` } })
+    );
+    if (res.headers.get("Content-Type")?.startsWith(COLUMNAR_TYPE)) {
+        return toRows(decodeColumnar(await res.arrayBuffer()));
+    }
+    return res.json();
+};
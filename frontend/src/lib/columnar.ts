@@ -0,0 +1,100 @@
+// Decoder for the backend's columnar response format (application/vnd.geovis.columnar).
+// See ColumnarFormat.java for the layout.
+
+export const COLUMNAR_TYPE = "application/vnd.geovis.columnar";
+
+const FLOAT32 = 1;
+const FLOAT64 = 2;
+const INT32 = 3;
+const BOOL = 4;
+const STRING = 5;
+
+export type Column = Float32Array | Float64Array | Int32Array | boolean[] | (string | null)[];
+
+export interface ColumnarTable {
+    rows: number;
+    columns: Record<string, Column>;
+}
+
+const align = (offset: number, alignment: number) => Math.ceil(offset / alignment) * alignment;
+
+export function decodeColumnar(buffer: ArrayBuffer): ColumnarTable {
+    const view = new DataView(buffer);
+    const bytes = new Uint8Array(buffer);
+    const text = new TextDecoder();
+
+    if (text.decode(bytes.subarray(0, 4)) !== "GVC1") {
+        throw new Error("Not a columnar response");
+    }
+    const rows = view.getUint32(4, true);
+    const count = view.getUint32(8, true);
+
+    let offset = 12;
+    const header: { type: number; name: string }[] = [];
+    for (let c = 0; c < count; c++) {
+        const type = view.getUint8(offset);
+        const length = view.getUint16(offset + 1, true);
+        header.push({ type, name: text.decode(bytes.subarray(offset + 3, offset + 3 + length)) });
+        offset += 3 + length;
+    }
+
+    const columns: Record<string, Column> = {};
+    for (const { type, name } of header) {
+        offset = align(offset, 8);
+        switch (type) {
+            case FLOAT32:
+                columns[name] = new Float32Array(buffer, offset, rows);
+                offset += rows * 4;
+                break;
+            case FLOAT64:
+                columns[name] = new Float64Array(buffer, offset, rows);
+                offset += rows * 8;
+                break;
+            case INT32:
+                columns[name] = new Int32Array(buffer, offset, rows);
+                offset += rows * 4;
+                break;
+            case BOOL:
+                columns[name] = Array.from(bytes.subarray(offset, offset + rows), (b) => b !== 0);
+                offset += rows;
+                break;
+            case STRING: {
+                const size = view.getUint32(offset, true);
+                const offsets = new Uint32Array(buffer, offset + 4, size + 1);
+                const start = offset + 4 + (size + 1) * 4;
+                const dictionary: string[] = [];
+                for (let i = 0; i < size; i++) {
+                    dictionary.push(text.decode(bytes.subarray(start + offsets[i], start + offsets[i + 1])));
+                }
+                offset = align(start + offsets[size], 4);
+                const indices = new Int32Array(buffer, offset, rows);
+                columns[name] = Array.from(indices, (i) => (i >= 0 ? dictionary[i] : null));
+                offset += rows * 4;
+                break;
+            }
+            default:
+                throw new Error(`Unknown column type ${type} for ${name}`);
+        }
+    }
+    return { rows, columns };
+}
+
+/**
+ * Turns a table back into one object per row, with the column names as keys. Missing values (NaN
+ * numbers, null strings) are left out, as the JSON responses leave them out.
+ */
+export function toRows<T>(table: ColumnarTable): T[] {
+    const names = Object.keys(table.columns);
+    const rows: T[] = new Array(table.rows);
+    for (let i = 0; i < table.rows; i++) {
+        const row: Record<string, unknown> = {};
+        for (const name of names) {
+            const value = table.columns[name][i];
+            if (value !== null && !(typeof value === "number" && Number.isNaN(value))) {
+                row[name] = value;
+            }
+        }
+        rows[i] = row as T;
+    }
+    return rows;
+}
@@ -27,9 +27,16 @@ export interface AirQualityStation {
     co: number;
     so2: number;
     europeanAqi?: number;
-    historyTime?: string[];
-    historyPm25?: number[];
-    historyPm10?: number[];
+}
+
+export interface AirQualityHistory {
+    city: string;
+    country?: string;
+    from: number;
+    to: number;
+    time: number[];
+    pm25?: (number | null)[];
+    pm10?: (number | null)[];
 }
 
 export type Pollutant = "pm25" | "pm10" | "no2" | "o3" | "co" | "so2";
@@ -43,6 +50,7 @@ export type AQILevel =
     | "hazardous";
 
 export interface Earthquake {
+    eventId?: string;
     date: string;
     location: string;
     latitude: number;
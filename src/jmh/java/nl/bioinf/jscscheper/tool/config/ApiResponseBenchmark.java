@@ -0,0 +1,117 @@
+package nl.bioinf.jscscheper.tool.config;
+
+import nl.bioinf.jscscheper.tool.model.Fixtures;
+import nl.bioinf.jscscheper.tool.model.Station;
+import nl.bioinf.jscscheper.tool.servlets.Schemas;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Serializing each model type the way {@link ApiResponse} writes a response body, plain and gzipped,
+ * into a stream that only counts bytes. {@code columnar} encodes the same data in
+ * {@link ColumnarFormat} with the columns {@code /weatherdata} sends, which only stations support.
+ * <p>
+ * Run with {@code ./gradlew jmh -PjmhIncludes=ApiResponseBenchmark}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ApiResponseBenchmark {
+
+    /**
+     * Discards what is written, counting the bytes so the work cannot be optimized away.
+     */
+    public static final class CountingStream extends OutputStream {
+        public long bytes;
+
+        @Override
+        public void write(int b) {
+            bytes++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            bytes += len;
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Models {
+        @Param({ "stations", "earthquakes", "airquality", "birds" })
+        public String model;
+
+        @Param({ "1000" })
+        public int rows;
+
+        private List<?> data;
+
+        @Setup
+        public void setUp() {
+            switch (model) {
+                case "stations":
+                    data = Fixtures.stations(rows, true);
+                    break;
+                case "earthquakes":
+                    data = Fixtures.earthquakes(rows);
+                    break;
+                case "airquality":
+                    data = Fixtures.airQuality(rows);
+                    break;
+                default:
+                    data = Fixtures.birds(rows);
+                    break;
+            }
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Stations {
+        @Param({ "1000" })
+        public int rows;
+
+        private List<Station> stations;
+
+        @Setup
+        public void setUp() {
+            stations = Fixtures.stations(rows, true);
+        }
+    }
+
+    @Benchmark
+    public long json(Models models) throws IOException {
+        CountingStream out = new CountingStream();
+        ApiResponse.writeJson(out, models.data);
+        return out.bytes;
+    }
+
+    @Benchmark
+    public long jsonGzip(Models models) throws IOException {
+        CountingStream out = new CountingStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out, Utf8StreamWriter.BUFFER_SIZE)) {
+            ApiResponse.writeJson(gzip, models.data);
+        }
+        return out.bytes;
+    }
+
+    @Benchmark
+    public int columnar(Stations stations) {
+        return Schemas.WEATHER.table(stations.stations).encode().length;
+    }
+}
@@ -0,0 +1,107 @@
+package nl.bioinf.jscscheper.tool.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Deterministic model data for benchmarks: the same seed always gives the same lists, so results are
+ * comparable between runs and machines.
+ */
+public final class Fixtures {
+
+    private static final String[] CITIES = { "Amsterdam", "Utrecht", "Groningen", "Berlin", "Paris", "Madrid" };
+    private static final String[] COUNTRIES = { "NL", "DE", "FR", "ES", "BE", "IT" };
+    private static final String[] SPECIES = { "eurrob1", "comcha", "grtti1", "blackb", "houspa", "mallar3" };
+
+    private Fixtures() {
+    }
+
+    public static List<Station> stations(int count, boolean withWeather) {
+        Random random = new Random(42);
+        List<Station> stations = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Station station = new Station();
+            station.setId(String.format(Locale.ROOT, "GHCND:NL%07d", i));
+            station.setName(CITIES[random.nextInt(CITIES.length)] + " " + i + ", NL");
+            station.setLatitude(-60 + random.nextFloat() * 130);
+            station.setLongitude(-180 + random.nextFloat() * 360);
+            station.setElevation(random.nextFloat() * 2000);
+            station.setElevationUnit("METERS");
+            station.setMindate("1950-01-01");
+            station.setMaxdate("2024-12-31");
+            station.setDatacoverage(random.nextFloat());
+            if (withWeather) {
+                station.setTemperature(-10 + random.nextFloat() * 40);
+                station.setApparentTemperature(-12 + random.nextFloat() * 44);
+                station.setHumidity(random.nextFloat() * 100);
+                station.setWindSpeed(random.nextFloat() * 60);
+                station.setWindDirection(random.nextFloat() * 360);
+                station.setUvIndex(random.nextFloat() * 10);
+                station.setWeatherCode(random.nextInt(100));
+                station.setIsDay(random.nextBoolean());
+            }
+            stations.add(station);
+        }
+        return stations;
+    }
+
+    public static List<Earthquake> earthquakes(int count) {
+        Random random = new Random(42);
+        List<Earthquake> earthquakes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            earthquakes.add(new Earthquake(String.format(Locale.ROOT, "knmi2024%06d", i),
+                    String.format(Locale.ROOT, "2024-%02d-%02dT%02d:%02d:%02d.000", 1 + random.nextInt(12),
+                            1 + random.nextInt(28), random.nextInt(24), random.nextInt(60), random.nextInt(60)),
+                    CITIES[random.nextInt(CITIES.length)], 50.5f + random.nextFloat() * 3,
+                    3.5f + random.nextFloat() * 3.5f, random.nextFloat() * 5, random.nextFloat() * 3.6f));
+        }
+        return earthquakes;
+    }
+
+    public static List<AirQualityStation> airQuality(int count) {
+        Random random = new Random(42);
+        List<AirQualityStation> stations = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String city = CITIES[random.nextInt(CITIES.length)] + " " + i;
+            AirQualityStation station = new AirQualityStation(city,
+                    String.format(Locale.ROOT, "%.4f", 36 + random.nextDouble() * 30),
+                    String.format(Locale.ROOT, "%.4f", -10 + random.nextDouble() * 40),
+                    COUNTRIES[random.nextInt(COUNTRIES.length)], city, "");
+            station.setPm25(random.nextDouble() * 50);
+            station.setPm10(random.nextDouble() * 80);
+            station.setNo2(random.nextDouble() * 60);
+            station.setO3(random.nextDouble() * 120);
+            station.setCo(random.nextDouble() * 400);
+            station.setSo2(random.nextDouble() * 10);
+            station.setEuropeanAqi(random.nextInt(100));
+            stations.add(station);
+        }
+        return stations;
+    }
+
+    public static List<BirdSighting> birds(int count) {
+        Random random = new Random(42);
+        List<BirdSighting> sightings = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            BirdSighting sighting = new BirdSighting();
+            String species = SPECIES[random.nextInt(SPECIES.length)];
+            sighting.setSpeciesCode(species);
+            sighting.setComName("Common " + species);
+            sighting.setSciName("Avis " + species);
+            sighting.setLocId("L" + random.nextInt(100_000));
+            sighting.setLocName(CITIES[random.nextInt(CITIES.length)] + " park");
+            sighting.setObsDt(String.format(Locale.ROOT, "2024-05-%02d %02d:%02d", 1 + random.nextInt(28),
+                    random.nextInt(24), random.nextInt(60)));
+            sighting.setSubId("S" + (100_000_000 + i));
+            sighting.setLat(50.5 + random.nextDouble() * 3);
+            sighting.setLng(3.5 + random.nextDouble() * 3.5);
+            sighting.setHowMany(1 + random.nextInt(20));
+            sighting.setObsValid(true);
+            sighting.setObsReviewed(random.nextBoolean());
+            sightings.add(sighting);
+        }
+        return sightings;
+    }
+}
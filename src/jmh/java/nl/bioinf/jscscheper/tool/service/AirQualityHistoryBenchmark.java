@@ -0,0 +1,80 @@
+package nl.bioinf.jscscheper.tool.service;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import nl.bioinf.jscscheper.tool.util.TimeSeries;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Turning the hourly arrays of one Open-Meteo air quality response into a {@link TimeSeries}, on its
+ * own and including the JSON parse. A first sweep asks for 7 past days, later ones for 1.
+ * <p>
+ * Run with {@code ./gradlew jmh -PjmhIncludes=AirQualityHistoryBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AirQualityHistoryBenchmark {
+
+    private static final String[] VARIABLES =
+            { "pm2_5", "pm10", "nitrogen_dioxide", "ozone", "carbon_monoxide", "sulphur_dioxide" };
+
+    @Param({ "1", "7" })
+    public int pastDays;
+
+    private final AirQualityDataFetcher fetcher = new AirQualityDataFetcher();
+    private String body;
+    private JsonObject hourly;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        int hours = (pastDays + 1) * 24;
+        long start = 1_714_521_600L;
+
+        StringBuilder json = new StringBuilder("{\"latitude\":52.1,\"longitude\":5.1,\"hourly\":{\"time\":[");
+        for (int i = 0; i < hours; i++) {
+            json.append(i > 0 ? "," : "").append(start + i * 3600L);
+        }
+        json.append(']');
+        for (String variable : VARIABLES) {
+            json.append(",\"").append(variable).append("\":[");
+            for (int i = 0; i < hours; i++) {
+                json.append(i > 0 ? "," : "");
+                // a few gaps, as Open-Meteo returns null for hours a model does not cover
+                json.append(random.nextInt(50) == 0 ? "null"
+                        : String.format(Locale.ROOT, "%.1f", random.nextDouble() * 100));
+            }
+            json.append(']');
+        }
+        body = json.append("}}").toString();
+        hourly = JsonParser.parseString(body).getAsJsonObject().getAsJsonObject("hourly");
+    }
+
+    @Benchmark
+    public TimeSeries parseHistoryArrays() {
+        return fetcher.parseHistoryArrays(hourly);
+    }
+
+    @Benchmark
+    public TimeSeries parseResponse() {
+        return fetcher.parseHistoryArrays(JsonParser.parseString(body).getAsJsonObject().getAsJsonObject("hourly"));
+    }
+}
@@ -0,0 +1,126 @@
+package nl.bioinf.jscscheper.tool.service;
+
+import nl.bioinf.jscscheper.tool.model.Earthquake;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the streaming FDSN text parser with the previous implementation, which buffered the
+ * body into a String and split it with regular expressions. Both start from the raw response bytes.
+ * <p>
+ * Run with {@code ./gradlew jmh -PjmhIncludes=FdsnParserBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FdsnParserBenchmark {
+
+    private static final String HEADER = "#EventID|Time|Latitude|Longitude|Depth/km|Author|Catalog|Contributor|"
+            + "ContributorID|MagType|Magnitude|MagAuthor|EventLocationName|EventType\n";
+    private static final String[] LOCATIONS = { "Groningen", "Zeerijp", "Garrelsweer", "Loppersum", "Westerwijtwerd" };
+
+    @Param({ "100", "10000" })
+    public int events;
+
+    private final EarthquakeDataFetcher fetcher = new EarthquakeDataFetcher();
+    private byte[] body;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        StringBuilder text = new StringBuilder(HEADER);
+        for (int i = 0; i < events; i++) {
+            String id = String.format(Locale.ROOT, "knmi2024%06d", i);
+            text.append(id).append('|')
+                    .append(String.format(Locale.ROOT, "2024-%02d-%02dT%02d:%02d:%02d.%03d",
+                            1 + random.nextInt(12), 1 + random.nextInt(28), random.nextInt(24),
+                            random.nextInt(60), random.nextInt(60), random.nextInt(1000))).append('|')
+                    .append(String.format(Locale.ROOT, "%.3f", 50.5 + random.nextDouble() * 3)).append('|')
+                    .append(String.format(Locale.ROOT, "%.3f", 3.5 + random.nextDouble() * 3.5)).append('|')
+                    .append(String.format(Locale.ROOT, "%.1f", random.nextDouble() * 5)).append('|')
+                    .append("KNMI|KNMI|KNMI|").append(id).append("|MLn|")
+                    .append(String.format(Locale.ROOT, "%.1f", random.nextDouble() * 3.6)).append('|')
+                    .append("KNMI|").append(LOCATIONS[random.nextInt(LOCATIONS.length)]).append("|earthquake\n");
+        }
+        body = text.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public List<Earthquake> streaming() throws IOException {
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new ByteArrayInputStream(body), StandardCharsets.UTF_8))) {
+            return FdsnTextParser.parse(reader);
+        }
+    }
+
+    @Benchmark
+    public List<Earthquake> responseToEarthquakes() {
+        return fetcher.responseToEarthquakes(new String(body, StandardCharsets.UTF_8));
+    }
+
+    @Benchmark
+    public List<Earthquake> legacyRegexSplit() {
+        return legacyParse(new String(body, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * The parser as it was before the streaming rewrite, kept here as the baseline.
+     */
+    static List<Earthquake> legacyParse(String response) {
+        List<Earthquake> data = new ArrayList<>();
+
+        if (response == null || response.isEmpty()) {
+            return data;
+        }
+
+        String[] lines = response.split("\\r?\\n");
+        for (String line : lines) {
+            if (line.startsWith("#") || line.trim().isEmpty()) {
+                continue;
+            }
+
+            String[] fields = line.split("\\|");
+            if (fields.length < 13) {
+                continue;
+            }
+
+            try {
+                Earthquake eq = new Earthquake(
+                        fields[1],
+                        fields[12],
+                        fields[2],
+                        fields[3],
+                        fields[4],
+                        fields[10].isEmpty() ? "0.0" : fields[10]);
+                data.add(eq);
+            } catch (Exception e) {
+                System.err.println("[Earthquake] Skipping malformed record: " + line);
+            }
+        }
+
+        return data;
+    }
+}
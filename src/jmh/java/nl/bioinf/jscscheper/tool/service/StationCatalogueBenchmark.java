@@ -0,0 +1,61 @@
+package nl.bioinf.jscscheper.tool.service;
+
+import nl.bioinf.jscscheper.tool.model.Fixtures;
+import nl.bioinf.jscscheper.tool.model.Station;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading the station catalogue, which replaced the servlet's per-request {@code loadStations}:
+ * parsing {@code stations.json} into the immutable list that every station request reads.
+ * <p>
+ * Run with {@code ./gradlew jmh -PjmhIncludes=StationCatalogueBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StationCatalogueBenchmark {
+
+    @Param({ "10000", "125000" })
+    public int stations;
+
+    private byte[] json;
+
+    @Setup
+    public void setUp() {
+        StringBuilder text = new StringBuilder("[");
+        for (Station station : Fixtures.stations(stations, false)) {
+            text.append(text.length() > 1 ? "," : "").append(String.format(Locale.ROOT,
+                    "{\"id\":\"%s\",\"name\":\"%s\",\"latitude\":%.4f,\"longitude\":%.4f,\"elevation\":%.1f,"
+                            + "\"elevationUnit\":\"%s\",\"mindate\":\"%s\",\"maxdate\":\"%s\",\"datacoverage\":%.4f}",
+                    station.getId(), station.getName(), station.getLatitude(), station.getLongitude(),
+                    station.getElevation(), station.getElevationUnit(), station.getMindate(), station.getMaxdate(),
+                    station.getDatacoverage()));
+        }
+        json = text.append(']').toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public List<Station> load() throws IOException {
+        return StationCatalogue.parse(new ByteArrayInputStream(json));
+    }
+}
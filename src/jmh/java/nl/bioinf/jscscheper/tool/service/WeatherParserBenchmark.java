@@ -0,0 +1,87 @@
+package nl.bioinf.jscscheper.tool.service;
+
+import nl.bioinf.jscscheper.tool.model.Fixtures;
+import nl.bioinf.jscscheper.tool.model.Station;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing one chunk of Open-Meteo current weather (up to 100 locations per request) and copying the
+ * observations onto the stations.
+ * <p>
+ * Run with {@code ./gradlew jmh -PjmhIncludes=WeatherParserBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WeatherParserBenchmark {
+
+    @Param({ "1", "100" })
+    public int locations;
+
+    private final WeatherDataFetcher fetcher = new WeatherDataFetcher();
+    private String body;
+    private List<Station> stations;
+    private WeatherDataFetcher.CurrentWeather[] weather;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        StringBuilder json = new StringBuilder(locations > 1 ? "[" : "");
+        for (int i = 0; i < locations; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append(String.format(Locale.ROOT,
+                    "{\"latitude\":%.1f,\"longitude\":%.1f,\"generationtime_ms\":0.05,\"utc_offset_seconds\":0,"
+                            + "\"timezone\":\"GMT\",\"timezone_abbreviation\":\"GMT\",\"elevation\":%.1f,"
+                            + "\"current_units\":{\"time\":\"iso8601\",\"interval\":\"seconds\","
+                            + "\"temperature_2m\":\"°C\",\"apparent_temperature\":\"°C\","
+                            + "\"relative_humidity_2m\":\"%%\",\"weather_code\":\"wmo code\","
+                            + "\"wind_speed_10m\":\"km/h\",\"wind_direction_10m\":\"°\",\"uv_index\":\"\","
+                            + "\"is_day\":\"\"},"
+                            + "\"current\":{\"time\":\"2024-05-01T12:00\",\"interval\":900,\"temperature_2m\":%.1f,"
+                            + "\"apparent_temperature\":%.1f,\"relative_humidity_2m\":%d,\"weather_code\":%d,"
+                            + "\"wind_speed_10m\":%.1f,\"wind_direction_10m\":%d,\"uv_index\":%.2f,\"is_day\":%d}}",
+                    -60 + random.nextDouble() * 130, -180 + random.nextDouble() * 360, random.nextDouble() * 2000,
+                    -10 + random.nextDouble() * 40, -12 + random.nextDouble() * 44, random.nextInt(100),
+                    random.nextInt(100), random.nextDouble() * 60, random.nextInt(360), random.nextDouble() * 10,
+                    random.nextInt(2)));
+        }
+        body = json.append(locations > 1 ? "]" : "").toString();
+        stations = Fixtures.stations(locations, false);
+        weather = fetcher.parseWeatherResponse(body, locations);
+    }
+
+    @Benchmark
+    public WeatherDataFetcher.CurrentWeather[] parseWeatherResponse() {
+        return fetcher.parseWeatherResponse(body, locations);
+    }
+
+    @Benchmark
+    public List<Station> enrichStations() {
+        List<Station> enriched = new ArrayList<>(locations);
+        for (int i = 0; i < locations; i++) {
+            enriched.add(fetcher.enrichStation(stations.get(i), weather[i]));
+        }
+        return enriched;
+    }
+}
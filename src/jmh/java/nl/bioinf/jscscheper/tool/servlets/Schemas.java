@@ -0,0 +1,16 @@
+package nl.bioinf.jscscheper.tool.servlets;
+
+import nl.bioinf.jscscheper.tool.config.ColumnarFormat;
+import nl.bioinf.jscscheper.tool.model.Station;
+
+/**
+ * The servlets' columnar schemas, for benchmarks in other packages, so they encode exactly the
+ * columns a response has.
+ */
+public final class Schemas {
+
+    public static final ColumnarFormat.Schema<Station> WEATHER = WeatherDataServlet.COLUMNS;
+
+    private Schemas() {
+    }
+}
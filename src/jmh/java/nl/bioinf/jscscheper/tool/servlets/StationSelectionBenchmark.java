@@ -0,0 +1,48 @@
+package nl.bioinf.jscscheper.tool.servlets;
+
+import nl.bioinf.jscscheper.tool.model.Fixtures;
+import nl.bioinf.jscscheper.tool.model.Station;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Picking the random station sample {@code /weatherdata} and {@code /stationdownload} serve without
+ * a viewport, from a catalogue the size of the GHCN station list.
+ * <p>
+ * Run with {@code ./gradlew jmh -PjmhIncludes=StationSelectionBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StationSelectionBenchmark {
+
+    @Param({ "100", "1000" })
+    public int nstations;
+
+    private List<Station> catalogue;
+
+    @Setup
+    public void setUp() {
+        catalogue = Fixtures.stations(125_000, false);
+    }
+
+    @Benchmark
+    public List<Station> pickRandom() {
+        return WeatherDataServlet.pickRandom(catalogue, nstations);
+    }
+}
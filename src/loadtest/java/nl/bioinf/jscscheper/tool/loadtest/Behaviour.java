@@ -0,0 +1,99 @@
+package nl.bioinf.jscscheper.tool.loadtest;
+
+import java.time.Duration;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * How a simulated upstream answers: a log-normal latency given by its median and 99th percentile,
+ * and independent probabilities of an error status, a 429 with Retry-After, or a hang that outlasts
+ * the fetcher's timeout.
+ */
+final class Behaviour {
+
+    enum Outcome {
+        OK, ERROR, THROTTLED, HANG
+    }
+
+    // z-score of the 99th percentile of a standard normal distribution
+    private static final double Z_99 = 2.3263;
+
+    private final double medianMillis;
+    private final double sigma;
+    private final double errorRate;
+    private final int errorStatus;
+    private final double throttleRate;
+    private final Duration retryAfter;
+    private final double hangRate;
+    private final Duration hang;
+
+    Behaviour(Duration median, Duration p99, double errorRate, int errorStatus, double throttleRate,
+            Duration retryAfter, double hangRate, Duration hang) {
+        if (p99.compareTo(median) < 0) {
+            throw new IllegalArgumentException("latency-p99 must not be below latency-median");
+        }
+        this.medianMillis = median.toMillis();
+        this.sigma = medianMillis == 0 ? 0 : Math.log((double) Math.max(1, p99.toMillis()) / medianMillis) / Z_99;
+        this.errorRate = errorRate;
+        this.errorStatus = errorStatus;
+        this.throttleRate = throttleRate;
+        this.retryAfter = retryAfter;
+        this.hangRate = hangRate;
+        this.hang = hang;
+    }
+
+    /**
+     * Reads {@code latency-median}, {@code latency-p99}, {@code error-rate}, {@code error-status},
+     * {@code throttle-rate}, {@code retry-after}, {@code hang-rate} and {@code hang}, each of which may
+     * be scoped to the upstream.
+     */
+    static Behaviour from(Options options, String upstream, Duration defaultMedian, Duration defaultP99) {
+        return new Behaviour(
+                options.getDuration(upstream, "latency-median", defaultMedian),
+                options.getDuration(upstream, "latency-p99", defaultP99),
+                options.getDouble(upstream, "error-rate", 0),
+                (int) options.getDouble(upstream, "error-status", 503),
+                options.getDouble(upstream, "throttle-rate", 0),
+                options.getDuration(upstream, "retry-after", Duration.ofSeconds(1)),
+                options.getDouble(upstream, "hang-rate", 0),
+                options.getDuration(upstream, "hang", Duration.ofSeconds(60)));
+    }
+
+    Outcome nextOutcome() {
+        double u = ThreadLocalRandom.current().nextDouble();
+        if (u < errorRate) {
+            return Outcome.ERROR;
+        }
+        if (u < errorRate + throttleRate) {
+            return Outcome.THROTTLED;
+        }
+        if (u < errorRate + throttleRate + hangRate) {
+            return Outcome.HANG;
+        }
+        return Outcome.OK;
+    }
+
+    long nextLatencyMillis() {
+        return Math.round(medianMillis * Math.exp(sigma * ThreadLocalRandom.current().nextGaussian()));
+    }
+
+    int getErrorStatus() {
+        return errorStatus;
+    }
+
+    Duration getRetryAfter() {
+        return retryAfter;
+    }
+
+    Duration getHang() {
+        return hang;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT,
+                "latency median %.0f ms, p99 %.0f ms; errors %.1f%% (%d), 429s %.1f%%, hangs %.1f%%",
+                medianMillis, medianMillis * Math.exp(sigma * Z_99), errorRate * 100, errorStatus,
+                throttleRate * 100, hangRate * 100);
+    }
+}
@@ -0,0 +1,355 @@
+package nl.bioinf.jscscheper.tool.loadtest;
+
+import nl.bioinf.jscscheper.tool.metrics.Histogram;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Open-loop load generator for the servlets. Requests are started on a fixed schedule (Poisson or
+ * evenly spaced arrivals at {@code --rates} requests per second, one stage per rate) whether or not
+ * earlier ones have finished, the way independent users behave. Latency is measured from the
+ * scheduled start, so time a request spends waiting because the generator or the server fell
+ * behind is counted instead of hidden.
+ * <p>
+ * After every stage the throughput and latency percentiles of each endpoint are printed; at the end
+ * the highest rate whose overall p99 and error ratio stayed within {@code --slo} and
+ * {@code --max-errors} is reported as the capacity.
+ */
+public final class LoadTest {
+
+    private static final class Endpoint {
+        private final String name;
+        private final int weight;
+        private final String template;
+
+        Endpoint(String name, int weight, String template) {
+            this.name = name;
+            this.weight = weight;
+            this.template = template;
+        }
+    }
+
+    private static final class Stats {
+        private final Histogram latency = new Histogram();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        // the histogram only knows the bucket a latency fell in
+        private final LongAccumulator maxLatency = new LongAccumulator(Math::max, 0);
+    }
+
+    private static final class Stage {
+        private final double rate;
+        private final boolean measured;
+        private final Stats[] endpoints;
+        private final Stats total = new Stats();
+        private final LongAdder dropped = new LongAdder();
+        private long startNanos;
+        // when the last request was scheduled, not when the stragglers finished
+        private long arrivalsEndNanos;
+
+        Stage(double rate, boolean measured, int endpoints) {
+            this.rate = rate;
+            this.measured = measured;
+            this.endpoints = new Stats[endpoints];
+            for (int i = 0; i < endpoints; i++) {
+                this.endpoints[i] = new Stats();
+            }
+        }
+    }
+
+    // the mix a browser session produces: the map layers on load plus region and detail views
+    private static final String DEFAULT_MIX = "/default-mix.txt";
+    private static final Pattern PLACEHOLDER = Pattern.compile("\\{([^}]*)}");
+    private static final long NANOS_PER_MILLI = 1_000_000;
+    private static final Duration PROGRESS_INTERVAL = Duration.ofSeconds(5);
+    private static final double[] PERCENTILES = { 0.5, 0.9, 0.99, 0.999 };
+
+    private final HttpClient client;
+    private final String target;
+    private final List<Endpoint> endpoints;
+    private final int totalWeight;
+    private final boolean poisson;
+    private final Duration timeout;
+    private final int maxOutstanding;
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final AtomicReference<Histogram> interval = new AtomicReference<>(new Histogram());
+
+    private LoadTest(Options options, List<Endpoint> endpoints) {
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+        this.target = options.get("target", "http://localhost:8081").replaceAll("/+$", "");
+        this.endpoints = endpoints;
+        this.totalWeight = endpoints.stream().mapToInt(endpoint -> endpoint.weight).sum();
+        this.poisson = !options.get("arrivals", "poisson").equals("uniform");
+        this.timeout = options.getDuration("timeout", Duration.ofSeconds(30));
+        this.maxOutstanding = options.getInt("max-outstanding", 10_000);
+    }
+
+    /**
+     * Options: {@code --target} (default {@code http://localhost:8081}), {@code --rates} (requests per
+     * second, comma-separated, default {@code 10,25,50,100,200}), {@code --duration} per stage
+     * ({@code 60s}), {@code --warmup} ({@code 15s} at the first rate, not reported),
+     * {@code --arrivals} ({@code poisson} or {@code uniform}), {@code --timeout} ({@code 30s}),
+     * {@code --mix} (a file of {@code weight name path} lines, see {@code default-mix.txt}),
+     * {@code --slo} (p99 bound for the capacity verdict, {@code 1s}) and {@code --max-errors}
+     * ({@code 0.01}).
+     */
+    public static void main(String[] args) throws IOException {
+        Options options = new Options(args);
+        LoadTest test = new LoadTest(options, mix(options.get("mix", null)));
+        List<Double> rates = options.getDoubles("rates", "10,25,50,100,200");
+        for (double rate : rates) {
+            if (!(rate > 0) || Double.isInfinite(rate)) {
+                throw new IllegalArgumentException("--rates must be positive numbers, got " + rate);
+            }
+        }
+        Duration duration = options.getDuration("duration", Duration.ofSeconds(60));
+        Duration warmup = options.getDuration("warmup", Duration.ofSeconds(15));
+        Duration slo = options.getDuration("slo", Duration.ofSeconds(1));
+        double maxErrors = Double.parseDouble(options.get("max-errors", "0.01"));
+
+        System.out.println("[LoadTest] " + test.target + ", " + test.endpoints.size() + " endpoints, "
+                + (test.poisson ? "Poisson" : "uniform") + " arrivals, rates " + rates + " req/s");
+        if (!warmup.isZero()) {
+            test.run(new Stage(rates.get(0), false, test.endpoints.size()), warmup);
+        }
+
+        double capacity = 0;
+        for (int i = 0; i < rates.size(); i++) {
+            Stage stage = new Stage(rates.get(i), true, test.endpoints.size());
+            System.out.printf(Locale.ROOT, "[LoadTest] Stage %d/%d: %.0f req/s for %d s%n", i + 1, rates.size(),
+                    stage.rate, duration.getSeconds());
+            test.run(stage, duration);
+            test.report(stage);
+
+            long count = stage.total.latency.getCount() + stage.dropped.sum();
+            double errorRatio = count == 0 ? 0 : (double) (stage.total.errors.sum() + stage.dropped.sum()) / count;
+            if (Math.min(stage.total.latency.quantile(0.99), stage.total.maxLatency.get()) <= slo.toNanos()
+                    && errorRatio <= maxErrors) {
+                capacity = stage.rate;
+            } else {
+                System.out.printf(Locale.ROOT, "[LoadTest] p99 above %d ms or errors above %.1f%% at %.0f req/s%n",
+                        slo.toMillis(), maxErrors * 100, stage.rate);
+                break;
+            }
+        }
+        System.out.printf(Locale.ROOT, "[LoadTest] Capacity: %.0f req/s within p99 %d ms and %.1f%% errors%n",
+                capacity, slo.toMillis(), maxErrors * 100);
+        System.exit(0);
+    }
+
+    /**
+     * Starts requests on the arrival schedule for {@code duration}, then waits for the stragglers.
+     */
+    private void run(Stage stage, Duration duration) {
+        long meanGapNanos = (long) (1e9 / stage.rate);
+        stage.startNanos = System.nanoTime();
+        interval.set(new Histogram());
+        long lastProgress = stage.startNanos;
+        long end = stage.startNanos + duration.toNanos();
+        long next = stage.startNanos;
+
+        stage.arrivalsEndNanos = end;
+        while (next < end) {
+            long wait = next - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+                continue;
+            }
+            send(stage, pick(), next);
+            next += poisson ? (long) (-Math.log(1 - ThreadLocalRandom.current().nextDouble()) * meanGapNanos)
+                    : meanGapNanos;
+
+            long now = System.nanoTime();
+            if (now - lastProgress >= PROGRESS_INTERVAL.toNanos()) {
+                progress(stage, now - lastProgress);
+                lastProgress = now;
+            }
+        }
+
+        long deadline = System.nanoTime() + timeout.toNanos();
+        while (outstanding.get() > 0 && System.nanoTime() < deadline) {
+            LockSupport.parkNanos(Duration.ofMillis(50).toNanos());
+        }
+    }
+
+    private void send(Stage stage, int endpoint, long scheduledNanos) {
+        Stats stats = stage.endpoints[endpoint];
+        if (outstanding.get() >= maxOutstanding) {
+            // the generator itself is saturated; counting these keeps the offered rate honest
+            stage.dropped.increment();
+            stats.errors.increment();
+            return;
+        }
+        outstanding.incrementAndGet();
+
+        HttpRequest request = HttpRequest.newBuilder(URI.create(target + expand(endpoints.get(endpoint).template)))
+                .header("Accept-Encoding", "gzip")
+                .timeout(timeout)
+                .GET()
+                .build();
+        client.sendAsync(request, HttpResponse.BodyHandlers.ofInputStream())
+                .whenComplete((response, failure) -> {
+                    boolean failed = failure != null || response.statusCode() >= 400;
+                    if (response != null) {
+                        long bytes = drain(response.body());
+                        stats.bytes.add(bytes);
+                        stage.total.bytes.add(bytes);
+                    }
+                    long latency = System.nanoTime() - scheduledNanos;
+                    record(stats, latency, failed);
+                    record(stage.total, latency, failed);
+                    interval.get().record(latency);
+                    outstanding.decrementAndGet();
+                });
+    }
+
+    private static void record(Stats stats, long latencyNanos, boolean failed) {
+        stats.latency.record(latencyNanos);
+        stats.maxLatency.accumulate(latencyNanos);
+        if (failed) {
+            stats.errors.increment();
+        }
+    }
+
+    private static long drain(InputStream body) {
+        long total = 0;
+        byte[] buffer = new byte[8192];
+        try (body) {
+            int read;
+            while ((read = body.read(buffer)) >= 0) {
+                total += read;
+            }
+        } catch (IOException e) {
+            // the status has been recorded; a body cut short only undercounts bytes
+        }
+        return total;
+    }
+
+    private int pick() {
+        int r = ThreadLocalRandom.current().nextInt(totalWeight);
+        for (int i = 0; i < endpoints.size(); i++) {
+            r -= endpoints.get(i).weight;
+            if (r < 0) {
+                return i;
+            }
+        }
+        return endpoints.size() - 1;
+    }
+
+    /**
+     * Fills {@code {a|b|c}} with one of the alternatives and {@code {lat}} / {@code {lon}} with a point
+     * in Europe, so requests spread over cache keys the way different users would.
+     */
+    private static String expand(String template) {
+        Matcher matcher = PLACEHOLDER.matcher(template);
+        StringBuilder path = new StringBuilder();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (matcher.find()) {
+            String name = matcher.group(1);
+            String value;
+            if (name.equals("lat")) {
+                value = String.format(Locale.ROOT, "%.2f", 36 + random.nextDouble() * 34);
+            } else if (name.equals("lon")) {
+                value = String.format(Locale.ROOT, "%.2f", -10 + random.nextDouble() * 40);
+            } else {
+                String[] alternatives = name.split("\\|");
+                value = alternatives[random.nextInt(alternatives.length)];
+            }
+            matcher.appendReplacement(path, Matcher.quoteReplacement(value));
+        }
+        matcher.appendTail(path);
+        return path.toString();
+    }
+
+    private void progress(Stage stage, long elapsedNanos) {
+        Histogram last = interval.getAndSet(new Histogram());
+        System.out.printf(Locale.ROOT, "[LoadTest]   %s%.0f req/s: %.1f req/s done, %d in flight, p99 %.1f ms%n",
+                stage.measured ? "" : "warmup ", stage.rate, last.getCount() * 1e9 / elapsedNanos,
+                outstanding.get(), last.quantile(0.99) / (double) NANOS_PER_MILLI);
+    }
+
+    /**
+     * Rates are over the arrival window, so the wait for the stragglers does not dilute them.
+     */
+    private void report(Stage stage) {
+        double seconds = (stage.arrivalsEndNanos - stage.startNanos) / 1e9;
+        System.out.printf(Locale.ROOT, "%-18s %9s %7s %8s %9s %9s %9s %9s %9s %9s%n", "endpoint", "requests",
+                "errors", "req/s", "KiB/req", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+        for (int i = 0; i < endpoints.size(); i++) {
+            row(endpoints.get(i).name, stage.endpoints[i], seconds);
+        }
+        row("all", stage.total, seconds);
+        if (stage.dropped.sum() > 0) {
+            System.out.println("[LoadTest] " + stage.dropped.sum() + " requests not sent: more than "
+                    + maxOutstanding + " outstanding");
+        }
+    }
+
+    private static void row(String name, Stats stats, double seconds) {
+        long count = stats.latency.getCount();
+        StringBuilder line = new StringBuilder(String.format(Locale.ROOT, "%-18s %9d %7d %8.1f %9.1f", name, count,
+                stats.errors.sum(), count / seconds, count == 0 ? 0 : stats.bytes.sum() / 1024.0 / count));
+        long max = stats.maxLatency.get();
+        for (double percentile : PERCENTILES) {
+            // a bucket bound can lie above every recorded latency
+            line.append(String.format(Locale.ROOT, " %9.1f", Math.min(stats.latency.quantile(percentile), max)
+                    / (double) NANOS_PER_MILLI));
+        }
+        line.append(String.format(Locale.ROOT, " %9.1f", max / (double) NANOS_PER_MILLI));
+        System.out.println(line);
+    }
+
+    private static List<Endpoint> mix(String file) throws IOException {
+        List<String> lines;
+        if (file == null) {
+            try (InputStream in = LoadTest.class.getResourceAsStream(DEFAULT_MIX)) {
+                if (in == null) {
+                    throw new IOException("Missing " + DEFAULT_MIX);
+                }
+                lines = List.of(new String(in.readAllBytes(), StandardCharsets.UTF_8).split("\n"));
+            }
+        } else {
+            lines = Files.readAllLines(Path.of(file));
+        }
+
+        List<Endpoint> endpoints = new ArrayList<>();
+        for (String line : lines) {
+            String trimmed = line.trim();
+            if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+                continue;
+            }
+            String[] parts = trimmed.split("\\s+", 3);
+            if (parts.length != 3 || !parts[2].startsWith("/")) {
+                throw new IllegalArgumentException("Expected 'weight name /path', got '" + line + "'");
+            }
+            endpoints.add(new Endpoint(parts[1], Integer.parseInt(parts[0]), parts[2]));
+        }
+        if (endpoints.isEmpty()) {
+            throw new IllegalArgumentException("The mix has no endpoints");
+        }
+        return endpoints;
+    }
+}
@@ -0,0 +1,86 @@
+package nl.bioinf.jscscheper.tool.loadtest;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@code --name=value} command line options. A scoped lookup ({@code get("ebird", "error-rate", ...)})
+ * prefers {@code --ebird.error-rate} over {@code --error-rate}, so one upstream can be made slower or
+ * flakier than the rest.
+ */
+final class Options {
+
+    private final Map<String, String> values = new HashMap<>();
+
+    Options(String[] args) {
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                throw new IllegalArgumentException("Expected --name=value, got '" + arg + "'");
+            }
+            int eq = arg.indexOf('=');
+            if (eq < 0) {
+                values.put(arg.substring(2), "true");
+            } else {
+                values.put(arg.substring(2, eq), arg.substring(eq + 1));
+            }
+        }
+    }
+
+    String get(String name, String defaultValue) {
+        return values.getOrDefault(name, defaultValue);
+    }
+
+    String get(String scope, String name, String defaultValue) {
+        return values.getOrDefault(scope + "." + name, get(name, defaultValue));
+    }
+
+    boolean has(String name) {
+        return values.containsKey(name);
+    }
+
+    int getInt(String name, int defaultValue) {
+        return Integer.parseInt(get(name, Integer.toString(defaultValue)));
+    }
+
+    double getDouble(String scope, String name, double defaultValue) {
+        return Double.parseDouble(get(scope, name, Double.toString(defaultValue)));
+    }
+
+    Duration getDuration(String name, Duration defaultValue) {
+        String value = values.get(name);
+        return value == null ? defaultValue : duration(value);
+    }
+
+    Duration getDuration(String scope, String name, Duration defaultValue) {
+        String value = values.getOrDefault(scope + "." + name, values.get(name));
+        return value == null ? defaultValue : duration(value);
+    }
+
+    List<Double> getDoubles(String name, String defaultValue) {
+        List<Double> result = new ArrayList<>();
+        for (String part : get(name, defaultValue).split(",")) {
+            result.add(Double.parseDouble(part.trim()));
+        }
+        return result;
+    }
+
+    /**
+     * {@code 250ms}, {@code 30s}, {@code 5m}; a bare number is milliseconds.
+     */
+    static Duration duration(String value) {
+        String trimmed = value.trim();
+        if (trimmed.endsWith("ms")) {
+            return Duration.ofMillis(Long.parseLong(trimmed.substring(0, trimmed.length() - 2)));
+        }
+        if (trimmed.endsWith("s")) {
+            return Duration.ofMillis(Math.round(Double.parseDouble(trimmed.substring(0, trimmed.length() - 1)) * 1000));
+        }
+        if (trimmed.endsWith("m")) {
+            return Duration.ofSeconds(Math.round(Double.parseDouble(trimmed.substring(0, trimmed.length() - 1)) * 60));
+        }
+        return Duration.ofMillis(Long.parseLong(trimmed));
+    }
+}
@@ -0,0 +1,441 @@
+package nl.bioinf.jscscheper.tool.loadtest;
+
+import com.google.gson.Gson;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import nl.bioinf.jscscheper.tool.model.BirdSighting;
+import nl.bioinf.jscscheper.tool.util.Upstream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Local stand-ins for Open-Meteo, eBird and KNMI, one HTTP server per upstream on consecutive ports
+ * from {@code --port} (default 18080). Responses have the shape the fetchers parse, with generated
+ * values that change every few minutes so refreshes see new data; latency and failures follow each
+ * upstream's {@link Behaviour}.
+ * <p>
+ * Start the server with {@code -Dgeovis.upstream.<key>=<url>} for each line this prints on startup
+ * ({@code ./gradlew appRun -PsimulatedUpstreams} does that for the default ports).
+ */
+public final class UpstreamSimulator {
+
+    private static final class Response {
+        private final int status;
+        private final String contentType;
+        private final byte[] body;
+
+        Response(int status, String contentType, String body) {
+            this.status = status;
+            this.contentType = contentType;
+            this.body = body.getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    private static final class Simulated {
+        private final Upstream upstream;
+        private final Behaviour behaviour;
+        private final Function<HttpExchange, Response> responder;
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private HttpServer server;
+
+        Simulated(Upstream upstream, Behaviour behaviour, Function<HttpExchange, Response> responder) {
+            this.upstream = upstream;
+            this.behaviour = behaviour;
+            this.responder = responder;
+        }
+    }
+
+    private static final String JSON = "application/json; charset=utf-8";
+    private static final String TEXT = "text/plain; charset=utf-8";
+    private static final Gson GSON = new Gson();
+
+    private static final String[] AIR_QUALITY_VARIABLES =
+            { "pm2_5", "pm10", "nitrogen_dioxide", "ozone", "carbon_monoxide", "sulphur_dioxide" };
+    private static final String[] SPECIES = { "eurrob1", "comcha", "grtit1", "eurbla", "houspa", "mallar3",
+            "blutit", "comwoo1", "carcro1", "eurmag1", "grhher1", "whwswa1" };
+    private static final String[] KNMI_LOCATIONS = { "Groningen", "Loppersum", "Zeerijp", "Westerwijtwerd",
+            "Garrelsweer", "Hoogezand", "Roswinkel", "Annerveenschekanaal" };
+    private static final Map<String, double[]> REGION_CENTRES = Map.of(
+            "NL", new double[] { 52.13, 5.29 }, "DE", new double[] { 51.17, 10.45 },
+            "GB", new double[] { 55.38, -3.44 }, "US", new double[] { 39.83, -98.58 },
+            "AU", new double[] { -25.27, 133.78 }, "ZA", new double[] { -30.56, 22.94 },
+            "BR", new double[] { -14.24, -51.93 }, "JP", new double[] { 36.20, 138.25 });
+
+    private static final DateTimeFormatter FDSN_TIME =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS").withZone(ZoneOffset.UTC);
+    private static final DateTimeFormatter FDSN_QUERY_TIME =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss").withZone(ZoneOffset.UTC);
+    private static final DateTimeFormatter EBIRD_TIME =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm").withZone(ZoneOffset.UTC);
+
+    private final List<Simulated> upstreams = new ArrayList<>();
+    private final ExecutorService executor;
+    private final int sightings;
+    private final Duration eventInterval;
+    private final Duration dataInterval;
+
+    private UpstreamSimulator(Options options) {
+        this.sightings = options.getInt("sightings", 150);
+        this.eventInterval = options.getDuration("event-interval", Duration.ofHours(3));
+        this.dataInterval = options.getDuration("data-interval", Duration.ofMinutes(5));
+
+        AtomicInteger threads = new AtomicInteger();
+        this.executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "upstream-simulator-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        upstreams.add(new Simulated(Upstream.OPEN_METEO, Behaviour.from(options, Upstream.OPEN_METEO.getKey(),
+                Duration.ofMillis(60), Duration.ofMillis(400)), this::forecast));
+        upstreams.add(new Simulated(Upstream.OPEN_METEO_AIR_QUALITY,
+                Behaviour.from(options, Upstream.OPEN_METEO_AIR_QUALITY.getKey(),
+                        Duration.ofMillis(80), Duration.ofMillis(600)), this::airQuality));
+        upstreams.add(new Simulated(Upstream.EBIRD, Behaviour.from(options, Upstream.EBIRD.getKey(),
+                Duration.ofMillis(150), Duration.ofMillis(1200)), this::ebird));
+        upstreams.add(new Simulated(Upstream.KNMI, Behaviour.from(options, Upstream.KNMI.getKey(),
+                Duration.ofMillis(200), Duration.ofMillis(1500)), this::fdsn));
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Options options = new Options(args);
+        UpstreamSimulator simulator = start(options);
+        Runtime.getRuntime().addShutdownHook(new Thread(simulator::stop));
+
+        Duration report = options.getDuration("report", Duration.ofSeconds(10));
+        while (true) {
+            Thread.sleep(report.toMillis());
+            simulator.printCounts();
+        }
+    }
+
+    public static UpstreamSimulator start(Options options) throws IOException {
+        UpstreamSimulator simulator = new UpstreamSimulator(options);
+        String host = options.get("host", "localhost");
+        int port = options.getInt("port", 18080);
+
+        for (Simulated simulated : simulator.upstreams) {
+            simulated.server = HttpServer.create(new InetSocketAddress(host, port++), 1024);
+            simulated.server.createContext("/", exchange -> simulator.handle(simulated, exchange));
+            simulated.server.setExecutor(simulator.executor);
+            simulated.server.start();
+
+            System.out.println("[Simulator] " + simulated.upstream.getKey() + ": " + simulated.behaviour);
+            System.out.println("[Simulator]   -D" + Upstream.PROPERTY_PREFIX + simulated.upstream.getKey()
+                    + "=http://" + host + ":" + simulated.server.getAddress().getPort());
+        }
+        return simulator;
+    }
+
+    public void stop() {
+        for (Simulated simulated : upstreams) {
+            if (simulated.server != null) {
+                simulated.server.stop(0);
+            }
+        }
+        executor.shutdownNow();
+        printCounts();
+    }
+
+    private void printCounts() {
+        StringBuilder line = new StringBuilder("[Simulator]");
+        for (Simulated simulated : upstreams) {
+            line.append(String.format(Locale.ROOT, " %s %d (%d failed)", simulated.upstream.getKey(),
+                    simulated.requests.sum(), simulated.failures.sum()));
+        }
+        System.out.println(line);
+    }
+
+    private void handle(Simulated simulated, HttpExchange exchange) throws IOException {
+        try {
+            simulated.requests.increment();
+            Behaviour behaviour = simulated.behaviour;
+            Behaviour.Outcome outcome = behaviour.nextOutcome();
+            sleep(outcome == Behaviour.Outcome.HANG ? behaviour.getHang().toMillis() : behaviour.nextLatencyMillis());
+
+            Response response;
+            switch (outcome) {
+                case ERROR:
+                    response = new Response(behaviour.getErrorStatus(), TEXT, "Simulated failure");
+                    break;
+                case THROTTLED:
+                    exchange.getResponseHeaders().set("Retry-After",
+                            Long.toString(Math.max(1, behaviour.getRetryAfter().toSeconds())));
+                    response = new Response(429, TEXT, "Too many requests");
+                    break;
+                default:
+                    response = simulated.responder.apply(exchange);
+                    break;
+            }
+            if (response.status >= 400) {
+                simulated.failures.increment();
+            }
+            send(exchange, response);
+        } catch (RuntimeException e) {
+            simulated.failures.increment();
+            send(exchange, new Response(400, TEXT, String.valueOf(e.getMessage())));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static void send(HttpExchange exchange, Response response) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", response.contentType);
+        if (response.status == 204) {
+            exchange.sendResponseHeaders(204, -1);
+            return;
+        }
+        exchange.sendResponseHeaders(response.status, response.body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(response.body);
+        }
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Open-Meteo {@code /v1/forecast} with {@code current=...}: one object, or an array of them when
+     * several comma-separated locations are asked for.
+     */
+    private Response forecast(HttpExchange exchange) {
+        Map<String, String> query = query(exchange.getRequestURI());
+        String[] lats = required(query, "latitude").split(",");
+        String[] lons = required(query, "longitude").split(",");
+        if (lats.length != lons.length) {
+            throw new IllegalArgumentException("Parameter 'latitude' and 'longitude' must have the same number"
+                    + " of elements");
+        }
+
+        long slot = slot();
+        String time = FDSN_QUERY_TIME.format(Instant.ofEpochMilli(slot * dataInterval.toMillis())).substring(0, 16);
+        StringBuilder json = new StringBuilder(lats.length > 1 ? "[" : "");
+        for (int i = 0; i < lats.length; i++) {
+            double lat = Double.parseDouble(lats[i]);
+            double lon = Double.parseDouble(lons[i]);
+            Random random = random(lats[i], lons[i], slot);
+            double temperature = 28 - Math.abs(lat) * 0.45 + random.nextGaussian() * 4;
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append(String.format(Locale.ROOT,
+                    "{\"latitude\":%.4f,\"longitude\":%.4f,\"generationtime_ms\":0.05,\"utc_offset_seconds\":0,"
+                            + "\"timezone\":\"GMT\",\"timezone_abbreviation\":\"GMT\",\"elevation\":%.1f,"
+                            + "\"current\":{\"time\":\"%s\",\"interval\":900,\"temperature_2m\":%.1f,"
+                            + "\"apparent_temperature\":%.1f,\"relative_humidity_2m\":%d,\"weather_code\":%d,"
+                            + "\"wind_speed_10m\":%.1f,\"wind_direction_10m\":%d,\"uv_index\":%.2f,\"is_day\":%d}}",
+                    lat, lon, random.nextDouble() * 500, time, temperature,
+                    temperature - random.nextDouble() * 3, 40 + random.nextInt(60),
+                    new int[] { 0, 1, 2, 3, 45, 61, 63, 80, 95 }[random.nextInt(9)], random.nextDouble() * 40,
+                    random.nextInt(360), random.nextDouble() * 8, random.nextInt(2)));
+        }
+        return new Response(200, JSON, json.append(lats.length > 1 ? "]" : "").toString());
+    }
+
+    /**
+     * Open-Meteo {@code /v1/air-quality} with current values and an hourly unixtime series covering
+     * {@code past_days} and {@code forecast_days}.
+     */
+    private Response airQuality(HttpExchange exchange) {
+        Map<String, String> query = query(exchange.getRequestURI());
+        String lat = required(query, "latitude");
+        String lon = required(query, "longitude");
+        int pastDays = Integer.parseInt(query.getOrDefault("past_days", "0"));
+        int forecastDays = Integer.parseInt(query.getOrDefault("forecast_days", "5"));
+
+        long slot = slot();
+        Random random = random(lat, lon, slot);
+        double[] current = new double[AIR_QUALITY_VARIABLES.length];
+        StringBuilder json = new StringBuilder(String.format(Locale.ROOT,
+                "{\"latitude\":%s,\"longitude\":%s,\"current\":{\"time\":%d,\"interval\":3600",
+                lat, lon, slot * dataInterval.getSeconds()));
+        for (int v = 0; v < AIR_QUALITY_VARIABLES.length; v++) {
+            current[v] = level(v) * (0.5 + random.nextDouble());
+            json.append(String.format(Locale.ROOT, ",\"%s\":%.1f", AIR_QUALITY_VARIABLES[v], current[v]));
+        }
+        json.append(String.format(Locale.ROOT, ",\"european_aqi\":%d}", (int) Math.min(100, current[0] * 2.5)));
+
+        // hourly values depend on the hour only, so overlapping requests agree on the history
+        long start = (Instant.now().getEpochSecond() / 86_400 - pastDays) * 86_400;
+        int hours = (pastDays + forecastDays) * 24;
+        json.append(",\"hourly\":{\"time\":[");
+        for (int h = 0; h < hours; h++) {
+            json.append(h > 0 ? "," : "").append(start + h * 3600L);
+        }
+        json.append(']');
+        for (int v = 0; v < AIR_QUALITY_VARIABLES.length; v++) {
+            json.append(",\"").append(AIR_QUALITY_VARIABLES[v]).append("\":[");
+            for (int h = 0; h < hours; h++) {
+                long hour = (start + h * 3600L) / 3600;
+                double value = level(v) * (1 + 0.5 * Math.sin(hour * Math.PI / 12 + v + lat.hashCode() % 7));
+                json.append(h > 0 ? "," : "").append(String.format(Locale.ROOT, "%.1f", value));
+            }
+            json.append(']');
+        }
+        return new Response(200, JSON, json.append("}}").toString());
+    }
+
+    private static double level(int variable) {
+        return new double[] { 12, 20, 25, 60, 250, 3 }[variable];
+    }
+
+    /**
+     * eBird {@code /v2/data/obs/geo/recent} and {@code /v2/data/obs/{region}/recent}. Like the real
+     * API, a radius over 50 km is rejected.
+     */
+    private Response ebird(HttpExchange exchange) {
+        String path = exchange.getRequestURI().getPath();
+        Map<String, String> query = query(exchange.getRequestURI());
+        int count = Math.min(sightings, Integer.parseInt(query.getOrDefault("maxResults", "10000")));
+
+        double lat;
+        double lng;
+        double distKm;
+        if (path.equals("/v2/data/obs/geo/recent")) {
+            lat = Double.parseDouble(required(query, "lat"));
+            lng = Double.parseDouble(required(query, "lng"));
+            distKm = Double.parseDouble(query.getOrDefault("dist", "25"));
+            if (distKm > 50) {
+                return new Response(400, JSON, "{\"errors\":[{\"status\":\"400 BAD_REQUEST\","
+                        + "\"title\":\"Field dist of geoRecentObsCmd: dist must be less than or equal to 50\"}]}");
+            }
+        } else if (path.startsWith("/v2/data/obs/") && path.endsWith("/recent")) {
+            String region = path.substring("/v2/data/obs/".length(), path.length() - "/recent".length());
+            double[] centre = REGION_CENTRES.getOrDefault(region.toUpperCase(Locale.ROOT), REGION_CENTRES.get("NL"));
+            lat = centre[0];
+            lng = centre[1];
+            distKm = 200;
+        } else {
+            return new Response(404, TEXT, "Not found");
+        }
+
+        long slot = slot();
+        Random random = random(query.toString(), path, slot);
+        Instant now = Instant.ofEpochMilli(slot * dataInterval.toMillis());
+        List<BirdSighting> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            double bearing = random.nextDouble() * 2 * Math.PI;
+            double km = Math.sqrt(random.nextDouble()) * distKm;
+            String species = SPECIES[random.nextInt(SPECIES.length)];
+            int location = random.nextInt(500);
+
+            BirdSighting sighting = new BirdSighting();
+            sighting.setSpeciesCode(species);
+            sighting.setComName("Simulated " + species);
+            sighting.setSciName("Avis " + species);
+            sighting.setLat(lat + km / 111.2 * Math.cos(bearing));
+            sighting.setLng(lng + km / (111.2 * Math.max(0.01, Math.cos(Math.toRadians(lat)))) * Math.sin(bearing));
+            sighting.setLocId("L" + location);
+            sighting.setLocName("Simulated site " + location);
+            sighting.setObsDt(EBIRD_TIME.format(now.minusSeconds(random.nextInt(14 * 86_400))));
+            sighting.setHowMany(1 + random.nextInt(12));
+            sighting.setObsValid(true);
+            sighting.setObsReviewed(random.nextInt(10) == 0);
+            sighting.setSubId("S" + (100_000_000L + Math.abs(random.nextInt())));
+            result.add(sighting);
+        }
+        return new Response(200, JSON, GSON.toJson(result));
+    }
+
+    /**
+     * KNMI FDSN {@code /fdsnws/event/1/query?format=text}: one event roughly every
+     * {@code event-interval}, at fixed times so repeated syncs see the same event IDs. Events are
+     * never revised, so {@code updatedafter} only matches events that happened after it. 204 when no
+     * event matches.
+     */
+    private Response fdsn(HttpExchange exchange) {
+        Map<String, String> query = query(exchange.getRequestURI());
+        Instant since = Instant.from(FDSN_QUERY_TIME.parse(query.getOrDefault("starttime", "1970-01-01T00:00:00")));
+        long interval = eventInterval.getSeconds();
+        long now = Instant.now().getEpochSecond();
+        if (query.containsKey("endtime")) {
+            now = Math.min(now, Instant.from(FDSN_QUERY_TIME.parse(query.get("endtime"))).getEpochSecond());
+        }
+        if (query.containsKey("updatedafter")) {
+            Instant updatedAfter = Instant.from(FDSN_QUERY_TIME.parse(query.get("updatedafter")));
+            since = updatedAfter.isAfter(since) ? updatedAfter.plusSeconds(1) : since;
+        }
+
+        StringBuilder text = new StringBuilder("#EventID|Time|Latitude|Longitude|Depth/km|Author|Catalog|Contributor|"
+                + "ContributorID|MagType|Magnitude|MagAuthor|EventLocationName\n");
+        int events = 0;
+        for (long k = now / interval; k >= since.getEpochSecond() / interval; k--) {
+            Random random = new Random(k);
+            long time = k * interval + random.nextInt((int) Math.max(1, interval / 2));
+            if (time > now || time < since.getEpochSecond()) {
+                continue;
+            }
+            String id = "knmi" + time;
+            text.append(String.format(Locale.ROOT, "%s|%s|%.3f|%.3f|%.1f|KNMI|KNMI|KNMI|%s|ML|%.1f|KNMI|%s\n",
+                    id, FDSN_TIME.format(Instant.ofEpochSecond(time)), 53.0 + random.nextDouble() * 0.5,
+                    6.5 + random.nextDouble() * 0.5, 3.0, id, 0.2 + random.nextDouble() * random.nextDouble() * 3,
+                    KNMI_LOCATIONS[random.nextInt(KNMI_LOCATIONS.length)]));
+            events++;
+        }
+        return events == 0 ? new Response(204, TEXT, "") : new Response(200, TEXT, text.toString());
+    }
+
+    /**
+     * Generated values change once per {@code data-interval}.
+     */
+    private long slot() {
+        return System.currentTimeMillis() / dataInterval.toMillis();
+    }
+
+    private static Random random(String a, String b, long slot) {
+        return new Random(((long) a.hashCode() * 31 + b.hashCode()) * 31 + slot);
+    }
+
+    private static String required(Map<String, String> query, String name) {
+        String value = query.get(name);
+        if (value == null || value.isEmpty()) {
+            throw new IllegalArgumentException("Missing parameter '" + name + "'");
+        }
+        return value;
+    }
+
+    private static Map<String, String> query(URI uri) {
+        Map<String, String> query = new HashMap<>();
+        String raw = uri.getRawQuery();
+        if (raw == null) {
+            return query;
+        }
+        for (String pair : raw.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0) {
+                query.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+                        URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return query;
+    }
+}
@@ -0,0 +1,173 @@
+package nl.bioinf.jscscheper.tool.cache;
+
+import nl.bioinf.jscscheper.tool.metrics.Metrics;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Collapses concurrent loads of the same key into one. The first caller for a key runs the loader;
+ * everyone arriving while it is still running shares its result instead of starting another
+ * upstream request.
+ * <p>
+ * Each caller gets a future of its own. Cancelling it leaves the load to the others, and once every
+ * caller has cancelled, the load itself is cancelled; the next caller starts a new one.
+ */
+public class SingleFlight<K, V> {
+
+    private static final class Flight<V> {
+        private final CompletableFuture<V> result = new CompletableFuture<>();
+        private CompletableFuture<V> loading;
+        private int waiters = 0;
+        private boolean abandoned = false;
+
+        /**
+         * A future for one more caller, or null when the flight was abandoned by all earlier ones.
+         */
+        synchronized CompletableFuture<V> join() {
+            if (abandoned) {
+                return null;
+            }
+            waiters++;
+            CompletableFuture<V> waiter = new CompletableFuture<>();
+            result.whenComplete((value, error) -> {
+                if (error != null) {
+                    waiter.completeExceptionally(error);
+                } else {
+                    waiter.complete(value);
+                }
+            });
+            waiter.whenComplete((value, error) -> {
+                if (waiter.isCancelled()) {
+                    leave();
+                }
+            });
+            return waiter;
+        }
+
+        private void leave() {
+            CompletableFuture<V> cancelled;
+            synchronized (this) {
+                if (--waiters > 0 || result.isDone()) {
+                    return;
+                }
+                abandoned = true;
+                cancelled = loading;
+            }
+            if (cancelled != null) {
+                cancelled.cancel(true);
+            }
+            result.cancel(true);
+        }
+    }
+
+    private final String name;
+    private final ConcurrentHashMap<K, Flight<V>> inFlight = new ConcurrentHashMap<>();
+
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder cancelled = new LongAdder();
+
+    public SingleFlight(String name) {
+        this.name = name;
+
+        Metrics.counter("geovis_singleflight_loads_total", "Loads that went upstream", this::getLoads,
+                "flight", name);
+        Metrics.counter("geovis_singleflight_coalesced_total", "Callers that joined a load already in flight",
+                this::getCoalesced, "flight", name);
+        Metrics.counter("geovis_singleflight_cancelled_total", "Loads cancelled because every caller gave up",
+                this::getCancelled, "flight", name);
+        Metrics.gauge("geovis_singleflight_in_flight", "Loads currently running", this::getInFlight, "flight", name);
+    }
+
+    public CompletableFuture<V> execute(K key, Supplier<CompletableFuture<V>> loader) {
+        while (true) {
+            Flight<V> flight = new Flight<>();
+            Flight<V> existing = inFlight.putIfAbsent(key, flight);
+            if (existing == null) {
+                return start(key, flight, loader);
+            }
+            CompletableFuture<V> waiter = existing.join();
+            if (waiter != null) {
+                coalesced.increment();
+                return waiter;
+            }
+            // abandoned, but not removed yet
+            inFlight.remove(key, existing);
+        }
+    }
+
+    private CompletableFuture<V> start(K key, Flight<V> flight, Supplier<CompletableFuture<V>> loader) {
+        loads.increment();
+        CompletableFuture<V> waiter = flight.join();
+        CompletableFuture<V> loading = load(loader);
+        synchronized (flight) {
+            flight.loading = loading;
+        }
+        loading.whenComplete((value, error) -> {
+            inFlight.remove(key, flight);
+            if (loading.isCancelled()) {
+                cancelled.increment();
+            }
+            if (error != null) {
+                flight.result.completeExceptionally(error);
+            } else {
+                flight.result.complete(value);
+            }
+        });
+        return waiter;
+    }
+
+    private static <V> CompletableFuture<V> load(Supplier<CompletableFuture<V>> loader) {
+        try {
+            return loader.get();
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Synchronous variant: the leading caller runs {@code loader} on its own thread, followers
+     * block until it finishes.
+     */
+    public V join(K key, Supplier<V> loader) {
+        CompletableFuture<V> flight = execute(key, () -> CompletableFuture.completedFuture(loader.get()));
+        try {
+            return flight.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getLoads() {
+        return loads.sum();
+    }
+
+    public long getCoalesced() {
+        return coalesced.sum();
+    }
+
+    public long getCancelled() {
+        return cancelled.sum();
+    }
+
+    public int getInFlight() {
+        return inFlight.size();
+    }
+
+    @Override
+    public String toString() {
+        return "SingleFlight{" + name + ", loads=" + getLoads() + ", coalesced=" + getCoalesced() +
+                ", cancelled=" + getCancelled() + ", inFlight=" + getInFlight() + '}';
+    }
+}
@@ -0,0 +1,73 @@
+package nl.bioinf.jscscheper.tool.cache;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Immutable, versioned value published by a {@link TtlCache}. A newer value for the same key is
+ * always a new snapshot, so readers never observe a half-updated dataset.
+ */
+public final class Snapshot<V> {
+
+    private static final AtomicLong VERSIONS = new AtomicLong(System.currentTimeMillis());
+
+    private final V value;
+    private final long version;
+    private final long createdAt;
+    private final long ttlMillis;
+    private final ConcurrentHashMap<String, Object> derived = new ConcurrentHashMap<>();
+
+    public Snapshot(V value, long ttlMillis) {
+        this(value, ttlMillis, System.currentTimeMillis());
+    }
+
+    public Snapshot(V value, long ttlMillis, long createdAt) {
+        this(value, ttlMillis, createdAt, VERSIONS.incrementAndGet());
+    }
+
+    /**
+     * A snapshot with a given version, for values computed from another snapshot that must keep its
+     * version when they are computed again.
+     */
+    Snapshot(V value, long ttlMillis, long createdAt, long version) {
+        this.value = value;
+        this.version = version;
+        this.createdAt = createdAt;
+        this.ttlMillis = ttlMillis;
+    }
+
+    public V getValue() {
+        return value;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    public long getAgeMillis() {
+        return System.currentTimeMillis() - createdAt;
+    }
+
+    public long getTtlMillis() {
+        return ttlMillis;
+    }
+
+    public boolean isExpired() {
+        return getAgeMillis() >= ttlMillis;
+    }
+
+    /**
+     * Returns a view computed from this snapshot's value (an index, clusters, ...), building it on
+     * first use. Because the value never changes the view is built at most once per snapshot and
+     * dropped together with it.
+     */
+    @SuppressWarnings("unchecked")
+    public <D> D derive(String name, Function<? super V, ? extends D> builder) {
+        return (D) derived.computeIfAbsent(name, key -> builder.apply(value));
+    }
+}
@@ -0,0 +1,302 @@
+package nl.bioinf.jscscheper.tool.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Writes datasets to compact binary files in the {@code output.storage} directory and reads them
+ * back on startup, so a restart can serve the last known data while the first refresh runs.
+ * <p>
+ * A file is a fixed header (magic, creation time, payload length, CRC32) followed by the
+ * payload a {@link Codec} wrote. Files are replaced atomically and memory-mapped when read; a file
+ * that is missing, truncated or fails its checksum is ignored. Failures are logged, never thrown:
+ * persistence only ever speeds up a start.
+ */
+public class SnapshotStorage {
+
+    /**
+     * Binary encoding of one dataset type. Include a version in the dataset name when the encoding
+     * changes, so old files are ignored instead of misread.
+     */
+    public interface Codec<T> {
+        void write(DataOutputStream out, T value) throws IOException;
+
+        T read(ByteBuffer in);
+    }
+
+    public static final Codec<String> STRING = new Codec<>() {
+        @Override
+        public void write(DataOutputStream out, String value) throws IOException {
+            writeString(out, value);
+        }
+
+        @Override
+        public String read(ByteBuffer in) {
+            return readString(in);
+        }
+    };
+
+    @FunctionalInterface
+    private interface PayloadWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private static final int MAGIC = 0x47565331; // "GVS1"
+    private static final int HEADER_SIZE = 4 + 8 + 4 + 4;
+    private static final String SUFFIX = ".snapshot";
+
+    private final Path directory;
+
+    /**
+     * @param directory where snapshot files live; null disables persistence
+     */
+    public SnapshotStorage(Path directory) {
+        this.directory = directory;
+    }
+
+    public static SnapshotStorage disabled() {
+        return new SnapshotStorage(null);
+    }
+
+    public boolean isEnabled() {
+        return directory != null;
+    }
+
+    public <T> void save(String name, T value, Codec<T> codec) {
+        save(name, out -> codec.write(out, value));
+    }
+
+    /**
+     * Loads a dataset saved under {@code name}, or returns null when there is no usable file or it
+     * was written longer than {@code maxAge} ago.
+     */
+    public <T> T load(String name, Codec<T> codec, Duration maxAge) {
+        ByteBuffer payload = read(name, maxAge);
+        if (payload == null) {
+            return null;
+        }
+        try {
+            return codec.read(payload);
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            System.err.println("[Storage] Could not decode " + name + ": " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Saves every live entry of {@code cache} with its creation time.
+     */
+    public <K, V> void saveCache(String name, TtlCache<K, V> cache, Codec<K> keys, Codec<V> values) {
+        if (!isEnabled()) {
+            return;
+        }
+        Map<K, Snapshot<V>> entries = cache.snapshots();
+        save(name, out -> {
+            out.writeInt(entries.size());
+            for (Map.Entry<K, Snapshot<V>> entry : entries.entrySet()) {
+                keys.write(out, entry.getKey());
+                out.writeLong(entry.getValue().getCreatedAt());
+                values.write(out, entry.getValue().getValue());
+            }
+        });
+    }
+
+    /**
+     * Puts the entries saved by {@link #saveCache} back into {@code cache} as already expired
+     * snapshots: they are served as stale data for the cache's stale window, or until a refresh
+     * replaces them. Entries older than {@code maxAge} are skipped. Returns the number restored.
+     */
+    public <K, V> int restoreCache(String name, TtlCache<K, V> cache, Codec<K> keys, Codec<V> values,
+            Duration maxAge) {
+        ByteBuffer payload = read(name, maxAge);
+        if (payload == null) {
+            return 0;
+        }
+
+        long oldest = System.currentTimeMillis() - maxAge.toMillis();
+        int restored = 0;
+        try {
+            int count = payload.getInt();
+            for (int i = 0; i < count; i++) {
+                K key = keys.read(payload);
+                long createdAt = payload.getLong();
+                V value = values.read(payload);
+                if (createdAt >= oldest) {
+                    cache.put(key, value, Duration.ZERO);
+                    restored++;
+                }
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            System.err.println("[Storage] Could not decode " + name + ": " + e);
+        }
+        return restored;
+    }
+
+    /**
+     * Codec for an immutable list of {@code elements}.
+     */
+    public static <E> Codec<List<E>> list(Codec<E> elements) {
+        return new Codec<>() {
+            @Override
+            public void write(DataOutputStream out, List<E> value) throws IOException {
+                out.writeInt(value.size());
+                for (E element : value) {
+                    elements.write(out, element);
+                }
+            }
+
+            @Override
+            public List<E> read(ByteBuffer in) {
+                int size = in.getInt();
+                if (size < 0 || size > in.remaining()) {
+                    throw new IllegalArgumentException("Invalid list size " + size);
+                }
+                List<E> list = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    list.add(elements.read(in));
+                }
+                return Collections.unmodifiableList(list);
+            }
+        };
+    }
+
+    /**
+     * Writes a length-prefixed UTF-8 string; null is written as length -1.
+     */
+    public static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    public static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > in.remaining()) {
+            throw new IllegalArgumentException("Invalid string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private void save(String name, PayloadWriter writer) {
+        if (!isEnabled()) {
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        Path temp = null;
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 * 1024);
+            try (DataOutputStream out = new DataOutputStream(bytes)) {
+                writer.write(out);
+            }
+            byte[] payload = bytes.toByteArray();
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+
+            Files.createDirectories(directory);
+            temp = Files.createTempFile(directory, name, ".tmp");
+            try (OutputStream file = Files.newOutputStream(temp);
+                    DataOutputStream out = new DataOutputStream(file)) {
+                out.writeInt(MAGIC);
+                out.writeLong(start);
+                out.writeInt(payload.length);
+                out.writeInt((int) crc.getValue());
+                out.write(payload);
+            }
+            Files.move(temp, file(name), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            temp = null;
+
+            System.out.println("[Storage] Saved " + name + " (" + (payload.length + HEADER_SIZE) + " bytes, "
+                    + (System.currentTimeMillis() - start) + " ms)");
+        } catch (IOException | RuntimeException e) {
+            System.err.println("[Storage] Could not save " + name + ": " + e);
+        } finally {
+            if (temp != null) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException ignored) {
+                    // the next save creates a new temporary file anyway
+                }
+            }
+        }
+    }
+
+    /**
+     * Maps the file for {@code name} and returns its payload after checking the header, or null.
+     */
+    private ByteBuffer read(String name, Duration maxAge) {
+        if (!isEnabled()) {
+            return null;
+        }
+
+        Path file = file(name);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+                System.err.println("[Storage] Ignoring " + file + ": unexpected size " + size);
+                return null;
+            }
+
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            long createdAt = buffer.getInt() == MAGIC ? buffer.getLong() : -1;
+            int length = buffer.getInt();
+            int checksum = buffer.getInt();
+            if (createdAt < 0 || length != size - HEADER_SIZE) {
+                System.err.println("[Storage] Ignoring " + file + ": not a snapshot file or truncated");
+                return null;
+            }
+            if (System.currentTimeMillis() - createdAt > maxAge.toMillis()) {
+                System.out.println("[Storage] Ignoring " + name + ": older than " + maxAge.toHours() + " h");
+                return null;
+            }
+
+            ByteBuffer payload = buffer.slice();
+            CRC32 crc = new CRC32();
+            crc.update(payload.duplicate());
+            if ((int) crc.getValue() != checksum) {
+                System.err.println("[Storage] Ignoring " + file + ": checksum mismatch");
+                return null;
+            }
+
+            System.out.println("[Storage] Loaded " + name + " (" + size + " bytes, saved "
+                    + Duration.ofMillis(System.currentTimeMillis() - createdAt).toMinutes() + " min ago)");
+            return payload;
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            System.err.println("[Storage] Could not read " + file + ": " + e);
+            return null;
+        }
+    }
+
+    private Path file(String name) {
+        return directory.resolve(name + SUFFIX);
+    }
+}
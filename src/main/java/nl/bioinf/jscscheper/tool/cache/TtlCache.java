@@ -0,0 +1,253 @@
+package nl.bioinf.jscscheper.tool.cache;
+
+import nl.bioinf.jscscheper.tool.metrics.Metrics;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToIntFunction;
+
+/**
+ * Thread-safe, weight-bounded LRU cache of {@link Snapshot}s with a TTL per entry.
+ * <p>
+ * An entry stays readable for {@code staleWindow} after its TTL so callers can serve it while a
+ * refresh is in progress; after that it is dropped. Entries are evicted in least-recently-used
+ * order once the total weight exceeds {@code maxWeight}.
+ */
+public class TtlCache<K, V> {
+
+    private static final class Node<V> {
+        private final Snapshot<V> snapshot;
+        private final int weight;
+        private volatile long lastAccess;
+
+        Node(Snapshot<V> snapshot, int weight, long lastAccess) {
+            this.snapshot = snapshot;
+            this.weight = weight;
+            this.lastAccess = lastAccess;
+        }
+    }
+
+    private final String name;
+    private final long maxWeight;
+    private final ToIntFunction<V> weigher;
+    private final long staleWindowMillis;
+
+    private final LinkedHashMap<K, Node<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalWeight = 0;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder staleHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+
+    public TtlCache(String name, int maxEntries, Duration staleWindow) {
+        this(name, maxEntries, value -> 1, staleWindow);
+    }
+
+    public TtlCache(String name, long maxWeight, ToIntFunction<V> weigher, Duration staleWindow) {
+        this.name = name;
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+        this.staleWindowMillis = staleWindow.toMillis();
+
+        String help = "Cache lookups by result";
+        Metrics.counter("geovis_cache_requests_total", help, this::getHits, "cache", name, "result", "hit");
+        Metrics.counter("geovis_cache_requests_total", help, this::getStaleHits, "cache", name, "result", "stale");
+        Metrics.counter("geovis_cache_requests_total", help, this::getMisses, "cache", name, "result", "miss");
+        help = "Entries removed from the cache by reason";
+        Metrics.counter("geovis_cache_removals_total", help, this::getEvictions, "cache", name, "reason", "size");
+        Metrics.counter("geovis_cache_removals_total", help, this::getExpirations, "cache", name, "reason", "expired");
+        Metrics.gauge("geovis_cache_entries", "Entries in the cache", this::size, "cache", name);
+        Metrics.gauge("geovis_cache_weight", "Total weight of the cache entries", this::getWeight, "cache", name);
+    }
+
+    /**
+     * Returns the current snapshot for {@code key}, which may be past its TTL but still inside the
+     * stale window, or {@code null} when there is none.
+     */
+    public Snapshot<V> get(K key) {
+        Node<V> node;
+        synchronized (this) {
+            node = entries.get(key);
+            if (node != null && isDead(node.snapshot)) {
+                remove(key, node);
+                expirations.increment();
+                node = null;
+            }
+        }
+
+        if (node == null) {
+            misses.increment();
+            return null;
+        }
+
+        node.lastAccess = System.currentTimeMillis();
+        if (node.snapshot.isExpired()) {
+            staleHits.increment();
+        } else {
+            hits.increment();
+        }
+        return node.snapshot;
+    }
+
+    /**
+     * Looks up {@code key} without counting it as a read, for background refreshes.
+     */
+    public synchronized Snapshot<V> peek(K key) {
+        Node<V> node = entries.get(key);
+        return node != null && !isDead(node.snapshot) ? node.snapshot : null;
+    }
+
+    /**
+     * Returns the snapshot for {@code key} only while it is within its TTL.
+     */
+    public V getFresh(K key) {
+        Snapshot<V> snapshot = get(key);
+        return snapshot != null && !snapshot.isExpired() ? snapshot.getValue() : null;
+    }
+
+    public Snapshot<V> put(K key, V value, Duration ttl) {
+        return put(key, new Snapshot<>(value, ttl.toMillis()));
+    }
+
+    /**
+     * Stores a value computed from the snapshot with {@code version}, under that same version, so
+     * recomputing it after it expired or was evicted does not change its version (and ETag).
+     */
+    public Snapshot<V> put(K key, V value, Duration ttl, long version) {
+        return put(key, new Snapshot<>(value, ttl.toMillis(), System.currentTimeMillis(), version));
+    }
+
+    private Snapshot<V> put(K key, Snapshot<V> snapshot) {
+        V value = snapshot.getValue();
+        int weight = Math.max(1, weigher.applyAsInt(value));
+
+        synchronized (this) {
+            Node<V> previous = entries.get(key);
+            long lastAccess = previous != null ? previous.lastAccess : System.currentTimeMillis();
+            if (previous != null) {
+                totalWeight -= previous.weight;
+            }
+            entries.put(key, new Node<>(snapshot, weight, lastAccess));
+            totalWeight += weight;
+            evictIfNeeded(key);
+        }
+        return snapshot;
+    }
+
+    public synchronized void invalidate(K key) {
+        Node<V> node = entries.get(key);
+        if (node != null) {
+            remove(key, node);
+        }
+    }
+
+    /**
+     * Keys that a reader has requested within {@code window}. Background refreshes use this so
+     * entries nobody looks at any more are allowed to expire instead of being kept alive forever.
+     */
+    public synchronized List<K> recentlyAccessedKeys(Duration window) {
+        long cutoff = System.currentTimeMillis() - window.toMillis();
+        List<K> keys = new ArrayList<>();
+        for (Map.Entry<K, Node<V>> entry : entries.entrySet()) {
+            if (entry.getValue().lastAccess >= cutoff) {
+                keys.add(entry.getKey());
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Copy of all entries that are still readable, least recently used first.
+     */
+    public synchronized Map<K, Snapshot<V>> snapshots() {
+        Map<K, Snapshot<V>> snapshots = new LinkedHashMap<>();
+        for (Map.Entry<K, Node<V>> entry : entries.entrySet()) {
+            if (!isDead(entry.getValue().snapshot)) {
+                snapshots.put(entry.getKey(), entry.getValue().snapshot);
+            }
+        }
+        return snapshots;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getWeight() {
+        return totalWeight;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getStaleHits() {
+        return staleHits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public long getExpirations() {
+        return expirations.sum();
+    }
+
+    public double getHitRatio() {
+        long served = getHits() + getStaleHits();
+        long total = served + getMisses();
+        return total == 0 ? 0.0 : (double) served / total;
+    }
+
+    @Override
+    public String toString() {
+        return "TtlCache{" + name + ", size=" + size() + ", weight=" + getWeight() + "/" + maxWeight +
+                ", hits=" + getHits() + ", staleHits=" + getStaleHits() + ", misses=" + getMisses() +
+                ", evictions=" + getEvictions() + ", expirations=" + getExpirations() + '}';
+    }
+
+    private boolean isDead(Snapshot<V> snapshot) {
+        return snapshot.getAgeMillis() >= snapshot.getTtlMillis() + staleWindowMillis;
+    }
+
+    private void remove(K key, Node<V> node) {
+        entries.remove(key);
+        totalWeight -= node.weight;
+    }
+
+    private void evictIfNeeded(K justAdded) {
+        Iterator<Map.Entry<K, Node<V>>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<K, Node<V>> eldest = it.next();
+            boolean dead = isDead(eldest.getValue().snapshot);
+            if (!dead && totalWeight <= maxWeight) {
+                break;
+            }
+            if (!dead && eldest.getKey().equals(justAdded)) {
+                continue;
+            }
+            it.remove();
+            totalWeight -= eldest.getValue().weight;
+            if (dead) {
+                expirations.increment();
+            } else {
+                evictions.increment();
+            }
+        }
+    }
+}
@@ -1,27 +1,333 @@
 package nl.bioinf.jscscheper.tool.config;
 
 import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import nl.bioinf.jscscheper.tool.cache.Snapshot;
+import nl.bioinf.jscscheper.tool.metrics.Histogram;
+import nl.bioinf.jscscheper.tool.metrics.Metrics;
 
+import javax.servlet.http.HttpServletMapping;
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
 import java.util.Map;
+import java.util.function.Supplier;
+import java.util.zip.GZIPOutputStream;
 
 public class ApiResponse {
 
-    private static final Gson GSON = new Gson();
+    /**
+     * Missing measurements are NaN in the models (a station without weather yet), which JSON cannot
+     * represent; such fields are left out, the way the frontend already treats optional values.
+     */
+    private static final TypeAdapter<Float> FLOAT = new TypeAdapter<>() {
+        @Override
+        public void write(JsonWriter out, Float value) throws IOException {
+            if (value == null || !Float.isFinite(value)) {
+                out.nullValue();
+            } else {
+                out.value(value);
+            }
+        }
+
+        @Override
+        public Float read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return Float.NaN;
+            }
+            return (float) in.nextDouble();
+        }
+    };
+
+    private static final Gson GSON = new GsonBuilder()
+            .registerTypeAdapter(float.class, FLOAT)
+            .registerTypeAdapter(Float.class, FLOAT)
+            .create();
+
+    /**
+     * Writes a cached snapshot with a strong ETag derived from its version. A matching
+     * {@code If-None-Match} is answered with 304 without serializing anything.
+     */
+    public static void writeJson(HttpServletRequest request, HttpServletResponse response, Snapshot<?> snapshot)
+            throws IOException {
+        writeJson(request, response, snapshot.getValue(), snapshot.getVersion());
+    }
+
+    /**
+     * Writes a view derived from a snapshot (filtered, clustered, ...). The URL already identifies the
+     * view, so the snapshot version is enough to tell whether the client's copy is current.
+     */
+    public static void writeJson(HttpServletRequest request, HttpServletResponse response, Object data,
+            long version) throws IOException {
+        writeJson(request, response, data, version, "Accept-Encoding");
+    }
+
+    private static void writeJson(HttpServletRequest request, HttpServletResponse response, Object data,
+            long version, String vary) throws IOException {
+        boolean gzip = acceptsGzip(request);
+        String etag = etag("v", version, gzip);
+
+        response.setHeader("Vary", vary);
+        response.setHeader("Cache-Control", "no-cache");
+        response.setHeader("ETag", etag);
+
+        if (matches(request.getHeader("If-None-Match"), etag)) {
+            notModified(request, response);
+            return;
+        }
+        long start = System.nanoTime();
+        writeJson(response, data, gzip);
+        writeTimer(request, "json").recordSince(start);
+    }
+
+    /**
+     * Writes {@code rows} as JSON, or in {@link ColumnarFormat} when the client accepts it.
+     */
+    public static <T> void write(HttpServletRequest request, HttpServletResponse response, List<T> rows,
+            long version, ColumnarFormat.Schema<T> schema) throws IOException {
+        write(request, response, version, () -> rows, () -> schema.table(rows));
+    }
+
+    /**
+     * Writes the JSON or the columnar representation of the same data, whichever the client asked
+     * for. Only the chosen one is built.
+     */
+    public static void write(HttpServletRequest request, HttpServletResponse response, long version,
+            Supplier<Object> json, Supplier<ColumnarFormat.Table> columns) throws IOException {
+        if (ColumnarFormat.isAccepted(request)) {
+            writeColumnar(request, response, columns.get(), version);
+            return;
+        }
+        writeJson(request, response, json.get(), version, "Accept, Accept-Encoding");
+    }
+
+    public static <T> void write(HttpServletRequest request, HttpServletResponse response,
+            Snapshot<List<T>> snapshot, ColumnarFormat.Schema<T> schema) throws IOException {
+        write(request, response, snapshot.getValue(), snapshot.getVersion(), schema);
+    }
+
+    /**
+     * Writes {@code rows} that are not tied to a snapshot (e.g. a random sample) without an ETag.
+     */
+    public static <T> void write(HttpServletRequest request, HttpServletResponse response, List<T> rows,
+            ColumnarFormat.Schema<T> schema) throws IOException {
+        boolean gzip = acceptsGzip(request);
+        response.setHeader("Vary", "Accept, Accept-Encoding");
+        long start = System.nanoTime();
+        if (ColumnarFormat.isAccepted(request)) {
+            writeBody(response, ColumnarFormat.CONTENT_TYPE, schema.table(rows).encode(), gzip);
+            writeTimer(request, "columnar").recordSince(start);
+        } else {
+            writeJson(response, rows, gzip);
+            writeTimer(request, "json").recordSince(start);
+        }
+    }
+
+    /**
+     * Writes a columnar table with its own ETag, so a cached JSON copy never answers a columnar
+     * request or the other way round.
+     */
+    public static void writeColumnar(HttpServletRequest request, HttpServletResponse response,
+            ColumnarFormat.Table table, long version) throws IOException {
+        boolean gzip = acceptsGzip(request);
+        String etag = etag("c", version, gzip);
+
+        response.setHeader("Vary", "Accept, Accept-Encoding");
+        response.setHeader("Cache-Control", "no-cache");
+        response.setHeader("ETag", etag);
+
+        if (matches(request.getHeader("If-None-Match"), etag)) {
+            notModified(request, response);
+            return;
+        }
+        long start = System.nanoTime();
+        writeBody(response, ColumnarFormat.CONTENT_TYPE, table.encode(), gzip);
+        writeTimer(request, "columnar").recordSince(start);
+    }
+
+    /**
+     * Writes an already encoded binary body with the same ETag and gzip handling as
+     * {@link #writeJson(HttpServletRequest, HttpServletResponse, Object, long)}.
+     */
+    public static void writeBytes(HttpServletRequest request, HttpServletResponse response, String contentType,
+            byte[] body, long version) throws IOException {
+        boolean gzip = acceptsGzip(request);
+        String etag = etag("v", version, gzip);
+
+        response.setHeader("Vary", "Accept-Encoding");
+        response.setHeader("Cache-Control", "no-cache");
+        response.setHeader("ETag", etag);
+
+        if (matches(request.getHeader("If-None-Match"), etag)) {
+            notModified(request, response);
+            return;
+        }
+        long start = System.nanoTime();
+        writeBody(response, contentType, body, gzip);
+        writeTimer(request, "binary").recordSince(start);
+    }
+
+    private static void writeBody(HttpServletResponse response, String contentType, byte[] body, boolean gzip)
+            throws IOException {
+        response.setContentType(contentType);
+        if (!gzip) {
+            response.setContentLength(body.length);
+            response.getOutputStream().write(body);
+            return;
+        }
+
+        response.setHeader("Content-Encoding", "gzip");
+        try (GZIPOutputStream out = new GZIPOutputStream(response.getOutputStream(), Utf8StreamWriter.BUFFER_SIZE)) {
+            out.write(body);
+        }
+    }
+
+    public static void writeJson(HttpServletRequest request, HttpServletResponse response, Object data)
+            throws IOException {
+        boolean gzip = acceptsGzip(request);
+        response.setHeader("Vary", "Accept-Encoding");
+        long start = System.nanoTime();
+        writeJson(response, data, gzip);
+        writeTimer(request, "json").recordSince(start);
+    }
 
     public static void writeJson(HttpServletResponse response, Object data) throws IOException {
-        response.setContentType("application/json");
-        response.setCharacterEncoding("UTF-8");
-        response.getWriter().write(GSON.toJson(data));
+        writeJson(response, data, false);
+    }
+
+    /**
+     * Streams {@code data} as JSON. If serializing fails partway, the buffered tail is dropped rather
+     * than flushed, so the output stops short instead of ending in what looks like a complete body.
+     */
+    public static void writeJson(OutputStream out, Object data) throws IOException {
+        Utf8StreamWriter writer = Utf8StreamWriter.forStream(out);
+        try {
+            JsonWriter jsonWriter = GSON.newJsonWriter(writer);
+            GSON.toJson(data, data == null ? Object.class : data.getClass(), jsonWriter);
+            jsonWriter.flush();
+        } catch (RuntimeException | IOException e) {
+            writer.discard();
+            throw e;
+        }
+        writer.close();
     }
 
+    /**
+     * Sends an error body. Once part of another body has gone out the status can no longer change,
+     * and a second document would only be appended to the first, so the error is logged instead.
+     */
     public static void writeError(HttpServletResponse response, int status, String message) throws IOException {
+        if (response.isCommitted()) {
+            System.err.println("[Response] Already committed, could not send " + status + ": " + message);
+            return;
+        }
         response.setStatus(status);
         writeJson(response, Map.of("error", message));
     }
 
+    /**
+     * A 503 for data that has not been loaded from its upstream yet, so clients retry instead of
+     * taking the absence of data for an empty answer.
+     */
+    public static void writeUnavailable(HttpServletResponse response, String message) throws IOException {
+        response.setHeader("Retry-After", "5");
+        writeError(response, 503, message);
+    }
+
     public static Gson getGson() {
         return GSON;
     }
+
+    private static void writeJson(HttpServletResponse response, Object data, boolean gzip) throws IOException {
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+
+        try {
+            if (!gzip) {
+                writeJson(response.getOutputStream(), data);
+                return;
+            }
+
+            response.setHeader("Content-Encoding", "gzip");
+            // not closed on failure: the gzip trailer would make a truncated body look complete
+            GZIPOutputStream out = new GZIPOutputStream(response.getOutputStream(), Utf8StreamWriter.BUFFER_SIZE);
+            writeJson(out, data);
+            out.close();
+        } catch (RuntimeException e) {
+            // nothing sent yet: drop the partial body and its headers so an error can replace it
+            if (!response.isCommitted()) {
+                response.reset();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * The servlet mapping that handled the request, e.g. {@code /weatherdata} or {@code /tiles/*}, so
+     * metrics get one label value per endpoint rather than per URL.
+     */
+    public static String endpoint(HttpServletRequest request) {
+        HttpServletMapping mapping = request.getHttpServletMapping();
+        return mapping != null && mapping.getPattern() != null ? mapping.getPattern() : request.getServletPath();
+    }
+
+    private static void notModified(HttpServletRequest request, HttpServletResponse response) {
+        response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        Metrics.counter("geovis_responses_not_modified_total", "Requests answered with 304 from their ETag",
+                "endpoint", endpoint(request)).increment();
+    }
+
+    private static Histogram writeTimer(HttpServletRequest request, String format) {
+        return Metrics.timer("geovis_response_write_seconds", "Time spent encoding and writing response bodies",
+                "endpoint", endpoint(request), "format", format);
+    }
+
+    private static String etag(String kind, long version, boolean gzip) {
+        return "\"" + kind + Long.toHexString(version) + (gzip ? "-gz\"" : "\"");
+    }
+
+    static boolean acceptsGzip(HttpServletRequest request) {
+        String header = request.getHeader("Accept-Encoding");
+        if (header == null) {
+            return false;
+        }
+        for (String coding : header.split(",")) {
+            String[] parts = coding.trim().split(";");
+            String name = parts[0].trim();
+            if (!name.equalsIgnoreCase("gzip") && !name.equals("*")) {
+                continue;
+            }
+            for (int i = 1; i < parts.length; i++) {
+                String param = parts[i].trim();
+                if (param.startsWith("q=") && param.substring(2).trim().matches("0(\\.0*)?")) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
 }
@@ -0,0 +1,170 @@
+package nl.bioinf.jscscheper.tool.config;
+
+import nl.bioinf.jscscheper.tool.metrics.Counter;
+import nl.bioinf.jscscheper.tool.metrics.Metrics;
+import nl.bioinf.jscscheper.tool.util.Futures;
+import nl.bioinf.jscscheper.tool.util.UpstreamUnavailableException;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Answers requests whose data is still being fetched without holding a container thread while they
+ * wait. A result that is already complete (a cache hit) is written right away; otherwise the request
+ * goes asynchronous and is written on a container thread once the result arrives.
+ * <p>
+ * Waiting requests cost memory rather than threads, so their number is capped by a heap budget;
+ * beyond it requests are turned away with 503. A request that times out or whose client goes away
+ * cancels its result, which cancels the upstream calls nobody else is waiting for.
+ */
+public class AsyncResponses {
+
+    /**
+     * Writes the value once it is there. Request parameters are validated before {@code respond},
+     * so any exception here, like a failed result, is a server error and becomes a 500. A result
+     * that failed with {@link UpstreamUnavailableException} becomes a 503 instead.
+     */
+    public interface Writer<T> {
+        void write(T value) throws IOException;
+    }
+
+    public static final Duration DEFAULT_TIMEOUT = Duration.ofSeconds(60);
+
+    // request and response objects, buffers and a share of the upstream bodies being parsed for it
+    public static final long BYTES_PER_REQUEST = 64 * 1024;
+    // of the maximum heap, the part waiting requests may take up
+    public static final double HEAP_FRACTION = 0.25;
+
+    private final int maxPending;
+    private final long timeoutMillis;
+    private final AtomicInteger pending = new AtomicInteger();
+
+    private final Counter rejected = Metrics.counter("geovis_async_rejected_total",
+            "Requests turned away because too many were waiting");
+    private final Counter timedOut = Metrics.counter("geovis_async_abandoned_total",
+            "Waiting requests given up on", "reason", "timeout");
+    private final Counter disconnected = Metrics.counter("geovis_async_abandoned_total",
+            "Waiting requests given up on", "reason", "error");
+
+    public AsyncResponses(int maxPending, Duration timeout) {
+        if (maxPending < 1) {
+            throw new IllegalArgumentException("maxPending must be at least 1, got " + maxPending);
+        }
+        this.maxPending = maxPending;
+        this.timeoutMillis = timeout.toMillis();
+
+        Metrics.gauge("geovis_async_pending", "Requests waiting for data", this::getPending);
+    }
+
+    /**
+     * How many requests of {@link #BYTES_PER_REQUEST} fit in {@link #HEAP_FRACTION} of {@code maxHeap}.
+     */
+    public static int maxPendingFor(long maxHeap) {
+        long fits = (long) (maxHeap * HEAP_FRACTION) / BYTES_PER_REQUEST;
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, fits));
+    }
+
+    /**
+     * Writes {@code result} with {@code writer} when it completes. {@code failure} is the message of
+     * the 500 sent when it or the writer fails; callers answer bad parameters with a 400 before
+     * getting here.
+     */
+    public <T> void respond(HttpServletRequest request, HttpServletResponse response, CompletableFuture<T> result,
+            String failure, Writer<T> writer) throws IOException {
+        if (result.isDone()) {
+            write(request, response, result, failure, writer);
+            return;
+        }
+
+        if (pending.incrementAndGet() > maxPending) {
+            pending.decrementAndGet();
+            rejected.increment();
+            result.cancel(true);
+            response.setHeader("Retry-After", "1");
+            ApiResponse.writeError(response, 503, "Too many requests waiting, try again shortly");
+            return;
+        }
+
+        AsyncContext async = request.startAsync(request, response);
+        async.setTimeout(timeoutMillis);
+        AtomicBoolean finished = new AtomicBoolean();
+        async.addListener(new AsyncListener() {
+            @Override
+            public void onComplete(AsyncEvent event) {
+                pending.decrementAndGet();
+            }
+
+            @Override
+            public void onTimeout(AsyncEvent event) throws IOException {
+                if (finished.compareAndSet(false, true)) {
+                    timedOut.increment();
+                    result.cancel(true);
+                    ApiResponse.writeError(response, 504, "Timed out waiting for upstream data");
+                }
+                async.complete();
+            }
+
+            @Override
+            public void onError(AsyncEvent event) {
+                // the client disconnected, or the container failed the request
+                if (finished.compareAndSet(false, true)) {
+                    disconnected.increment();
+                    result.cancel(true);
+                }
+                async.complete();
+            }
+
+            @Override
+            public void onStartAsync(AsyncEvent event) {
+            }
+        });
+
+        result.whenComplete((value, error) -> {
+            if (!finished.compareAndSet(false, true)) {
+                return;
+            }
+            async.start(() -> {
+                try {
+                    write(request, response, result, failure, writer);
+                } catch (IOException e) {
+                    System.err.println("[Async] Could not write " + ApiResponse.endpoint(request) + ": "
+                            + e.getMessage());
+                } finally {
+                    async.complete();
+                }
+            });
+        });
+    }
+
+    public int getPending() {
+        return pending.get();
+    }
+
+    public int getMaxPending() {
+        return maxPending;
+    }
+
+    private static <T> void write(HttpServletRequest request, HttpServletResponse response,
+            CompletableFuture<T> result, String failure, Writer<T> writer) throws IOException {
+        try {
+            writer.write(result.join());
+        } catch (RuntimeException e) {
+            Throwable cause = Futures.unwrap(e);
+            if (cause instanceof UpstreamUnavailableException) {
+                ApiResponse.writeUnavailable(response, cause.getMessage());
+                return;
+            }
+            System.err.println("[Async] " + failure + " (" + ApiResponse.endpoint(request) + "): " + cause);
+            cause.printStackTrace();
+            ApiResponse.writeError(response, 500, failure);
+        }
+    }
+}
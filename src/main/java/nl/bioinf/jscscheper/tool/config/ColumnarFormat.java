@@ -0,0 +1,307 @@
+package nl.bioinf.jscscheper.tool.config;
+
+import javax.servlet.http.HttpServletRequest;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToIntFunction;
+
+/**
+ * Compact column-oriented alternative to JSON, sent when a client asks for {@link #CONTENT_TYPE} in
+ * its {@code Accept} header. Field names are written once instead of once per row, numbers are raw
+ * little-endian values and strings go through a per-column dictionary.
+ * <p>
+ * Layout: the magic {@code GVC1}, the row count and the column count (uint32 each), then per column
+ * a type byte, a uint16 name length and the UTF-8 name. After that come the column bodies in the same
+ * order, each starting on an 8-byte boundary so a browser can view them as typed arrays without
+ * copying:
+ * <ul>
+ * <li>{@code f32}, {@code f64}, {@code i32}: one value per row; missing numbers are NaN</li>
+ * <li>{@code bool}: one byte per row</li>
+ * <li>{@code str}: the dictionary size {@code n}, {@code n + 1} uint32 byte offsets, the UTF-8
+ * bytes, padding to 4 bytes and then one int32 dictionary index per row, -1 for null</li>
+ * </ul>
+ */
+public final class ColumnarFormat {
+
+    public static final String CONTENT_TYPE = "application/vnd.geovis.columnar";
+
+    private static final byte[] MAGIC = { 'G', 'V', 'C', '1' };
+    private static final byte FLOAT32 = 1;
+    private static final byte FLOAT64 = 2;
+    private static final byte INT32 = 3;
+    private static final byte BOOL = 4;
+    private static final byte STRING = 5;
+
+    private ColumnarFormat() {
+    }
+
+    /**
+     * True when the request's {@code Accept} header lists the columnar type with a non-zero quality.
+     */
+    public static boolean isAccepted(HttpServletRequest request) {
+        String header = request.getHeader("Accept");
+        if (header == null) {
+            return false;
+        }
+        for (String range : header.split(",")) {
+            String[] parts = range.trim().split(";");
+            if (!parts[0].trim().equalsIgnoreCase(CONTENT_TYPE)) {
+                continue;
+            }
+            for (int i = 1; i < parts.length; i++) {
+                String param = parts[i].trim();
+                if (param.startsWith("q=") && param.substring(2).trim().matches("0(\\.0*)?")) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * A table of equally long columns.
+     */
+    public static final class Table {
+
+        private final int rows;
+        private final List<String> names = new ArrayList<>();
+        private final List<Byte> types = new ArrayList<>();
+        private final List<Object> columns = new ArrayList<>();
+
+        public Table(int rows) {
+            this.rows = rows;
+        }
+
+        public Table float32(String name, float[] values) {
+            return add(name, FLOAT32, values, values.length);
+        }
+
+        public Table float64(String name, double[] values) {
+            return add(name, FLOAT64, values, values.length);
+        }
+
+        public Table int32(String name, int[] values) {
+            return add(name, INT32, values, values.length);
+        }
+
+        public Table bool(String name, boolean[] values) {
+            return add(name, BOOL, values, values.length);
+        }
+
+        public Table string(String name, String[] values) {
+            return add(name, STRING, values, values.length);
+        }
+
+        public byte[] encode() {
+            List<byte[]> nameBytes = new ArrayList<>();
+            int size = 12;
+            for (String name : names) {
+                byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+                nameBytes.add(bytes);
+                size += 3 + bytes.length;
+            }
+
+            List<Dictionary> dictionaries = new ArrayList<>();
+            for (int c = 0; c < columns.size(); c++) {
+                size = align(size, 8);
+                Dictionary dictionary = types.get(c) == STRING ? new Dictionary((String[]) columns.get(c)) : null;
+                dictionaries.add(dictionary);
+                size += bodySize(types.get(c), dictionary);
+            }
+            size = align(size, 8);
+
+            ByteBuffer out = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+            out.put(MAGIC).putInt(rows).putInt(columns.size());
+            for (int c = 0; c < columns.size(); c++) {
+                out.put(types.get(c)).putShort((short) nameBytes.get(c).length).put(nameBytes.get(c));
+            }
+
+            for (int c = 0; c < columns.size(); c++) {
+                out.position(align(out.position(), 8));
+                Object column = columns.get(c);
+                switch (types.get(c)) {
+                    case FLOAT32:
+                        out.asFloatBuffer().put((float[]) column);
+                        out.position(out.position() + rows * 4);
+                        break;
+                    case FLOAT64:
+                        out.asDoubleBuffer().put((double[]) column);
+                        out.position(out.position() + rows * 8);
+                        break;
+                    case INT32:
+                        out.asIntBuffer().put((int[]) column);
+                        out.position(out.position() + rows * 4);
+                        break;
+                    case BOOL:
+                        for (boolean value : (boolean[]) column) {
+                            out.put((byte) (value ? 1 : 0));
+                        }
+                        break;
+                    default:
+                        dictionaries.get(c).write(out);
+                        break;
+                }
+            }
+            return out.array();
+        }
+
+        private Table add(String name, byte type, Object values, int length) {
+            if (length != rows) {
+                throw new IllegalArgumentException("Column " + name + " has " + length + " values, expected " + rows);
+            }
+            names.add(name);
+            types.add(type);
+            columns.add(values);
+            return this;
+        }
+
+        private int bodySize(byte type, Dictionary dictionary) {
+            switch (type) {
+                case FLOAT32:
+                case INT32:
+                    return rows * 4;
+                case FLOAT64:
+                    return rows * 8;
+                case BOOL:
+                    return rows;
+                default:
+                    return dictionary.size();
+            }
+        }
+    }
+
+    /**
+     * Encodes lists of {@code T} by extracting one column per registered property.
+     */
+    public static final class Schema<T> {
+
+        private interface Extractor<T> {
+            void addTo(Table table, List<T> rows);
+        }
+
+        private final List<Extractor<T>> extractors = new ArrayList<>();
+
+        public Schema<T> float32(String name, ToDoubleFunction<T> property) {
+            extractors.add((table, rows) -> {
+                float[] values = new float[rows.size()];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = (float) property.applyAsDouble(rows.get(i));
+                }
+                table.float32(name, values);
+            });
+            return this;
+        }
+
+        public Schema<T> float64(String name, ToDoubleFunction<T> property) {
+            extractors.add((table, rows) -> {
+                double[] values = new double[rows.size()];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = property.applyAsDouble(rows.get(i));
+                }
+                table.float64(name, values);
+            });
+            return this;
+        }
+
+        public Schema<T> int32(String name, ToIntFunction<T> property) {
+            extractors.add((table, rows) -> {
+                int[] values = new int[rows.size()];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = property.applyAsInt(rows.get(i));
+                }
+                table.int32(name, values);
+            });
+            return this;
+        }
+
+        public Schema<T> bool(String name, Predicate<T> property) {
+            extractors.add((table, rows) -> {
+                boolean[] values = new boolean[rows.size()];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = property.test(rows.get(i));
+                }
+                table.bool(name, values);
+            });
+            return this;
+        }
+
+        public Schema<T> string(String name, Function<T, String> property) {
+            extractors.add((table, rows) -> {
+                String[] values = new String[rows.size()];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = property.apply(rows.get(i));
+                }
+                table.string(name, values);
+            });
+            return this;
+        }
+
+        public Table table(List<T> rows) {
+            Table table = new Table(rows.size());
+            for (Extractor<T> extractor : extractors) {
+                extractor.addTo(table, rows);
+            }
+            return table;
+        }
+    }
+
+    private static final class Dictionary {
+        private final int[] indices;
+        private final List<byte[]> entries = new ArrayList<>();
+        private int bytes = 0;
+
+        Dictionary(String[] values) {
+            indices = new int[values.length];
+            Map<String, Integer> seen = new HashMap<>();
+            for (int i = 0; i < values.length; i++) {
+                if (values[i] == null) {
+                    indices[i] = -1;
+                    continue;
+                }
+                Integer index = seen.get(values[i]);
+                if (index == null) {
+                    index = entries.size();
+                    seen.put(values[i], index);
+                    byte[] encoded = values[i].getBytes(StandardCharsets.UTF_8);
+                    entries.add(encoded);
+                    bytes += encoded.length;
+                }
+                indices[i] = index;
+            }
+        }
+
+        int size() {
+            return align(4 + 4 * (entries.size() + 1) + bytes, 4) + 4 * indices.length;
+        }
+
+        void write(ByteBuffer out) {
+            out.putInt(entries.size());
+            int offset = 0;
+            out.putInt(offset);
+            for (byte[] entry : entries) {
+                offset += entry.length;
+                out.putInt(offset);
+            }
+            for (byte[] entry : entries) {
+                out.put(entry);
+            }
+            out.position(align(out.position(), 4));
+            for (int index : indices) {
+                out.putInt(index);
+            }
+        }
+    }
+
+    private static int align(int position, int alignment) {
+        return (position + alignment - 1) / alignment * alignment;
+    }
+}
@@ -0,0 +1,67 @@
+package nl.bioinf.jscscheper.tool.config;
+
+import nl.bioinf.jscscheper.tool.metrics.Metrics;
+
+import javax.servlet.*;
+import javax.servlet.annotation.WebFilter;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Times every request per endpoint and status, from the moment the container hands it over until the
+ * response is written. Asynchronous requests are timed until they complete.
+ */
+@WebFilter(filterName = "MetricsFilter", urlPatterns = { "/*" }, asyncSupported = true)
+public class MetricsFilter implements Filter {
+
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException {
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+        HttpServletRequest httpRequest = (HttpServletRequest) request;
+        HttpServletResponse httpResponse = (HttpServletResponse) response;
+
+        long start = System.nanoTime();
+        String status = "500";
+        try {
+            chain.doFilter(request, response);
+            status = Integer.toString(httpResponse.getStatus());
+        } finally {
+            if (request.isAsyncStarted()) {
+                request.getAsyncContext().addListener(new AsyncListener() {
+                    @Override
+                    public void onComplete(AsyncEvent event) {
+                        record(httpRequest, Integer.toString(httpResponse.getStatus()), start);
+                    }
+
+                    @Override
+                    public void onTimeout(AsyncEvent event) {
+                    }
+
+                    @Override
+                    public void onError(AsyncEvent event) {
+                    }
+
+                    @Override
+                    public void onStartAsync(AsyncEvent event) {
+                    }
+                });
+            } else {
+                record(httpRequest, status, start);
+            }
+        }
+    }
+
+    private static void record(HttpServletRequest request, String status, long start) {
+        Metrics.timer("geovis_http_request_duration_seconds", "Request latency by endpoint and status",
+                "endpoint", ApiResponse.endpoint(request), "status", status).recordSince(start);
+    }
+
+    @Override
+    public void destroy() {
+    }
+}
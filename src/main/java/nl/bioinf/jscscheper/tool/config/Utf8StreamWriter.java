@@ -0,0 +1,124 @@
+package nl.bioinf.jscscheper.tool.config;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+
+/**
+ * Buffered writer that UTF-8 encodes straight into a fixed byte buffer and drains it to the wrapped
+ * stream whenever it fills up, so writing a response allocates one 8 KB buffer regardless of how
+ * large the payload is. Instances are not pooled in a ThreadLocal: container threads outlive the
+ * application, and a pooled instance would keep its class loader alive after a redeploy.
+ */
+final class Utf8StreamWriter extends Writer {
+
+    static final int BUFFER_SIZE = 8 * 1024;
+
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int position = 0;
+    private char pendingHighSurrogate = 0;
+    private OutputStream out;
+
+    private Utf8StreamWriter(OutputStream out) {
+        this.out = out;
+    }
+
+    static Utf8StreamWriter forStream(OutputStream out) {
+        return new Utf8StreamWriter(out);
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        encode((char) c);
+    }
+
+    @Override
+    public void write(char[] chars, int offset, int length) throws IOException {
+        for (int i = offset, end = offset + length; i < end; i++) {
+            encode(chars[i]);
+        }
+    }
+
+    @Override
+    public void write(String str, int offset, int length) throws IOException {
+        for (int i = offset, end = offset + length; i < end; i++) {
+            encode(str.charAt(i));
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        drain();
+        out.flush();
+    }
+
+    /**
+     * Flushes buffered bytes and detaches from the stream without closing it; the container owns
+     * the response stream.
+     */
+    @Override
+    public void close() throws IOException {
+        if (pendingHighSurrogate != 0) {
+            pendingHighSurrogate = 0;
+            put((byte) '?');
+        }
+        flush();
+        out = null;
+    }
+
+    /**
+     * Drops whatever is still buffered and detaches, for a body that failed halfway and must not be
+     * sent as if it were complete.
+     */
+    void discard() {
+        position = 0;
+        pendingHighSurrogate = 0;
+        out = null;
+    }
+
+    private void encode(char c) throws IOException {
+        if (position > BUFFER_SIZE - 4) {
+            drain();
+        }
+
+        if (pendingHighSurrogate != 0) {
+            char high = pendingHighSurrogate;
+            pendingHighSurrogate = 0;
+            if (Character.isLowSurrogate(c)) {
+                int codePoint = Character.toCodePoint(high, c);
+                put((byte) (0xF0 | (codePoint >> 18)));
+                put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                put((byte) (0x80 | (codePoint & 0x3F)));
+                return;
+            }
+            put((byte) '?');
+        }
+
+        if (c < 0x80) {
+            put((byte) c);
+        } else if (c < 0x800) {
+            put((byte) (0xC0 | (c >> 6)));
+            put((byte) (0x80 | (c & 0x3F)));
+        } else if (Character.isHighSurrogate(c)) {
+            pendingHighSurrogate = c;
+        } else if (Character.isLowSurrogate(c)) {
+            put((byte) '?');
+        } else {
+            put((byte) (0xE0 | (c >> 12)));
+            put((byte) (0x80 | ((c >> 6) & 0x3F)));
+            put((byte) (0x80 | (c & 0x3F)));
+        }
+    }
+
+    private void put(byte b) {
+        buffer[position++] = b;
+    }
+
+    private void drain() throws IOException {
+        if (position > 0) {
+            out.write(buffer, 0, position);
+            position = 0;
+        }
+    }
+}
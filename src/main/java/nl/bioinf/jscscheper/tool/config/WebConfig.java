@@ -1,19 +1,256 @@
 package nl.bioinf.jscscheper.tool.config;
 
+import nl.bioinf.jscscheper.tool.cache.SnapshotStorage;
+import nl.bioinf.jscscheper.tool.service.AirQualityDataFetcher;
+import nl.bioinf.jscscheper.tool.service.AirQualityHistoryStore;
+import nl.bioinf.jscscheper.tool.service.BirdDataFetcher;
+import nl.bioinf.jscscheper.tool.service.EarthquakeDataFetcher;
+import nl.bioinf.jscscheper.tool.service.EarthquakeStore;
+import nl.bioinf.jscscheper.tool.service.RefreshScheduler;
+import nl.bioinf.jscscheper.tool.service.StationCatalogue;
+import nl.bioinf.jscscheper.tool.service.WeatherDataFetcher;
+import nl.bioinf.jscscheper.tool.util.HostThrottle;
+import nl.bioinf.jscscheper.tool.util.HttpClientUtil;
+import nl.bioinf.jscscheper.tool.util.LiveTransport;
+import nl.bioinf.jscscheper.tool.util.RecordingTransport;
+import nl.bioinf.jscscheper.tool.util.Recordings;
+import nl.bioinf.jscscheper.tool.util.ReplayTransport;
+import nl.bioinf.jscscheper.tool.util.UpstreamTransport;
+
+import javax.servlet.ServletContext;
 import javax.servlet.ServletContextEvent;
 import javax.servlet.ServletContextListener;
 import javax.servlet.annotation.WebListener;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.time.Duration;
 
 @WebListener
 public class WebConfig implements ServletContextListener {
 
+    private static final String STATIONS_FILE = "/WEB-INF/stations.json";
+
+    private RefreshScheduler scheduler;
+
     @Override
     public void contextInitialized(ServletContextEvent event) {
         System.out.println("[GeoVis] API Server starting...");
+
+        ServletContext context = event.getServletContext();
+
+        SnapshotStorage storage = storage(context);
+        UpstreamTransport transport = transport(context);
+        AirQualityHistoryStore airQualityHistory = new AirQualityHistoryStore(airQualityRetention(context), storage);
+        AirQualityDataFetcher airQualityFetcher = new AirQualityDataFetcher(transport,
+                airQualityMaxInFlight(context), airQualityHistory, storage);
+        BirdDataFetcher birdFetcher = new BirdDataFetcher(transport, ebirdApiKey(context), storage);
+        WeatherDataFetcher weatherFetcher = new WeatherDataFetcher(transport, storage);
+        EarthquakeStore earthquakeStore = new EarthquakeStore(new EarthquakeDataFetcher(transport),
+                earthquakeHistory(context), storage);
+
+        // data saved by the previous run is served as stale until its first refresh
+        airQualityHistory.restore();
+        airQualityFetcher.restore();
+        earthquakeStore.restore();
+        Duration weatherDelay = weatherFetcher.restore() ? Duration.ZERO : WeatherDataFetcher.REFRESH_INTERVAL;
+        Duration birdDelay = birdFetcher.restore() ? Duration.ZERO : BirdDataFetcher.REFRESH_INTERVAL;
+
+        context.setAttribute(AsyncResponses.class.getName(),
+                new AsyncResponses(asyncMaxPending(context), AsyncResponses.DEFAULT_TIMEOUT));
+        context.setAttribute(AirQualityDataFetcher.class.getName(), airQualityFetcher);
+        context.setAttribute(AirQualityHistoryStore.class.getName(), airQualityHistory);
+        context.setAttribute(BirdDataFetcher.class.getName(), birdFetcher);
+        context.setAttribute(EarthquakeStore.class.getName(), earthquakeStore);
+        context.setAttribute(StationCatalogue.class.getName(), new StationCatalogue(context, STATIONS_FILE));
+        context.setAttribute(WeatherDataFetcher.class.getName(), weatherFetcher);
+
+        scheduler = new RefreshScheduler(2);
+        scheduler.register("airquality",
+                policy(AirQualityDataFetcher.REFRESH_INTERVAL, Duration.ofMinutes(10)),
+                airQualityFetcher::refresh);
+        scheduler.register("earthquakes",
+                policy(EarthquakeStore.SYNC_INTERVAL, Duration.ofMinutes(10)),
+                earthquakeStore::sync);
+        scheduler.register("weather-stations",
+                policy(WeatherDataFetcher.REFRESH_INTERVAL, Duration.ofMinutes(10)),
+                weatherFetcher::refreshStations, weatherDelay);
+        scheduler.register("weather-countries",
+                policy(WeatherDataFetcher.REFRESH_INTERVAL, Duration.ofMinutes(10)),
+                weatherFetcher::refreshCountries, weatherDelay);
+        scheduler.register("birds",
+                policy(BirdDataFetcher.REFRESH_INTERVAL, Duration.ofMinutes(5)),
+                birdFetcher::refresh, birdDelay);
     }
 
     @Override
     public void contextDestroyed(ServletContextEvent event) {
+        if (scheduler != null) {
+            scheduler.shutdown();
+        }
+        HostThrottle.shutdown();
         System.out.println("[GeoVis] API Server shutting down.");
     }
-}
\ No newline at end of file
+
+    private static RefreshScheduler.Policy policy(Duration interval, Duration maxBackoff) {
+        return new RefreshScheduler.Policy(interval, interval.dividedBy(10), Duration.ofSeconds(30), maxBackoff);
+    }
+
+    private static SnapshotStorage storage(ServletContext context) {
+        String configured = context.getInitParameter("output.storage");
+        if (configured == null || configured.trim().isEmpty()) {
+            System.out.println("[Storage] output.storage not set, snapshots are not persisted");
+            return SnapshotStorage.disabled();
+        }
+        try {
+            Path directory = Path.of(configured.trim());
+            if (!directory.isAbsolute()) {
+                // relative to wherever the container was started, which is rarely what was meant
+                System.err.println("[Storage] output.storage '" + configured
+                        + "' is not an absolute path, snapshots are not persisted");
+                return SnapshotStorage.disabled();
+            }
+            return new SnapshotStorage(directory);
+        } catch (InvalidPathException e) {
+            System.err.println("[Storage] Invalid output.storage '" + configured + "', snapshots are not persisted");
+            return SnapshotStorage.disabled();
+        }
+    }
+
+    /**
+     * {@code live} (the default), {@code record} or {@code replay}, from the {@code geovis.transport}
+     * system property or the {@code upstream.transport} init parameter; recordings live in
+     * {@code geovis.recordings} / {@code upstream.recordings}, and replay waits as set by
+     * {@code geovis.replay.latency} / {@code upstream.replay.latency} (default {@code recorded}).
+     */
+    private static UpstreamTransport transport(ServletContext context) {
+        String mode = setting(context, "geovis.transport", "upstream.transport", "live");
+        if (mode.equals("live")) {
+            return HttpClientUtil.getTransport();
+        }
+        if (!mode.equals("record") && !mode.equals("replay")) {
+            System.err.println("[Transport] Unknown upstream.transport '" + mode + "', using live upstreams");
+            return HttpClientUtil.getTransport();
+        }
+
+        String directory = setting(context, "geovis.recordings", "upstream.recordings", "");
+        if (directory.isEmpty()) {
+            System.err.println("[Transport] upstream.recordings not set, using live upstreams");
+            return HttpClientUtil.getTransport();
+        }
+        Recordings recordings;
+        try {
+            recordings = new Recordings(Path.of(directory));
+        } catch (InvalidPathException e) {
+            System.err.println("[Transport] Invalid upstream.recordings '" + directory + "', using live upstreams");
+            return HttpClientUtil.getTransport();
+        }
+
+        if (mode.equals("record")) {
+            System.out.println("[Transport] Recording upstream responses to " + directory);
+            return HttpClientUtil.throttled(new RecordingTransport(new LiveTransport(HttpClientUtil.getClient()),
+                    recordings));
+        }
+
+        String latency = setting(context, "geovis.replay.latency", "upstream.replay.latency", "recorded");
+        ReplayTransport.Latency parsed;
+        try {
+            parsed = ReplayTransport.Latency.parse(latency);
+        } catch (IllegalArgumentException e) {
+            System.err.println("[Transport] " + e.getMessage() + ", replaying with recorded latency");
+            parsed = ReplayTransport.Latency.parse("recorded");
+        }
+        System.out.println("[Transport] Replaying upstream responses from " + directory + " (latency " + latency
+                + ")");
+        return HttpClientUtil.throttled(new ReplayTransport(recordings, parsed));
+    }
+
+    private static String setting(ServletContext context, String property, String initParameter,
+            String defaultValue) {
+        String value = System.getProperty(property);
+        if (value == null || value.trim().isEmpty()) {
+            value = context.getInitParameter(initParameter);
+        }
+        return value == null || value.trim().isEmpty() ? defaultValue : value.trim();
+    }
+
+    private static int airQualityMaxInFlight(ServletContext context) {
+        int maxInFlight = AirQualityDataFetcher.DEFAULT_MAX_IN_FLIGHT;
+        String configured = context.getInitParameter("airquality.max.inflight");
+
+        if (configured != null && !configured.isEmpty()) {
+            try {
+                maxInFlight = Math.max(1, Integer.parseInt(configured.trim()));
+            } catch (NumberFormatException e) {
+                System.err.println("[AirQuality] Invalid airquality.max.inflight '" + configured
+                        + "', using " + maxInFlight);
+            }
+        }
+        return maxInFlight;
+    }
+
+    /**
+     * {@code async.max.pending}, or when that is 0 or unset, as many as fit in a quarter of the heap.
+     */
+    private static int asyncMaxPending(ServletContext context) {
+        int maxPending = 0;
+        String configured = context.getInitParameter("async.max.pending");
+
+        if (configured != null && !configured.isEmpty()) {
+            try {
+                maxPending = Math.max(0, Integer.parseInt(configured.trim()));
+            } catch (NumberFormatException e) {
+                System.err.println("[Async] Invalid async.max.pending '" + configured + "', sizing from the heap");
+            }
+        }
+        if (maxPending == 0) {
+            maxPending = AsyncResponses.maxPendingFor(Runtime.getRuntime().maxMemory());
+            System.out.println("[Async] Up to " + maxPending + " requests may wait for upstream data ("
+                    + Runtime.getRuntime().maxMemory() / (1024 * 1024) + " MiB heap)");
+        }
+        return maxPending;
+    }
+
+    private static Duration airQualityRetention(ServletContext context) {
+        Duration retention = AirQualityHistoryStore.DEFAULT_RETENTION;
+        String configured = context.getInitParameter("airquality.history.days");
+
+        if (configured != null && !configured.isEmpty()) {
+            try {
+                retention = Duration.ofDays(Math.max(1, Integer.parseInt(configured.trim())));
+            } catch (NumberFormatException e) {
+                System.err.println("[AirQuality] Invalid airquality.history.days '" + configured
+                        + "', using " + retention.toDays());
+            }
+        }
+        return retention;
+    }
+
+    private static Duration earthquakeHistory(ServletContext context) {
+        Duration history = EarthquakeStore.DEFAULT_HISTORY;
+        String configured = context.getInitParameter("earthquake.history.days");
+
+        if (configured != null && !configured.isEmpty()) {
+            try {
+                history = Duration.ofDays(Math.max(1, Integer.parseInt(configured.trim())));
+            } catch (NumberFormatException e) {
+                System.err.println("[Earthquake] Invalid earthquake.history.days '" + configured
+                        + "', using " + history.toDays());
+            }
+        }
+        return history;
+    }
+
+    private static String ebirdApiKey(ServletContext context) {
+        String apiKey = System.getenv("EBIRD_API_KEY");
+
+        if (apiKey == null || apiKey.isEmpty()) {
+            apiKey = context.getInitParameter("ebird.api.key");
+        }
+
+        if (apiKey == null || apiKey.isEmpty()) {
+            System.err.println("[Birds] WARNING: No eBird API key configured! Set EBIRD_API_KEY env var.");
+            apiKey = "";
+        }
+        return apiKey;
+    }
+}
@@ -0,0 +1,158 @@
+package nl.bioinf.jscscheper.tool.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * Process-wide metrics registry, written at {@code /metrics} in the Prometheus text format.
+ * <p>
+ * Metrics are looked up by name and label pairs ({@code "host", "api.ebird.org", ...}) and created
+ * on first use, so call sites do not have to register anything up front. Classes that already count
+ * things themselves (caches, single flights) expose those counts through {@link #counter(String,
+ * String, LongSupplier, String...)} and {@link #gauge} instead, which read the value at scrape time.
+ */
+public final class Metrics {
+
+    private enum Type {
+        COUNTER("counter"), GAUGE("gauge"), HISTOGRAM("histogram");
+
+        private final String name;
+
+        Type(String name) {
+            this.name = name;
+        }
+    }
+
+    private static final class Family {
+        private final String name;
+        private final String help;
+        private final Type type;
+        private final Map<String, Object> series = new ConcurrentSkipListMap<>();
+
+        Family(String name, String help, Type type) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+        }
+    }
+
+    // timers are exported from 131 us to 69 s; faster and slower samples land in the outer buckets
+    private static final int FIRST_EXPORTED_BUCKET = Histogram.index(1L << 17);
+    private static final int LAST_EXPORTED_BUCKET = Histogram.index(1L << 36);
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    private static final Map<String, Family> FAMILIES = new ConcurrentHashMap<>();
+
+    private Metrics() {
+    }
+
+    public static Counter counter(String name, String help, String... labels) {
+        return (Counter) family(name, help, Type.COUNTER).series.computeIfAbsent(labels(labels), key -> new Counter());
+    }
+
+    /**
+     * Duration histogram: record nanoseconds, exported in seconds.
+     */
+    public static Histogram timer(String name, String help, String... labels) {
+        return (Histogram) family(name, help, Type.HISTOGRAM).series.computeIfAbsent(labels(labels),
+                key -> new Histogram());
+    }
+
+    /**
+     * Counter whose value is read from {@code value} when scraped. Registering the same labels again
+     * replaces the previous source.
+     */
+    public static void counter(String name, String help, LongSupplier value, String... labels) {
+        family(name, help, Type.COUNTER).series.put(labels(labels), value);
+    }
+
+    public static void gauge(String name, String help, DoubleSupplier value, String... labels) {
+        family(name, help, Type.GAUGE).series.put(labels(labels), value);
+    }
+
+    public static void write(Writer out) throws IOException {
+        for (Family family : new TreeMap<>(FAMILIES).values()) {
+            out.write("# HELP " + family.name + " " + family.help + "\n");
+            out.write("# TYPE " + family.name + " " + family.type.name + "\n");
+            for (Map.Entry<String, Object> entry : family.series.entrySet()) {
+                write(out, family.name, entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private static void write(Writer out, String name, String labels, Object series) throws IOException {
+        if (series instanceof Counter) {
+            sample(out, name, labels, Long.toString(((Counter) series).get()));
+        } else if (series instanceof LongSupplier) {
+            sample(out, name, labels, Long.toString(((LongSupplier) series).getAsLong()));
+        } else if (series instanceof DoubleSupplier) {
+            sample(out, name, labels, Double.toString(((DoubleSupplier) series).getAsDouble()));
+        } else {
+            Histogram histogram = (Histogram) series;
+            String prefix = labels.isEmpty() ? "" : labels + ",";
+            long cumulative = 0;
+            for (int i = 0; i <= LAST_EXPORTED_BUCKET; i++) {
+                cumulative += histogram.countAt(i);
+                if (i >= FIRST_EXPORTED_BUCKET) {
+                    sample(out, name + "_bucket", prefix + "le=\"" + Histogram.upperBound(i) / NANOS_PER_SECOND
+                            + "\"", Long.toString(cumulative));
+                }
+            }
+            long count = histogram.getCount();
+            sample(out, name + "_bucket", prefix + "le=\"+Inf\"", Long.toString(count));
+            sample(out, name + "_sum", labels, Double.toString(histogram.getSum() / NANOS_PER_SECOND));
+            sample(out, name + "_count", labels, Long.toString(count));
+        }
+    }
+
+    private static void sample(Writer out, String name, String labels, String value) throws IOException {
+        out.write(name);
+        if (!labels.isEmpty()) {
+            out.write("{" + labels + "}");
+        }
+        out.write(" " + value + "\n");
+    }
+
+    private static Family family(String name, String help, Type type) {
+        Family family = FAMILIES.computeIfAbsent(name, key -> new Family(name, help, type));
+        if (family.type != type) {
+            throw new IllegalArgumentException("Metric " + name + " is a " + family.type.name + ", not a " + type.name);
+        }
+        return family;
+    }
+
+    /**
+     * Renders alternating label names and values as {@code a="1",b="2"}.
+     */
+    private static String labels(String... pairs) {
+        if (pairs.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be name/value pairs");
+        }
+        StringBuilder labels = new StringBuilder();
+        for (int i = 0; i < pairs.length; i += 2) {
+            if (i > 0) {
+                labels.append(',');
+            }
+            labels.append(pairs[i]).append("=\"");
+            String value = pairs[i + 1] == null ? "" : pairs[i + 1];
+            for (int c = 0; c < value.length(); c++) {
+                char ch = value.charAt(c);
+                if (ch == '\\' || ch == '"') {
+                    labels.append('\\').append(ch);
+                } else if (ch == '\n') {
+                    labels.append("\\n");
+                } else {
+                    labels.append(ch);
+                }
+            }
+            labels.append('"');
+        }
+        return labels.toString();
+    }
+}
@@ -14,10 +14,6 @@ public class AirQualityStation {
     private int europeanAqi;
     private String lastUpdated;
 
-    private String[] historyTime;
-    private double[] historyPm25;
-    private double[] historyPm10;
-
     public AirQualityStation(String name, String latitude, String longitude,
             String country, String city, String lastUpdated) {
         this.name = name;
@@ -41,6 +37,14 @@ public class AirQualityStation {
         return latLon;
     }
 
+    public double getLatitude() {
+        return parseCoordinate(latLon[0]);
+    }
+
+    public double getLongitude() {
+        return parseCoordinate(latLon[1]);
+    }
+
     public String getCountry() {
         return country;
     }
@@ -109,27 +113,11 @@ public class AirQualityStation {
         this.europeanAqi = europeanAqi;
     }
 
-    public String[] getHistoryTime() {
-        return historyTime;
-    }
-
-    public double[] getHistoryPm25() {
-        return historyPm25;
-    }
-
-    public double[] getHistoryPm10() {
-        return historyPm10;
-    }
-
-    public void setHistoryTime(String[] historyTime) {
-        this.historyTime = historyTime;
-    }
-
-    public void setHistoryPm25(double[] historyPm25) {
-        this.historyPm25 = historyPm25;
-    }
-
-    public void setHistoryPm10(double[] historyPm10) {
-        this.historyPm10 = historyPm10;
+    private static double parseCoordinate(String value) {
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException | NullPointerException e) {
+            return 0.0;
+        }
     }
 }
@@ -106,4 +106,20 @@ public class BirdSighting {
     public void setLocationPrivate(boolean locationPrivate) {
         this.locationPrivate = locationPrivate;
     }
+
+    public void setLocId(String locId) {
+        this.locId = locId;
+    }
+
+    public void setSubId(String subId) {
+        this.subId = subId;
+    }
+
+    public void setObsValid(boolean obsValid) {
+        this.obsValid = obsValid;
+    }
+
+    public void setObsReviewed(boolean obsReviewed) {
+        this.obsReviewed = obsReviewed;
+    }
 }
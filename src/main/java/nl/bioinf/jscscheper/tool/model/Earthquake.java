@@ -1,13 +1,15 @@
 package nl.bioinf.jscscheper.tool.model;
 
+import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
-import java.util.Arrays;
+import java.time.format.DateTimeParseException;
 
 public class Earthquake {
+    private String eventId;
     private String date;
+    private transient long time;
     private String location;
-    private String[] latLon;
     private float latitude;
     private float longitude;
     private float depth;
@@ -22,12 +24,35 @@ public class Earthquake {
         setMagnitude(magnitude);
     }
 
+    public Earthquake(String eventId, String date, String location, float latitude, float longitude,
+            float depth, float magnitude) {
+        this.eventId = eventId;
+        setDate(date);
+        this.location = location;
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.depth = depth;
+        this.magnitude = magnitude;
+    }
+
+    public String getEventId() {
+        return eventId;
+    }
+
     public String getDate() {
         return date;
     }
 
     public void setDate(String date) {
         this.date = date;
+        this.time = parseTime(date);
+    }
+
+    /**
+     * Origin time in epoch milliseconds (UTC), or 0 when the date could not be parsed.
+     */
+    public long getTime() {
+        return time;
     }
 
     public String getLocation() {
@@ -38,13 +63,7 @@ public class Earthquake {
         this.location = location;
     }
 
-    public String[] getLatLon() {
-        return latLon;
-    }
-
     public void setCoordinates(String latitude, String longitude) {
-        String[] coordinates = { latitude, longitude };
-        this.latLon = coordinates;
         try {
             this.latitude = Float.parseFloat(latitude);
             this.longitude = Float.parseFloat(longitude);
@@ -86,12 +105,28 @@ public class Earthquake {
         }
     }
 
+    private static long parseTime(String date) {
+        if (date == null) {
+            return 0;
+        }
+        try {
+            if (date.endsWith("Z")) {
+                return Instant.parse(date).toEpochMilli();
+            }
+            return LocalDateTime.parse(date.trim()).toInstant(ZoneOffset.UTC).toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return 0;
+        }
+    }
+
     @Override
     public String toString() {
         return "Earthquake{" +
-                "date=" + date.toString() +
+                "eventId=" + eventId +
+                ", date=" + date.toString() +
                 ", location='" + location + '\'' +
-                ", latLon=" + Arrays.toString(latLon) +
+                ", latitude=" + latitude +
+                ", longitude=" + longitude +
                 ", depth=" + depth +
                 ", magnitude=" + magnitude +
                 '}';
@@ -3,37 +3,148 @@ package nl.bioinf.jscscheper.tool.service;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
+import nl.bioinf.jscscheper.tool.cache.SingleFlight;
+import nl.bioinf.jscscheper.tool.cache.Snapshot;
+import nl.bioinf.jscscheper.tool.cache.SnapshotStorage;
+import nl.bioinf.jscscheper.tool.cache.TtlCache;
 import nl.bioinf.jscscheper.tool.model.AirQualityStation;
 
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.net.URI;
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import nl.bioinf.jscscheper.tool.util.AsyncLimiter;
 import nl.bioinf.jscscheper.tool.util.EuropeanCities;
+import nl.bioinf.jscscheper.tool.util.Futures;
 import nl.bioinf.jscscheper.tool.util.HttpClientUtil;
+import nl.bioinf.jscscheper.tool.util.TimeSeries;
+import nl.bioinf.jscscheper.tool.util.Upstream;
+import nl.bioinf.jscscheper.tool.util.UpstreamTransport;
 
 public class AirQualityDataFetcher {
 
-    private static final String OPEN_METEO_API = "https://air-quality-api.open-meteo.com/v1/air-quality";
+    private static final String OPEN_METEO_API = Upstream.OPEN_METEO_AIR_QUALITY.url("/v1/air-quality");
 
-    private static final HttpClient CLIENT = HttpClientUtil.getClient();
 
-    private static List<AirQualityStation> cachedStations = null;
-    private static long cacheTime = 0;
-    private static final long CACHE_TTL = 15 * 60 * 1000;
+    private static final String CACHE_KEY = "europe";
+    private static final Duration CACHE_TTL = Duration.ofMinutes(15);
+    private static final TtlCache<String, List<AirQualityStation>> CACHE =
+            new TtlCache<>("airquality", 1, Duration.ofMinutes(45));
+    private static final SingleFlight<String, Snapshot<List<AirQualityStation>>> FLIGHTS = new SingleFlight<>("airquality");
+
+    public static final Duration REFRESH_INTERVAL = Duration.ofMinutes(12);
+
+    public static final int DEFAULT_MAX_IN_FLIGHT = 8;
+
+    private static final String[] HOURLY_VARIABLES =
+            { "pm2_5", "pm10", "nitrogen_dioxide", "ozone", "carbon_monoxide", "sulphur_dioxide" };
+
+    private static final String STORAGE_NAME = "airquality.v1";
+    private static final Duration MAX_RESTORE_AGE = Duration.ofDays(1);
+
+    private static final SnapshotStorage.Codec<AirQualityStation> STATION_CODEC = new SnapshotStorage.Codec<>() {
+        @Override
+        public void write(DataOutputStream out, AirQualityStation station) throws IOException {
+            SnapshotStorage.writeString(out, station.getName());
+            SnapshotStorage.writeString(out, station.getLatLon()[0]);
+            SnapshotStorage.writeString(out, station.getLatLon()[1]);
+            SnapshotStorage.writeString(out, station.getCountry());
+            SnapshotStorage.writeString(out, station.getCity());
+            SnapshotStorage.writeString(out, station.getLastUpdated());
+            out.writeDouble(station.getPm25());
+            out.writeDouble(station.getPm10());
+            out.writeDouble(station.getNo2());
+            out.writeDouble(station.getO3());
+            out.writeDouble(station.getCo());
+            out.writeDouble(station.getSo2());
+            out.writeInt(station.getEuropeanAqi());
+        }
+
+        @Override
+        public AirQualityStation read(ByteBuffer in) {
+            AirQualityStation station = new AirQualityStation(SnapshotStorage.readString(in),
+                    SnapshotStorage.readString(in), SnapshotStorage.readString(in), SnapshotStorage.readString(in),
+                    SnapshotStorage.readString(in), SnapshotStorage.readString(in));
+            station.setPm25(in.getDouble());
+            station.setPm10(in.getDouble());
+            station.setNo2(in.getDouble());
+            station.setO3(in.getDouble());
+            station.setCo(in.getDouble());
+            station.setSo2(in.getDouble());
+            station.setEuropeanAqi(in.getInt());
+            return station;
+        }
+    };
+
+    private final UpstreamTransport transport;
+    private final AsyncLimiter limiter;
+    private final AirQualityHistoryStore history;
+    private final SnapshotStorage storage;
+
+    public AirQualityDataFetcher() {
+        this(HttpClientUtil.getTransport(), DEFAULT_MAX_IN_FLIGHT,
+                new AirQualityHistoryStore(AirQualityHistoryStore.DEFAULT_RETENTION), SnapshotStorage.disabled());
+    }
+
+    public AirQualityDataFetcher(UpstreamTransport transport, int maxInFlight, AirQualityHistoryStore history,
+            SnapshotStorage storage) {
+        this.transport = transport;
+        this.limiter = new AsyncLimiter(maxInFlight);
+        this.history = history;
+        this.storage = storage;
+    }
+
+    /**
+     * Serves the stations saved by the previous run as stale data until the first sweep finishes.
+     * Returns true when anything was restored.
+     */
+    public boolean restore() {
+        int restored = storage.restoreCache(STORAGE_NAME, CACHE, SnapshotStorage.STRING,
+                SnapshotStorage.list(STATION_CODEC), MAX_RESTORE_AGE);
+        return restored > 0;
+    }
 
     public List<AirQualityStation> getEuropeanStations() {
-        if (cachedStations != null && System.currentTimeMillis() - cacheTime < CACHE_TTL) {
-            System.out.println("[AirQuality] Returning cached data (" + cachedStations.size() + " stations)");
-            return cachedStations;
+        return getEuropeanSnapshot().join().getValue();
+    }
+
+    /**
+     * The cached stations, or the result of a sweep when nothing is cached. A sweep shared with other
+     * callers keeps running when this one is cancelled.
+     */
+    public CompletableFuture<Snapshot<List<AirQualityStation>>> getEuropeanSnapshot() {
+        Snapshot<List<AirQualityStation>> cached = CACHE.get(CACHE_KEY);
+        if (cached != null) {
+            System.out.println("[AirQuality] Returning " + (cached.isExpired() ? "stale" : "cached") + " data ("
+                    + cached.getValue().size() + " stations)");
+            return CompletableFuture.completedFuture(cached);
         }
 
-        List<AirQualityStation> stations = new ArrayList<>();
+        CompletableFuture<Snapshot<List<AirQualityStation>>> sweeping = FLIGHTS.execute(CACHE_KEY, this::sweep);
+        return Futures.cancelling(sweeping.exceptionally(e -> {
+            if (Futures.isCancellation(e)) {
+                throw new CompletionException(e);
+            }
+            System.err.println("[AirQuality] Refresh failed: " + Futures.unwrap(e).getMessage());
+            return new Snapshot<>(List.of(), 0);
+        }), sweeping);
+    }
+
+    public Snapshot<List<AirQualityStation>> refresh() throws IOException, InterruptedException {
+        return Futures.await(FLIGHTS.execute(CACHE_KEY, this::sweep));
+    }
+
+    private CompletableFuture<Snapshot<List<AirQualityStation>>> sweep() {
+        long start = System.currentTimeMillis();
+        List<CompletableFuture<AirQualityStation>> requests = new ArrayList<>();
 
         for (Map.Entry<String, String[][]> entry : EuropeanCities.CITIES_BY_COUNTRY.entrySet()) {
             String country = entry.getKey();
@@ -42,46 +153,65 @@ public class AirQualityDataFetcher {
                 String lat = cityData[1];
                 String lon = cityData[2];
 
-                try {
-                    AirQualityStation station = fetchCityData(cityName, country, lat, lon);
-                    if (station != null) {
-                        stations.add(station);
+                CompletableFuture<AirQualityStation> request =
+                        limiter.submit(() -> fetchCityData(cityName, country, lat, lon));
+                requests.add(Futures.cancelling(request.exceptionally(e -> {
+                    if (Futures.isCancellation(e)) {
+                        throw new CompletionException(e);
                     }
-                    Thread.sleep(50);
-                } catch (Exception e) {
                     System.err.println("[AirQuality] Error fetching " + cityName + ": " + e.getMessage());
-                }
+                    return null;
+                }), request));
             }
         }
 
-        System.out.println("[AirQuality] Fetched " + stations.size() + " stations from Open-Meteo");
+        CompletableFuture<Void> all = CompletableFuture.allOf(requests.toArray(new CompletableFuture<?>[0]));
+        return Futures.cancelling(all.thenApply(done -> {
+            List<AirQualityStation> stations = new ArrayList<>();
+            for (CompletableFuture<AirQualityStation> request : requests) {
+                AirQualityStation station = request.join();
+                if (station != null) {
+                    stations.add(station);
+                }
+            }
+
+            System.out.println("[AirQuality] Fetched " + stations.size() + " stations from Open-Meteo in "
+                    + (System.currentTimeMillis() - start) + " ms (max " + limiter.getMaxInFlight() + " in flight)");
 
-        cachedStations = stations;
-        cacheTime = System.currentTimeMillis();
+            if (stations.isEmpty()) {
+                throw new CompletionException(new IOException("Open-Meteo returned no air quality data"));
+            }
 
-        return stations;
+            Snapshot<List<AirQualityStation>> snapshot = CACHE.put(CACHE_KEY, List.copyOf(stations), CACHE_TTL);
+            storage.saveCache(STORAGE_NAME, CACHE, SnapshotStorage.STRING, SnapshotStorage.list(STATION_CODEC));
+            history.save();
+            return snapshot;
+        }), requests);
     }
 
-    private AirQualityStation fetchCityData(String name, String country, String lat, String lon) {
-        try {
-            String url = OPEN_METEO_API + "?latitude=" + lat + "&longitude=" + lon +
-                    "&current=pm2_5,pm10,nitrogen_dioxide,ozone,carbon_monoxide,sulphur_dioxide,european_aqi" +
-                    "&hourly=pm2_5,pm10&past_days=7";
+    private CompletableFuture<AirQualityStation> fetchCityData(String name, String country, String lat, String lon) {
+        // once a city has recent history only the last day is needed to extend it
+        long latest = history.latestTime(country, name);
+        int pastDays = latest >= System.currentTimeMillis() / 1000 - Duration.ofDays(1).getSeconds() ? 1 : 7;
 
-            HttpResponse<String> response = CLIENT.send(
-                    HttpRequest.newBuilder(URI.create(url))
-                            .timeout(Duration.ofSeconds(10))
-                            .GET()
-                            .build(),
-                    HttpResponse.BodyHandlers.ofString());
+        String url = OPEN_METEO_API + "?latitude=" + lat + "&longitude=" + lon +
+                "&current=pm2_5,pm10,nitrogen_dioxide,ozone,carbon_monoxide,sulphur_dioxide,european_aqi" +
+                "&hourly=" + String.join(",", HOURLY_VARIABLES) +
+                "&timeformat=unixtime&past_days=" + pastDays + "&forecast_days=1";
 
+        CompletableFuture<HttpResponse<String>> sent = transport.sendAsync(
+                HttpRequest.newBuilder(URI.create(url))
+                        .timeout(Duration.ofSeconds(10))
+                        .GET()
+                        .build(),
+                HttpResponse.BodyHandlers.ofString());
+        return Futures.cancelling(sent.thenApply(response -> {
             if (response.statusCode() == 200) {
                 return parseOpenMeteoResponse(response.body(), name, country, lat, lon);
             }
-        } catch (InterruptedException | IOException e) {
-            System.err.println("[AirQuality] Request failed for " + name + ": " + e.getMessage());
-        }
-        return null;
+            System.err.println("[AirQuality] Open-Meteo returned status " + response.statusCode() + " for " + name);
+            return null;
+        }), sent);
     }
 
     private AirQualityStation parseOpenMeteoResponse(String jsonResponse, String name, String country, String lat,
@@ -105,7 +235,7 @@ public class AirQualityDataFetcher {
 
             JsonObject hourly = root.getAsJsonObject("hourly");
             if (hourly != null) {
-                parseHistoryArrays(station, hourly);
+                history.record(country, name, parseHistoryArrays(hourly));
             }
 
             return station;
@@ -122,32 +252,25 @@ public class AirQualityDataFetcher {
         return defaultValue;
     }
 
-    private void parseHistoryArrays(AirQualityStation station, JsonObject hourly) {
+    TimeSeries parseHistoryArrays(JsonObject hourly) {
         JsonArray timeArray = hourly.getAsJsonArray("time");
-        if (timeArray != null) {
-            String[] times = new String[timeArray.size()];
-            for (int i = 0; i < timeArray.size(); i++) {
-                times[i] = timeArray.get(i).getAsString();
-            }
-            station.setHistoryTime(times);
+        if (timeArray == null) {
+            return TimeSeries.empty(AirQualityHistoryStore.POLLUTANTS);
         }
 
-        JsonArray pm25Array = hourly.getAsJsonArray("pm2_5");
-        if (pm25Array != null) {
-            double[] pm25Values = new double[pm25Array.size()];
-            for (int i = 0; i < pm25Array.size(); i++) {
-                pm25Values[i] = pm25Array.get(i).isJsonNull() ? -1 : pm25Array.get(i).getAsDouble();
-            }
-            station.setHistoryPm25(pm25Values);
+        long[] times = new long[timeArray.size()];
+        for (int i = 0; i < times.length; i++) {
+            times[i] = timeArray.get(i).getAsLong();
         }
 
-        JsonArray pm10Array = hourly.getAsJsonArray("pm10");
-        if (pm10Array != null) {
-            double[] pm10Values = new double[pm10Array.size()];
-            for (int i = 0; i < pm10Array.size(); i++) {
-                pm10Values[i] = pm10Array.get(i).isJsonNull() ? -1 : pm10Array.get(i).getAsDouble();
+        float[][] values = new float[HOURLY_VARIABLES.length][times.length];
+        for (int c = 0; c < HOURLY_VARIABLES.length; c++) {
+            JsonArray array = hourly.getAsJsonArray(HOURLY_VARIABLES[c]);
+            for (int i = 0; i < times.length; i++) {
+                values[c][i] = array == null || i >= array.size() || array.get(i).isJsonNull()
+                        ? Float.NaN : array.get(i).getAsFloat();
             }
-            station.setHistoryPm10(pm10Values);
         }
+        return new TimeSeries(AirQualityHistoryStore.POLLUTANTS, times, values);
     }
 }
@@ -0,0 +1,163 @@
+package nl.bioinf.jscscheper.tool.service;
+
+import nl.bioinf.jscscheper.tool.cache.Snapshot;
+import nl.bioinf.jscscheper.tool.cache.SnapshotStorage;
+import nl.bioinf.jscscheper.tool.util.TimeSeries;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Hourly pollutant history per city, kept as columnar {@link TimeSeries}. Every air quality sweep
+ * merges the hours Open-Meteo returns into what is already stored, so the history grows beyond the
+ * few days a single request covers, up to the configured retention.
+ */
+public class AirQualityHistoryStore {
+
+    public static final String[] POLLUTANTS = { "pm25", "pm10", "no2", "o3", "co", "so2" };
+    public static final Duration DEFAULT_RETENTION = Duration.ofDays(30);
+
+    private static final String STORAGE_NAME = "airquality-history.v1";
+
+    /**
+     * Timestamps are written as the first one plus the gaps between them, which are an hour apart.
+     */
+    private static final SnapshotStorage.Codec<Map<String, TimeSeries>> CODEC = new SnapshotStorage.Codec<>() {
+        @Override
+        public void write(DataOutputStream out, Map<String, TimeSeries> cities) throws IOException {
+            out.writeInt(cities.size());
+            for (Map.Entry<String, TimeSeries> entry : cities.entrySet()) {
+                TimeSeries series = entry.getValue();
+                SnapshotStorage.writeString(out, entry.getKey());
+                out.writeInt(series.size());
+                out.writeLong(series.size() > 0 ? series.getFirstTime() : 0);
+                for (int i = 1; i < series.size(); i++) {
+                    out.writeInt((int) (series.getTime(i) - series.getTime(i - 1)));
+                }
+                for (int c = 0; c < POLLUTANTS.length; c++) {
+                    for (int i = 0; i < series.size(); i++) {
+                        out.writeFloat(series.getValue(c, i));
+                    }
+                }
+            }
+        }
+
+        @Override
+        public Map<String, TimeSeries> read(ByteBuffer in) {
+            int count = in.getInt();
+            Map<String, TimeSeries> cities = new HashMap<>();
+            for (int city = 0; city < count; city++) {
+                String key = SnapshotStorage.readString(in);
+                int size = in.getInt();
+                if (size < 0 || size > in.remaining()) {
+                    throw new IllegalArgumentException("Invalid series size " + size);
+                }
+                long[] times = new long[size];
+                long first = in.getLong();
+                for (int i = 0; i < size; i++) {
+                    times[i] = i == 0 ? first : times[i - 1] + in.getInt();
+                }
+                float[][] values = new float[POLLUTANTS.length][size];
+                for (float[] column : values) {
+                    for (int i = 0; i < size; i++) {
+                        column[i] = in.getFloat();
+                    }
+                }
+                cities.put(key, new TimeSeries(POLLUTANTS, times, values));
+            }
+            return cities;
+        }
+    };
+
+    private final Duration retention;
+    private final SnapshotStorage storage;
+    private final Map<String, Snapshot<TimeSeries>> series = new ConcurrentHashMap<>();
+
+    public AirQualityHistoryStore(Duration retention) {
+        this(retention, SnapshotStorage.disabled());
+    }
+
+    public AirQualityHistoryStore(Duration retention, SnapshotStorage storage) {
+        this.retention = retention;
+        this.storage = storage;
+    }
+
+    /**
+     * Merges {@code fetched} into the history of a city. Samples in the future (forecasts) and
+     * samples older than the retention are dropped.
+     */
+    public void record(String country, String city, TimeSeries fetched) {
+        long now = System.currentTimeMillis() / 1000;
+        long oldest = now - retention.getSeconds();
+        series.compute(key(country, city), (key, stored) -> {
+            TimeSeries previous = stored != null ? stored.getValue() : TimeSeries.empty(POLLUTANTS);
+            return new Snapshot<>(previous.merge(fetched, oldest, now), Long.MAX_VALUE);
+        });
+    }
+
+    /**
+     * History of a city, or null when nothing is stored. Without a country the first city with that
+     * name is returned.
+     */
+    public Snapshot<TimeSeries> get(String country, String city) {
+        if (country != null) {
+            return series.get(key(country, city));
+        }
+        String suffix = "/" + city.toLowerCase();
+        for (Map.Entry<String, Snapshot<TimeSeries>> entry : series.entrySet()) {
+            if (entry.getKey().endsWith(suffix)) {
+                return entry.getValue();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Epoch second of the newest stored sample of a city, {@code Long.MIN_VALUE} if there is none.
+     */
+    public long latestTime(String country, String city) {
+        Snapshot<TimeSeries> stored = series.get(key(country, city));
+        return stored != null ? stored.getValue().getLastTime() : Long.MIN_VALUE;
+    }
+
+    /**
+     * Writes the history of every city to storage.
+     */
+    public void save() {
+        if (!storage.isEnabled()) {
+            return;
+        }
+        Map<String, TimeSeries> cities = new HashMap<>();
+        for (Map.Entry<String, Snapshot<TimeSeries>> entry : series.entrySet()) {
+            cities.put(entry.getKey(), entry.getValue().getValue());
+        }
+        storage.save(STORAGE_NAME, cities, CODEC);
+    }
+
+    /**
+     * Loads the history saved by the previous run, if any. Returns the number of cities restored.
+     */
+    public int restore() {
+        Map<String, TimeSeries> cities = storage.load(STORAGE_NAME, CODEC, retention);
+        if (cities == null) {
+            return 0;
+        }
+        for (Map.Entry<String, TimeSeries> entry : cities.entrySet()) {
+            series.putIfAbsent(entry.getKey(), new Snapshot<>(entry.getValue(), Long.MAX_VALUE));
+        }
+        return cities.size();
+    }
+
+    public Duration getRetention() {
+        return retention;
+    }
+
+    private static String key(String country, String city) {
+        return country.toUpperCase() + "/" + city.toLowerCase();
+    }
+}
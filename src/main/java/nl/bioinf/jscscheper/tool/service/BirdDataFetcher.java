@@ -2,129 +2,400 @@ package nl.bioinf.jscscheper.tool.service;
 
 import com.google.gson.Gson;
 import com.google.gson.reflect.TypeToken;
+import nl.bioinf.jscscheper.tool.cache.SingleFlight;
+import nl.bioinf.jscscheper.tool.cache.Snapshot;
+import nl.bioinf.jscscheper.tool.cache.SnapshotStorage;
+import nl.bioinf.jscscheper.tool.cache.TtlCache;
 import nl.bioinf.jscscheper.tool.model.BirdSighting;
 
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.net.URI;
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
 import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import nl.bioinf.jscscheper.tool.util.AsyncLimiter;
+import nl.bioinf.jscscheper.tool.util.Futures;
+import nl.bioinf.jscscheper.tool.util.GridIndex;
 import nl.bioinf.jscscheper.tool.util.HttpClientUtil;
+import nl.bioinf.jscscheper.tool.util.Upstream;
+import nl.bioinf.jscscheper.tool.util.UpstreamTransport;
+import nl.bioinf.jscscheper.tool.util.UpstreamUnavailableException;
 
 public class BirdDataFetcher {
 
-    private static final String EBIRD_API = "https://api.ebird.org/v2/data/obs/geo/recent";
+    private static final String EBIRD_API = Upstream.EBIRD.url("/v2/data/obs/geo/recent");
     private static final Gson GSON = new Gson();
 
-    private static final HttpClient CLIENT = HttpClientUtil.getClient();
+    private static final Duration CACHE_TTL = Duration.ofMinutes(5);
+    private static final Duration STALE_WINDOW = Duration.ofMinutes(15);
+    private static final TtlCache<Query, List<BirdSighting>> CACHE =
+            new TtlCache<>("birds", 50_000, List::size, STALE_WINDOW);
+    private static final SingleFlight<Query, Snapshot<List<BirdSighting>>> FLIGHTS = new SingleFlight<>("birds");
 
-    private static List<BirdSighting> cachedSightings = null;
-    private static long cacheTime = 0;
-    private static final long CACHE_TTL = 5 * 60 * 1000;
-    private static String cachedParams = "";
+    public static final Duration REFRESH_INTERVAL = Duration.ofMinutes(4);
 
+    // eBird's geo endpoint accepts at most 50 km; larger areas are covered by tiles of that radius on
+    // a fixed global grid, so overlapping or panned areas share tiles. Tile centres 65 km apart
+    // leave no gaps: the farthest point of a grid cell is about 47 km from its centre.
+    private static final int TILE_RADIUS_KM = 50;
+    private static final double TILE_SPACING_KM = 65;
+    private static final int MAX_DIST_KM = 250;
+    private static final double KM_PER_DEGREE = Math.PI * GridIndex.EARTH_RADIUS_KM / 180.0;
+    private static final AsyncLimiter TILE_LIMITER = new AsyncLimiter(4);
+    private static final Duration TILE_TIMEOUT = Duration.ofSeconds(15);
+    private static final TtlCache<String, List<BirdSighting>> AREAS =
+            new TtlCache<>("bird-areas", 64, STALE_WINDOW);
+
+    private static final class Query {
+        private final String url;
+        private final Duration timeout;
+
+        Query(String url, Duration timeout) {
+            this.url = url;
+            this.timeout = timeout;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Query && url.equals(((Query) o).url);
+        }
+
+        @Override
+        public int hashCode() {
+            return url.hashCode();
+        }
+    }
+
+    private static final String STORAGE_NAME = "birds.v1";
+    private static final Duration MAX_RESTORE_AGE = Duration.ofDays(1);
+
+    private static final SnapshotStorage.Codec<Query> QUERY_CODEC = new SnapshotStorage.Codec<>() {
+        @Override
+        public void write(DataOutputStream out, Query query) throws IOException {
+            SnapshotStorage.writeString(out, query.url);
+            out.writeLong(query.timeout.toMillis());
+        }
+
+        @Override
+        public Query read(ByteBuffer in) {
+            return new Query(SnapshotStorage.readString(in), Duration.ofMillis(in.getLong()));
+        }
+    };
+
+    private static final SnapshotStorage.Codec<List<BirdSighting>> SIGHTINGS_CODEC =
+            SnapshotStorage.list(new SnapshotStorage.Codec<>() {
+                @Override
+                public void write(DataOutputStream out, BirdSighting sighting) throws IOException {
+                    SnapshotStorage.writeString(out, sighting.getSpeciesCode());
+                    SnapshotStorage.writeString(out, sighting.getCommonName());
+                    SnapshotStorage.writeString(out, sighting.getScientificName());
+                    SnapshotStorage.writeString(out, sighting.getLocationName());
+                    SnapshotStorage.writeString(out, sighting.getLocId());
+                    SnapshotStorage.writeString(out, sighting.getObservationDate());
+                    SnapshotStorage.writeString(out, sighting.getSubId());
+                    out.writeDouble(sighting.getLatitude());
+                    out.writeDouble(sighting.getLongitude());
+                    out.writeInt(sighting.getHowMany());
+                    out.writeBoolean(sighting.isObsValid());
+                    out.writeBoolean(sighting.isObsReviewed());
+                    out.writeBoolean(sighting.isLocationPrivate());
+                }
+
+                @Override
+                public BirdSighting read(ByteBuffer in) {
+                    BirdSighting sighting = new BirdSighting();
+                    sighting.setSpeciesCode(SnapshotStorage.readString(in));
+                    sighting.setComName(SnapshotStorage.readString(in));
+                    sighting.setSciName(SnapshotStorage.readString(in));
+                    sighting.setLocName(SnapshotStorage.readString(in));
+                    sighting.setLocId(SnapshotStorage.readString(in));
+                    sighting.setObsDt(SnapshotStorage.readString(in));
+                    sighting.setSubId(SnapshotStorage.readString(in));
+                    sighting.setLat(in.getDouble());
+                    sighting.setLng(in.getDouble());
+                    sighting.setHowMany(in.getInt());
+                    sighting.setObsValid(in.get() != 0);
+                    sighting.setObsReviewed(in.get() != 0);
+                    sighting.setLocationPrivate(in.get() != 0);
+                    return sighting;
+                }
+            });
+
+    private final UpstreamTransport transport;
     private final String apiKey;
+    private final SnapshotStorage storage;
 
     public BirdDataFetcher(String apiKey) {
+        this(HttpClientUtil.getTransport(), apiKey, SnapshotStorage.disabled());
+    }
+
+    public BirdDataFetcher(UpstreamTransport transport, String apiKey, SnapshotStorage storage) {
+        this.transport = transport;
         this.apiKey = apiKey;
+        this.storage = storage;
+    }
+
+    /**
+     * Serves the sightings saved by the previous run as stale data until they are refreshed.
+     * Returns true when anything was restored.
+     */
+    public boolean restore() {
+        return storage.restoreCache(STORAGE_NAME, CACHE, QUERY_CODEC, SIGHTINGS_CODEC, MAX_RESTORE_AGE) > 0;
     }
 
     public List<BirdSighting> getRecentSightings(double lat, double lng, int distKm) {
-        String params = lat + "," + lng + "," + distKm;
+        return getRecentSnapshot(lat, lng, distKm).join().getValue();
+    }
 
-        if (cachedSightings != null &&
-                System.currentTimeMillis() - cacheTime < CACHE_TTL &&
-                params.equals(cachedParams)) {
-            System.out.println("[Birds] Returning cached data (" + cachedSightings.size() + " sightings)");
-            return cachedSightings;
+    /**
+     * Recent sightings within {@code distKm} of a point. Up to 50 km this is one eBird request;
+     * larger radii (up to {@value #MAX_DIST_KM} km) are assembled from 50 km tiles that are fetched
+     * concurrently and cached one by one.
+     *
+     * @throws IllegalArgumentException when {@code distKm} is not between 1 and {@value #MAX_DIST_KM}
+     */
+    public CompletableFuture<Snapshot<List<BirdSighting>>> getRecentSnapshot(double lat, double lng, int distKm) {
+        if (distKm < 1 || distKm > MAX_DIST_KM) {
+            throw new IllegalArgumentException("dist must be between 1 and " + MAX_DIST_KM + " km, got " + distKm);
+        }
+        if (distKm > TILE_RADIUS_KM) {
+            return getAreaSnapshot(lat, lng, distKm);
         }
 
-        List<BirdSighting> sightings = new ArrayList<>();
+        Query query = new Query(EBIRD_API +
+                "?lat=" + lat +
+                "&lng=" + lng +
+                "&dist=" + distKm +
+                "&maxResults=200", Duration.ofSeconds(15));
 
-        try {
-            String url = EBIRD_API +
-                    "?lat=" + lat +
-                    "&lng=" + lng +
-                    "&dist=" + Math.min(distKm, 50) +
-                    "&maxResults=200";
-
-            HttpRequest request = HttpRequest.newBuilder(URI.create(url))
-                    .header("x-ebirdapitoken", apiKey)
-                    .timeout(Duration.ofSeconds(15))
-                    .GET()
-                    .build();
-
-            HttpResponse<String> response = CLIENT.send(request, HttpResponse.BodyHandlers.ofString());
-
-            if (response.statusCode() == 200) {
-                sightings = parseSightings(response.body());
-                System.out.println("[Birds] Fetched " + sightings.size() + " sightings from eBird");
-            } else {
-                System.err.println("[Birds] eBird API returned status " + response.statusCode());
-                System.err.println("[Birds] Response: " + response.body());
+        Snapshot<List<BirdSighting>> cached = CACHE.get(query);
+        if (cached != null) {
+            System.out.println("[Birds] Returning cached data (" + cached.getValue().size() + " sightings)");
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        return FLIGHTS.execute(query, () -> load(query, "eBird"));
+    }
+
+    /**
+     * Merges the tiles covering the area, without duplicates and limited to {@code distKm}. The merged
+     * list is cached per combination of tile versions, so it keeps its version (and ETag) until one
+     * of its tiles changes. If a tile cannot be fetched and has no cached copy, the area fails with
+     * {@link UpstreamUnavailableException} rather than answering with a hole in it; the tiles that did
+     * load are cached, so a retry only fetches the missing ones.
+     */
+    private CompletableFuture<Snapshot<List<BirdSighting>>> getAreaSnapshot(double lat, double lng, int distKm) {
+        List<double[]> tiles = tiles(lat, lng, distKm);
+        List<CompletableFuture<Snapshot<List<BirdSighting>>>> loads = new ArrayList<>();
+        for (double[] tile : tiles) {
+            loads.add(loadTile(tile[0], tile[1]));
+        }
+
+        CompletableFuture<Void> all = CompletableFuture.allOf(loads.toArray(new CompletableFuture<?>[0]));
+        return Futures.cancelling(all.thenApply(done -> merge(lat, lng, distKm, tiles.size(), loads)), loads);
+    }
+
+    private Snapshot<List<BirdSighting>> merge(double lat, double lng, int distKm, int tiles,
+            List<CompletableFuture<Snapshot<List<BirdSighting>>>> loads) {
+        List<Snapshot<List<BirdSighting>>> snapshots = new ArrayList<>();
+        StringBuilder key = new StringBuilder(lat + "," + lng + "," + distKm + "@");
+        for (CompletableFuture<Snapshot<List<BirdSighting>>> load : loads) {
+            Snapshot<List<BirdSighting>> snapshot = load.join();
+            if (snapshot != null) {
+                snapshots.add(snapshot);
+                key.append(snapshot.getVersion()).append(',');
+            }
+        }
+
+        if (snapshots.size() < tiles) {
+            System.err.println("[Birds] " + (tiles - snapshots.size()) + "/" + tiles + " tiles unavailable");
+            throw new CompletionException(new UpstreamUnavailableException(
+                    "eBird data for " + (tiles - snapshots.size()) + " of " + tiles + " tiles is unavailable"));
+        }
+
+        Snapshot<List<BirdSighting>> cached = AREAS.get(key.toString());
+        if (cached != null) {
+            System.out.println("[Birds] Returning cached data (" + cached.getValue().size() + " sightings, "
+                    + tiles + " tiles)");
+            return cached;
+        }
+
+        Map<String, BirdSighting> merged = new LinkedHashMap<>();
+        for (Snapshot<List<BirdSighting>> snapshot : snapshots) {
+            for (BirdSighting sighting : snapshot.getValue()) {
+                if (GridIndex.distanceKm(lat, lng, sighting.getLatitude(), sighting.getLongitude()) <= distKm) {
+                    merged.putIfAbsent(sighting.getSubId() + "/" + sighting.getSpeciesCode(), sighting);
+                }
             }
-        } catch (InterruptedException | IOException e) {
-            System.err.println("[Birds] Request failed: " + e.getMessage());
         }
+        List<BirdSighting> sightings = new ArrayList<>(merged.values());
+        sightings.sort(Comparator.comparing(BirdSighting::getObservationDate,
+                Comparator.nullsLast(Comparator.reverseOrder())));
 
-        cachedSightings = sightings;
-        cacheTime = System.currentTimeMillis();
-        cachedParams = params;
+        System.out.println("[Birds] Merged " + sightings.size() + " sightings from " + tiles + " tiles");
+        return AREAS.put(key.toString(), List.copyOf(sightings), CACHE_TTL);
+    }
+
+    /**
+     * Centres of the grid tiles that can contain points within {@code distKm} of the given point. Rows
+     * are {@code TILE_SPACING_KM} apart; each row is split into as many equal columns as needed to
+     * keep them at most that far apart.
+     */
+    static List<double[]> tiles(double lat, double lng, int distKm) {
+        double latStep = TILE_SPACING_KM / KM_PER_DEGREE;
+        double reach = distKm + TILE_RADIUS_KM;
+        int firstRow = (int) Math.floor((lat - reach / KM_PER_DEGREE) / latStep);
+        int lastRow = (int) Math.ceil((lat + reach / KM_PER_DEGREE) / latStep);
 
-        return sightings;
+        List<double[]> tiles = new ArrayList<>();
+        for (int row = firstRow; row <= lastRow; row++) {
+            double rowLat = row * latStep;
+            if (Math.abs(rowLat) > 90) {
+                continue;
+            }
+            double circumference = 360 * KM_PER_DEGREE * Math.cos(Math.toRadians(rowLat));
+            int columns = Math.max(1, (int) Math.ceil(circumference / TILE_SPACING_KM));
+            double lngStep = 360.0 / columns;
+            for (int column = 0; column < columns; column++) {
+                double tileLng = -180 + (column + 0.5) * lngStep;
+                if (GridIndex.distanceKm(lat, lng, rowLat, tileLng) < reach) {
+                    tiles.add(new double[] { rowLat, tileLng });
+                }
+            }
+        }
+        return tiles;
+    }
+
+    /**
+     * Cached tile, or a fetch of it under {@code TILE_LIMITER}. Completes with null when the tile
+     * could not be fetched and nothing is cached; failures are not cached so the next request retries.
+     */
+    private CompletableFuture<Snapshot<List<BirdSighting>>> loadTile(double lat, double lng) {
+        Query query = new Query(String.format(Locale.ROOT, "%s?lat=%.4f&lng=%.4f&dist=%d&maxResults=200",
+                EBIRD_API, lat, lng, TILE_RADIUS_KM), TILE_TIMEOUT);
+
+        Snapshot<List<BirdSighting>> cached = CACHE.get(query);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        CompletableFuture<Snapshot<List<BirdSighting>>> loading = FLIGHTS.execute(query, () -> {
+            CompletableFuture<List<BirdSighting>> request = TILE_LIMITER.submit(() -> requestSightingsAsync(query));
+            return Futures.cancelling(request.thenApply(sightings -> CACHE.put(query, List.copyOf(sightings),
+                    CACHE_TTL)), request);
+        });
+        return Futures.cancelling(loading.exceptionally(e -> {
+            if (Futures.isCancellation(e)) {
+                throw new CompletionException(e);
+            }
+            System.err.println("[Birds] Tile request failed: " + Futures.unwrap(e).getMessage());
+            return CACHE.peek(query);
+        }), loading);
     }
 
     public List<BirdSighting> getRecentSightingsByRegion(String regionCode) {
-        String params = "region:" + regionCode;
+        return getRegionSnapshot(regionCode).join().getValue();
+    }
 
-        if (cachedSightings != null &&
-                System.currentTimeMillis() - cacheTime < CACHE_TTL &&
-                params.equals(cachedParams)) {
+    public CompletableFuture<Snapshot<List<BirdSighting>>> getRegionSnapshot(String regionCode) {
+        Query query = new Query(Upstream.EBIRD.url("/v2/data/obs/" + regionCode + "/recent") +
+                "?maxResults=200", Duration.ofSeconds(20));
+
+        Snapshot<List<BirdSighting>> cached = CACHE.get(query);
+        if (cached != null) {
             System.out.println(
-                    "[Birds] Returning cached data for " + regionCode + " (" + cachedSightings.size() + " sightings)");
-            return cachedSightings;
+                    "[Birds] Returning cached data for " + regionCode + " (" + cached.getValue().size() + " sightings)");
+            return CompletableFuture.completedFuture(cached);
         }
 
-        List<BirdSighting> sightings = new ArrayList<>();
+        return FLIGHTS.execute(query, () -> load(query, "region " + regionCode));
+    }
 
-        try {
-            String url = "https://api.ebird.org/v2/data/obs/" + regionCode + "/recent" +
-                    "?maxResults=200";
-
-            HttpRequest request = HttpRequest.newBuilder(URI.create(url))
-                    .header("x-ebirdapitoken", apiKey)
-                    .timeout(Duration.ofSeconds(20))
-                    .GET()
-                    .build();
-
-            HttpResponse<String> response = CLIENT.send(request, HttpResponse.BodyHandlers.ofString());
-
-            if (response.statusCode() == 200) {
-                sightings = parseSightings(response.body());
-                System.out.println("[Birds] Fetched " + sightings.size() + " sightings from region " + regionCode);
-            } else {
-                System.err.println(
-                        "[Birds] eBird API returned status " + response.statusCode() + " for region " + regionCode);
-                System.err.println("[Birds] Response: " + response.body());
+    /**
+     * Stale cached sightings, or a fetch of them. A failed fetch is not cached: it fails with
+     * {@link UpstreamUnavailableException}, so the request is answered with 503 and the next one
+     * retries, instead of serving an empty list as if there were no sightings.
+     */
+    private CompletableFuture<Snapshot<List<BirdSighting>>> load(Query query, String source) {
+        Snapshot<List<BirdSighting>> cached = CACHE.peek(query);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        CompletableFuture<List<BirdSighting>> request = requestSightingsAsync(query);
+        return Futures.cancelling(request.handle((sightings, error) -> {
+            if (error != null) {
+                if (Futures.isCancellation(error)) {
+                    throw new CompletionException(error);
+                }
+                System.err.println("[Birds] Request failed for " + source + ": " + Futures.unwrap(error).getMessage());
+                throw new CompletionException(new UpstreamUnavailableException(
+                        "eBird data for " + source + " is unavailable"));
+            }
+            System.out.println("[Birds] Fetched " + sightings.size() + " sightings from " + source);
+            return CACHE.put(query, List.copyOf(sightings), CACHE_TTL);
+        }), request);
+    }
+
+    public void refresh() throws IOException, InterruptedException {
+        IOException failure = null;
+        for (Query query : CACHE.recentlyAccessedKeys(CACHE_TTL.plus(STALE_WINDOW))) {
+            try {
+                CACHE.put(query, List.copyOf(requestSightings(query)), CACHE_TTL);
+            } catch (IOException e) {
+                failure = e;
             }
-        } catch (InterruptedException | IOException e) {
-            System.err.println("[Birds] Region request failed: " + e.getMessage());
         }
+        storage.saveCache(STORAGE_NAME, CACHE, QUERY_CODEC, SIGHTINGS_CODEC);
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private List<BirdSighting> requestSightings(Query query) throws IOException, InterruptedException {
+        HttpResponse<String> response = transport.send(request(query), HttpResponse.BodyHandlers.ofString());
+
+        if (response.statusCode() != 200) {
+            throw new IOException("eBird API returned status " + response.statusCode() + ": " + response.body());
+        }
+        return parseSightings(response.body());
+    }
 
-        cachedSightings = sightings;
-        cacheTime = System.currentTimeMillis();
-        cachedParams = params;
+    private CompletableFuture<List<BirdSighting>> requestSightingsAsync(Query query) {
+        CompletableFuture<HttpResponse<String>> sent = transport.sendAsync(request(query),
+                HttpResponse.BodyHandlers.ofString());
+        return Futures.cancelling(sent.thenApply(response -> {
+            if (response.statusCode() != 200) {
+                throw new CompletionException(new IOException("eBird API returned status "
+                        + response.statusCode() + ": " + response.body()));
+            }
+            return parseSightings(response.body());
+        }), sent);
+    }
 
-        return sightings;
+    private HttpRequest request(Query query) {
+        return HttpRequest.newBuilder(URI.create(query.url))
+                .header("x-ebirdapitoken", apiKey)
+                .timeout(query.timeout)
+                .GET()
+                .build();
     }
 
     private List<BirdSighting> parseSightings(String json) {
         try {
-            return GSON.fromJson(json, new TypeToken<List<BirdSighting>>() {
+            List<BirdSighting> sightings = GSON.fromJson(json, new TypeToken<List<BirdSighting>>() {
             }.getType());
+            return sightings != null ? sightings : new ArrayList<>();
         } catch (Exception e) {
             System.err.println("[Birds] Parse error: " + e.getMessage());
             return new ArrayList<>();
@@ -3,83 +3,106 @@ package nl.bioinf.jscscheper.tool.service;
 import nl.bioinf.jscscheper.tool.model.Earthquake;
 import org.apache.hc.core5.net.URIBuilder;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
-import java.util.ArrayList;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
 import java.util.List;
-import java.util.Map;
 import nl.bioinf.jscscheper.tool.util.HttpClientUtil;
+import nl.bioinf.jscscheper.tool.util.Upstream;
+import nl.bioinf.jscscheper.tool.util.UpstreamTransport;
 
+/**
+ * Client for the KNMI FDSN event service. Requests are served from {@link EarthquakeStore}; this
+ * class only fetches events for it.
+ */
 public class EarthquakeDataFetcher {
 
-    private static final String KNMI_API = "http://rdsa.knmi.nl/fdsnws/event/1/query";
+    private static final String KNMI_API = Upstream.KNMI.url("/fdsnws/event/1/query");
 
-    private static final HttpClient CLIENT = HttpClientUtil.getClient();
+    private static final DateTimeFormatter FDSN_TIME =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss").withZone(ZoneOffset.UTC);
 
-    public String getEarthquakes(Map<String, String[]> params) {
-        try {
-            String limit = params.getOrDefault("limit", new String[] { "10" })[0];
-
-            URI knmiURI = new URIBuilder(KNMI_API)
-                    .addParameter("format", "text")
-                    .addParameter("limit", limit)
-                    .build();
-
-            HttpResponse<String> response = CLIENT.send(
-                    HttpRequest.newBuilder(knmiURI)
-                            .timeout(Duration.ofSeconds(10))
-                            .GET()
-                            .build(),
-                    HttpResponse.BodyHandlers.ofString());
+    private final UpstreamTransport transport;
 
-            if (response.statusCode() == 200) {
-                return response.body();
-            }
+    public EarthquakeDataFetcher() {
+        this(HttpClientUtil.getTransport());
+    }
 
-            System.err.println("[Earthquake] KNMI returned status: " + response.statusCode());
-        } catch (URISyntaxException | InterruptedException | IOException e) {
-            System.err.println("[Earthquake] Request failed: " + e.getMessage());
-        }
-        return "";
+    public EarthquakeDataFetcher(UpstreamTransport transport) {
+        this.transport = transport;
     }
 
-    public List<Earthquake> responseToEarthquakes(String response) {
-        List<Earthquake> data = new ArrayList<>();
+    /**
+     * All events with an origin time at or after {@code starttime}, newest first.
+     *
+     * @throws IOException when KNMI cannot be reached or answers with an error
+     */
+    public List<Earthquake> fetchEvents(Instant starttime) throws IOException {
+        return fetchEvents(starttime, null, null);
+    }
 
-        if (response == null || response.isEmpty()) {
-            return data;
+    /**
+     * Events with an origin time in {@code [starttime, endtime]} that were created or updated after
+     * {@code updatedafter}, newest first. A null {@code endtime} or {@code updatedafter} is left out.
+     *
+     * @throws IOException when KNMI cannot be reached or answers with an error
+     */
+    public List<Earthquake> fetchEvents(Instant starttime, Instant endtime, Instant updatedafter)
+            throws IOException {
+        URI knmiURI;
+        try {
+            URIBuilder builder = new URIBuilder(KNMI_API)
+                    .addParameter("format", "text")
+                    .addParameter("starttime", FDSN_TIME.format(starttime))
+                    .addParameter("orderby", "time");
+            if (endtime != null) {
+                builder.addParameter("endtime", FDSN_TIME.format(endtime));
+            }
+            if (updatedafter != null) {
+                builder.addParameter("updatedafter", FDSN_TIME.format(updatedafter));
+            }
+            knmiURI = builder.build();
+        } catch (URISyntaxException e) {
+            throw new IOException("Invalid KNMI request: " + e.getMessage(), e);
         }
 
-        String[] lines = response.split("\\r?\\n");
-        for (String line : lines) {
-            if (line.startsWith("#") || line.trim().isEmpty()) {
-                continue;
-            }
+        HttpResponse<InputStream> response;
+        try {
+            response = transport.send(
+                    HttpRequest.newBuilder(knmiURI)
+                            .timeout(Duration.ofSeconds(30))
+                            .GET()
+                            .build(),
+                    HttpResponse.BodyHandlers.ofInputStream());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("KNMI request interrupted", e);
+        }
 
-            String[] fields = line.split("\\|");
-            if (fields.length < 13) {
-                continue;
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(response.body(), StandardCharsets.UTF_8))) {
+            // FDSN answers 204 when nothing matches
+            if (response.statusCode() == 204) {
+                return List.of();
             }
-
-            try {
-                Earthquake eq = new Earthquake(
-                        fields[1],
-                        fields[12],
-                        fields[2],
-                        fields[3],
-                        fields[4],
-                        fields[10].isEmpty() ? "0.0" : fields[10]);
-                data.add(eq);
-            } catch (Exception e) {
-                System.err.println("[Earthquake] Skipping malformed record: " + line);
+            if (response.statusCode() != 200) {
+                throw new IOException("KNMI returned status: " + response.statusCode());
             }
+            return FdsnTextParser.parse(reader);
         }
+    }
 
-        return data;
+    public List<Earthquake> responseToEarthquakes(String response) {
+        return FdsnTextParser.parse(response);
     }
 }
@@ -0,0 +1,251 @@
+package nl.bioinf.jscscheper.tool.service;
+
+import nl.bioinf.jscscheper.tool.model.Earthquake;
+import nl.bioinf.jscscheper.tool.util.IsoTime;
+
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A filter over the earthquake store using the FDSN event parameter names: {@code starttime},
+ * {@code endtime}, {@code minmagnitude}, {@code maxmagnitude}, {@code mindepth}, {@code maxdepth},
+ * {@code minlatitude}, {@code maxlatitude}, {@code minlongitude}, {@code maxlongitude},
+ * {@code orderby} and {@code limit}. The FDSN short forms ({@code start}, {@code minmag},
+ * {@code minlat}, ...) are accepted too.
+ * <p>
+ * Parsed values are normalised, so {@link #key()} is the same for every spelling of one query and
+ * can be used as a cache key.
+ */
+public class EarthquakeQuery {
+
+    public static final int ALL = Integer.MAX_VALUE;
+
+    private static final Comparator<Earthquake> BY_MAGNITUDE = Comparator.comparingDouble(Earthquake::getMagnitude);
+    private static final Comparator<Earthquake> BY_TIME = Comparator.comparingLong(Earthquake::getTime);
+
+    private enum Order {
+        TIME("time"), TIME_ASC("time-asc"), MAGNITUDE("magnitude"), MAGNITUDE_ASC("magnitude-asc");
+
+        private final String parameter;
+
+        Order(String parameter) {
+            this.parameter = parameter;
+        }
+    }
+
+    private final long startTime;
+    private final long endTime;
+    private final double minMagnitude;
+    private final double maxMagnitude;
+    private final double minDepth;
+    private final double maxDepth;
+    private final double minLatitude;
+    private final double maxLatitude;
+    private final double minLongitude;
+    private final double maxLongitude;
+    private final Order order;
+    private final int limit;
+
+    private EarthquakeQuery(Map<String, String[]> params, int defaultLimit) {
+        startTime = time(params, Long.MIN_VALUE, "starttime", "start");
+        endTime = time(params, Long.MAX_VALUE, "endtime", "end");
+        minMagnitude = number(params, Double.NEGATIVE_INFINITY, "minmagnitude", "minmag");
+        maxMagnitude = number(params, Double.POSITIVE_INFINITY, "maxmagnitude", "maxmag");
+        minDepth = number(params, Double.NEGATIVE_INFINITY, "mindepth");
+        maxDepth = number(params, Double.POSITIVE_INFINITY, "maxdepth");
+        minLatitude = number(params, -90, "minlatitude", "minlat");
+        maxLatitude = number(params, 90, "maxlatitude", "maxlat");
+        minLongitude = number(params, -180, "minlongitude", "minlon");
+        maxLongitude = number(params, 180, "maxlongitude", "maxlon");
+        order = order(params);
+        limit = limit(params, defaultLimit);
+
+        if (startTime > endTime) {
+            throw new IllegalArgumentException("starttime must not be after endtime");
+        }
+        if (minMagnitude > maxMagnitude || minDepth > maxDepth || minLatitude > maxLatitude) {
+            throw new IllegalArgumentException("Minimum must not exceed maximum");
+        }
+    }
+
+    /**
+     * @param defaultLimit limit used when the request has none, {@link #ALL} for no limit
+     * @throws IllegalArgumentException when a parameter is present but malformed
+     */
+    public static EarthquakeQuery fromParameters(Map<String, String[]> params, int defaultLimit) {
+        return new EarthquakeQuery(params, defaultLimit);
+    }
+
+    /**
+     * Canonical form of the query: only set parameters, in a fixed order, with parsed values.
+     */
+    public String key() {
+        StringBuilder key = new StringBuilder();
+        if (startTime != Long.MIN_VALUE) {
+            key.append("start=").append(startTime).append(';');
+        }
+        if (endTime != Long.MAX_VALUE) {
+            key.append("end=").append(endTime).append(';');
+        }
+        appendRange(key, "mag", minMagnitude, maxMagnitude, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+        appendRange(key, "depth", minDepth, maxDepth, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+        appendRange(key, "lat", minLatitude, maxLatitude, -90, 90);
+        appendRange(key, "lon", minLongitude, maxLongitude, -180, 180);
+        if (order != Order.TIME) {
+            key.append("order=").append(order.parameter).append(';');
+        }
+        if (limit != ALL) {
+            key.append("limit=").append(limit);
+        }
+        return key.toString();
+    }
+
+    /**
+     * True when the query keeps every event in its stored (newest first) order.
+     */
+    public boolean isUnfiltered() {
+        return key().isEmpty();
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    public long getEndTime() {
+        return endTime;
+    }
+
+    public boolean matches(Earthquake event) {
+        return event.getTime() >= startTime && event.getTime() <= endTime
+                && event.getMagnitude() >= minMagnitude && event.getMagnitude() <= maxMagnitude
+                && event.getDepth() >= minDepth && event.getDepth() <= maxDepth
+                && event.getLatitude() >= minLatitude && event.getLatitude() <= maxLatitude
+                && inLongitudeRange(event.getLongitude());
+    }
+
+    /**
+     * Filters, orders and limits {@code newestFirst}, which must already be sorted newest first.
+     */
+    public List<Earthquake> apply(List<Earthquake> newestFirst) {
+        List<Earthquake> result = new ArrayList<>();
+        boolean limitEarly = order == Order.TIME;
+        for (Earthquake event : newestFirst) {
+            if (matches(event)) {
+                result.add(event);
+                if (limitEarly && result.size() >= limit) {
+                    break;
+                }
+            }
+        }
+
+        switch (order) {
+            case TIME_ASC:
+                result.sort(BY_TIME);
+                break;
+            case MAGNITUDE:
+                result.sort(BY_MAGNITUDE.reversed());
+                break;
+            case MAGNITUDE_ASC:
+                result.sort(BY_MAGNITUDE);
+                break;
+            default:
+                break;
+        }
+        return result.size() > limit ? new ArrayList<>(result.subList(0, limit)) : result;
+    }
+
+    private boolean inLongitudeRange(double lon) {
+        // FDSN allows minlongitude > maxlongitude for boxes crossing the antimeridian
+        if (minLongitude <= maxLongitude) {
+            return lon >= minLongitude && lon <= maxLongitude;
+        }
+        return lon >= minLongitude || lon <= maxLongitude;
+    }
+
+    private static void appendRange(StringBuilder key, String name, double min, double max,
+            double defaultMin, double defaultMax) {
+        if (min != defaultMin) {
+            key.append("min").append(name).append('=').append(min).append(';');
+        }
+        if (max != defaultMax) {
+            key.append("max").append(name).append('=').append(max).append(';');
+        }
+    }
+
+    private static String parameter(Map<String, String[]> params, String... names) {
+        for (String name : names) {
+            String[] values = params.get(name);
+            if (values != null && values.length > 0 && !values[0].trim().isEmpty()) {
+                return values[0].trim();
+            }
+        }
+        return null;
+    }
+
+    private static double number(Map<String, String[]> params, double defaultValue, String... names) {
+        String value = parameter(params, names);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            double parsed = Double.parseDouble(value);
+            if (Double.isNaN(parsed)) {
+                throw new NumberFormatException();
+            }
+            return parsed;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(names[0] + " must be a number, got '" + value + "'");
+        }
+    }
+
+    private static long time(Map<String, String[]> params, long defaultValue, String... names) {
+        String value = parameter(params, names);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return IsoTime.parseEpochMillis(value);
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException(names[0] + " must be an ISO date or date-time, got '" + value + "'");
+        }
+    }
+
+    private static Order order(Map<String, String[]> params) {
+        String value = parameter(params, "orderby");
+        if (value == null) {
+            return Order.TIME;
+        }
+        for (Order order : Order.values()) {
+            if (order.parameter.equalsIgnoreCase(value)) {
+                return order;
+            }
+        }
+        throw new IllegalArgumentException("orderby must be time, time-asc, magnitude or magnitude-asc");
+    }
+
+    private static int limit(Map<String, String[]> params, int defaultLimit) {
+        String value = parameter(params, "limit");
+        if (value == null) {
+            return defaultLimit;
+        }
+        if (value.equals("all")) {
+            return ALL;
+        }
+        try {
+            int parsed = Integer.parseInt(value);
+            if (parsed < 0) {
+                throw new IllegalArgumentException("limit must not be negative");
+            }
+            return parsed;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("limit must be a number or 'all', got '" + value + "'");
+        }
+    }
+}
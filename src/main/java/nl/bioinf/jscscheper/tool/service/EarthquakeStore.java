@@ -0,0 +1,300 @@
+package nl.bioinf.jscscheper.tool.service;
+
+import nl.bioinf.jscscheper.tool.cache.Snapshot;
+import nl.bioinf.jscscheper.tool.cache.SnapshotStorage;
+import nl.bioinf.jscscheper.tool.cache.TtlCache;
+import nl.bioinf.jscscheper.tool.model.Earthquake;
+import nl.bioinf.jscscheper.tool.util.UpstreamUnavailableException;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Local copy of the KNMI event catalogue, so {@code /mapdata} never waits for KNMI.
+ * <p>
+ * Events are keyed by their FDSN event ID and published newest first as an immutable snapshot. Each
+ * {@link #sync()} only asks KNMI for events since shortly before the newest one already stored and
+ * replaces that window, which picks up new events as well as revisions and deletions of recent ones.
+ * Older events are only asked for when KNMI updated them since the previous sync, so revisions
+ * (a new magnitude or location) reach the whole history; deletions of older events do not.
+ * Events older than the configured history are dropped. After every change the events are saved
+ * to storage, so a restart only has to catch up on what happened while it was down.
+ */
+public class EarthquakeStore {
+
+    public static final Duration SYNC_INTERVAL = Duration.ofMinutes(1);
+    public static final Duration DEFAULT_HISTORY = Duration.ofDays(365);
+
+    private static final Duration OVERLAP = Duration.ofDays(2);
+    // how far before the previous sync to ask for revisions, for clock differences with KNMI
+    private static final Duration REVISION_MARGIN = Duration.ofMinutes(5);
+    private static final Duration RESULT_TTL = Duration.ofMinutes(10);
+
+    private static final Comparator<Earthquake> NEWEST_FIRST = Comparator
+            .comparingLong(Earthquake::getTime).reversed()
+            .thenComparing(Earthquake::getEventId, Comparator.nullsLast(Comparator.naturalOrder()));
+
+    private static final Snapshot<List<Earthquake>> EMPTY = new Snapshot<>(List.of(), 0, 0);
+
+    private static final String STORAGE_NAME = "earthquakes.v2";
+
+    private static final SnapshotStorage.Codec<List<Earthquake>> EVENTS =
+            SnapshotStorage.list(new SnapshotStorage.Codec<>() {
+                @Override
+                public void write(DataOutputStream out, Earthquake event) throws IOException {
+                    SnapshotStorage.writeString(out, event.getEventId());
+                    SnapshotStorage.writeString(out, event.getDate());
+                    SnapshotStorage.writeString(out, event.getLocation());
+                    out.writeFloat(event.getLatitude());
+                    out.writeFloat(event.getLongitude());
+                    out.writeFloat(event.getDepth());
+                    out.writeFloat(event.getMagnitude());
+                }
+
+                @Override
+                public Earthquake read(ByteBuffer in) {
+                    return new Earthquake(SnapshotStorage.readString(in), SnapshotStorage.readString(in),
+                            SnapshotStorage.readString(in), in.getFloat(), in.getFloat(), in.getFloat(),
+                            in.getFloat());
+                }
+            });
+
+    private static final SnapshotStorage.Codec<Saved> CODEC = new SnapshotStorage.Codec<>() {
+        @Override
+        public void write(DataOutputStream out, Saved saved) throws IOException {
+            out.writeLong(saved.revisedAt);
+            EVENTS.write(out, saved.events);
+        }
+
+        @Override
+        public Saved read(ByteBuffer in) {
+            return new Saved(in.getLong(), EVENTS.read(in));
+        }
+    };
+
+    private final EarthquakeDataFetcher fetcher;
+    private final Duration history;
+    private final SnapshotStorage storage;
+
+    private final TtlCache<String, List<Earthquake>> results =
+            new TtlCache<>("earthquake-queries", 200_000, List::size, Duration.ZERO);
+
+    private volatile Snapshot<List<Earthquake>> current = null;
+    // start of the last sync that checked the whole history for revisions
+    private long revisedAt = 0;
+
+    public EarthquakeStore(EarthquakeDataFetcher fetcher, Duration history) {
+        this(fetcher, history, SnapshotStorage.disabled());
+    }
+
+    public EarthquakeStore(EarthquakeDataFetcher fetcher, Duration history, SnapshotStorage storage) {
+        this.fetcher = fetcher;
+        this.history = history;
+        this.storage = storage;
+    }
+
+    /**
+     * Publishes the events saved by the previous run, marked expired until the next sync has
+     * confirmed them. Returns the number of events restored.
+     */
+    public synchronized int restore() {
+        Saved saved = storage.load(STORAGE_NAME, CODEC, history);
+        if (saved == null || current != null) {
+            return 0;
+        }
+        current = new Snapshot<>(saved.events, 0);
+        revisedAt = saved.revisedAt;
+        return saved.events.size();
+    }
+
+    /**
+     * All stored events, newest first. Never waits for KNMI: until the first sync (run by the
+     * refresh scheduler) or a restore has published events, the snapshot is empty and expired.
+     */
+    public Snapshot<List<Earthquake>> getSnapshot() {
+        Snapshot<List<Earthquake>> snapshot = current;
+        return snapshot != null ? snapshot : EMPTY;
+    }
+
+    /**
+     * Events matching {@code query}. Results are cached under the store version and the query's
+     * canonical key, so equivalent queries share one entry until the store changes. A result has the
+     * version of the store it was computed from, so it keeps its ETag when it is recomputed after
+     * expiring; callers that cache by version must add the query key themselves.
+     *
+     * @throws UpstreamUnavailableException until the first sync or a restore has published events,
+     *                                      so that is not mistaken for a catalogue without events
+     */
+    public Snapshot<List<Earthquake>> query(EarthquakeQuery query) throws UpstreamUnavailableException {
+        Snapshot<List<Earthquake>> all = current;
+        if (all == null) {
+            throw new UpstreamUnavailableException("Earthquakes are still being loaded from KNMI");
+        }
+        if (query.isUnfiltered()) {
+            return all;
+        }
+
+        String key = all.getVersion() + ":" + query.key();
+        Snapshot<List<Earthquake>> cached = results.get(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        List<Earthquake> events = all.getValue();
+        int from = query.getEndTime() == Long.MAX_VALUE ? 0 : firstAtOrBefore(events, query.getEndTime());
+        int to = query.getStartTime() == Long.MIN_VALUE ? events.size()
+                : firstAtOrBefore(events, query.getStartTime() - 1);
+        List<Earthquake> window = events.subList(from, Math.max(from, to));
+        return results.put(key, List.copyOf(query.apply(window)), RESULT_TTL, all.getVersion());
+    }
+
+    /**
+     * Events with an origin time in {@code [from, to)}, newest first.
+     */
+    public List<Earthquake> getBetween(long fromMillis, long toMillis) {
+        List<Earthquake> events = getSnapshot().getValue();
+        return events.subList(firstAtOrBefore(events, toMillis - 1), firstAtOrBefore(events, fromMillis - 1));
+    }
+
+    public Earthquake get(String eventId) {
+        Map<String, Earthquake> byId = getSnapshot().derive("byId", events -> {
+            Map<String, Earthquake> index = new HashMap<>();
+            for (Earthquake event : events) {
+                index.put(event.getEventId(), event);
+            }
+            return index;
+        });
+        return byId.get(eventId);
+    }
+
+    public synchronized void sync() throws IOException {
+        Instant now = Instant.now();
+        Instant horizon = now.minus(history);
+
+        List<Earthquake> stored = current != null ? current.getValue() : List.of();
+        Instant since = horizon;
+        if (!stored.isEmpty() && stored.get(0).getTime() > 0) {
+            Instant newest = Instant.ofEpochMilli(stored.get(0).getTime());
+            since = newest.minus(OVERLAP).isAfter(horizon) ? newest.minus(OVERLAP) : horizon;
+        }
+
+        long start = System.currentTimeMillis();
+        List<Earthquake> fetched = fetcher.fetchEvents(since);
+        List<Earthquake> revised = fetchRevisions(horizon, since);
+
+        Map<String, Earthquake> merged = new LinkedHashMap<>();
+        long sinceMillis = since.toEpochMilli();
+        long horizonMillis = horizon.toEpochMilli();
+        for (Earthquake event : stored) {
+            if (event.getTime() < sinceMillis && event.getTime() >= horizonMillis) {
+                merged.put(event.getEventId(), event);
+            }
+        }
+        for (Earthquake event : revised != null ? revised : List.<Earthquake>of()) {
+            if (event.getTime() < sinceMillis && event.getTime() >= horizonMillis) {
+                merged.put(event.getEventId(), event);
+            }
+        }
+        for (Earthquake event : fetched) {
+            merged.put(event.getEventId(), event);
+        }
+        if (revised != null) {
+            revisedAt = start;
+        }
+
+        List<Earthquake> events = new ArrayList<>(merged.values());
+        events.sort(NEWEST_FIRST);
+
+        if (current == null || !sameEvents(stored, events)) {
+            current = new Snapshot<>(List.copyOf(events), Long.MAX_VALUE);
+            System.out.println("[Earthquake] Store synced: " + fetched.size() + " events since " + since
+                    + ", " + events.size() + " stored (" + (System.currentTimeMillis() - start) + " ms)");
+            storage.save(STORAGE_NAME, new Saved(revisedAt, current.getValue()), CODEC);
+        } else if (current.isExpired()) {
+            // restored from storage and unchanged since: mark it current without saving it again
+            current = new Snapshot<>(stored, Long.MAX_VALUE);
+        }
+    }
+
+    /**
+     * Events before {@code since} that KNMI updated since the last check, or null when they could not
+     * be fetched; the next sync then asks again from the same point.
+     */
+    private List<Earthquake> fetchRevisions(Instant horizon, Instant since) {
+        if (!since.isAfter(horizon)) {
+            // the sync window already covers the whole history
+            return List.of();
+        }
+        Instant updatedAfter = revisedAt > 0 ? Instant.ofEpochMilli(revisedAt).minus(REVISION_MARGIN) : horizon;
+        try {
+            List<Earthquake> revised = fetcher.fetchEvents(horizon, since, updatedAfter);
+            if (!revised.isEmpty()) {
+                System.out.println("[Earthquake] " + revised.size() + " older events revised since " + updatedAfter);
+            }
+            return revised;
+        } catch (IOException e) {
+            System.err.println("[Earthquake] Could not fetch revisions since " + updatedAfter + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    public int size() {
+        Snapshot<List<Earthquake>> snapshot = current;
+        return snapshot != null ? snapshot.getValue().size() : 0;
+    }
+
+    /**
+     * Index of the first event (newest first) whose time is at or before {@code millis}.
+     */
+    private static int firstAtOrBefore(List<Earthquake> events, long millis) {
+        int low = 0, high = events.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (events.get(mid).getTime() > millis) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static final class Saved {
+        final long revisedAt;
+        final List<Earthquake> events;
+
+        Saved(long revisedAt, List<Earthquake> events) {
+            this.revisedAt = revisedAt;
+            this.events = events;
+        }
+    }
+
+    private static boolean sameEvents(List<Earthquake> a, List<Earthquake> b) {
+        if (a.size() != b.size()) {
+            return false;
+        }
+        for (int i = 0; i < a.size(); i++) {
+            Earthquake x = a.get(i), y = b.get(i);
+            if (x != y && !(Objects.equals(x.getEventId(), y.getEventId())
+                    && Objects.equals(x.getDate(), y.getDate())
+                    && Objects.equals(x.getLocation(), y.getLocation())
+                    && x.getLatitude() == y.getLatitude()
+                    && x.getLongitude() == y.getLongitude()
+                    && x.getDepth() == y.getDepth()
+                    && x.getMagnitude() == y.getMagnitude())) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
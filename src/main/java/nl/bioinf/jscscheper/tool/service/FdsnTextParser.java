@@ -0,0 +1,187 @@
+package nl.bioinf.jscscheper.tool.service;
+
+import nl.bioinf.jscscheper.tool.model.Earthquake;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parser for the FDSN event web service text format ({@code format=text}): one event per line,
+ * fields separated by {@code |}, header lines starting with {@code #}. Blank and comment lines are
+ * skipped silently and a missing location name is left empty; only records cut short before the
+ * magnitude are reported, once per response.
+ * <p>
+ * Lines are read one at a time and fields are located with {@code indexOf}; numeric fields are parsed
+ * in place, so the only strings allocated per event are the line, the event ID and the time. Location
+ * names repeat a lot and are shared within one response.
+ */
+public final class FdsnTextParser {
+
+    private static final int FIELD_EVENT_ID = 0;
+    private static final int FIELD_TIME = 1;
+    private static final int FIELD_LATITUDE = 2;
+    private static final int FIELD_LONGITUDE = 3;
+    private static final int FIELD_DEPTH = 4;
+    private static final int FIELD_MAGNITUDE = 10;
+    private static final int FIELD_LOCATION = 12;
+    private static final int MIN_FIELDS = FIELD_MAGNITUDE + 1;
+    private static final int ALL_FIELDS = FIELD_LOCATION + 1;
+
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17
+    };
+
+    private FdsnTextParser() {
+    }
+
+    public static List<Earthquake> parse(String body) {
+        if (body == null || body.isEmpty()) {
+            return new ArrayList<>();
+        }
+        try {
+            return parse(new BufferedReader(new StringReader(body)));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static List<Earthquake> parse(BufferedReader reader) throws IOException {
+        List<Earthquake> earthquakes = new ArrayList<>();
+        Map<String, String> locations = new HashMap<>();
+        int[] starts = new int[ALL_FIELDS + 1];
+        int truncated = 0;
+        String firstTruncated = null;
+
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (isBlankOrComment(line)) {
+                continue;
+            }
+            int fields = split(line, starts);
+            if (fields < MIN_FIELDS) {
+                if (truncated++ == 0) {
+                    firstTruncated = line;
+                }
+                continue;
+            }
+
+            String location = fields > FIELD_LOCATION ? field(line, starts, FIELD_LOCATION) : "";
+            String shared = locations.putIfAbsent(location, location);
+
+            earthquakes.add(new Earthquake(
+                    field(line, starts, FIELD_EVENT_ID),
+                    field(line, starts, FIELD_TIME),
+                    shared != null ? shared : location,
+                    parseFloat(line, starts, FIELD_LATITUDE),
+                    parseFloat(line, starts, FIELD_LONGITUDE),
+                    parseFloat(line, starts, FIELD_DEPTH),
+                    parseFloat(line, starts, FIELD_MAGNITUDE)));
+        }
+        if (truncated > 0) {
+            System.err.println("[Earthquake] Skipped " + truncated + " truncated record(s), first: " + firstTruncated);
+        }
+        return earthquakes;
+    }
+
+    private static boolean isBlankOrComment(String line) {
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (!Character.isWhitespace(c)) {
+                return c == '#';
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Records where each of the first {@code ALL_FIELDS} fields starts; {@code starts[i + 1] - 1} is
+     * where field {@code i} ends. Returns the number of fields found, up to {@code ALL_FIELDS}.
+     */
+    private static int split(String line, int[] starts) {
+        starts[0] = 0;
+        int fields = 1;
+        int from = 0;
+        while (fields < starts.length) {
+            int bar = line.indexOf('|', from);
+            if (bar < 0) {
+                starts[fields] = line.length() + 1;
+                return fields;
+            }
+            starts[fields++] = bar + 1;
+            from = bar + 1;
+        }
+        return ALL_FIELDS;
+    }
+
+    private static String field(String line, int[] starts, int index) {
+        return line.substring(starts[index], starts[index + 1] - 1);
+    }
+
+    /**
+     * Parses a plain decimal ({@code -12.345}) without allocating; anything else (exponents, stray
+     * characters) goes through {@link Float#parseFloat}. Empty or unparseable fields become 0, as the
+     * String-based {@link Earthquake} setters do.
+     */
+    private static float parseFloat(String line, int[] starts, int index) {
+        int start = starts[index];
+        int end = starts[index + 1] - 1;
+        while (start < end && line.charAt(start) == ' ') {
+            start++;
+        }
+        while (end > start && line.charAt(end - 1) == ' ') {
+            end--;
+        }
+        if (start == end) {
+            return 0.0f;
+        }
+
+        int i = start;
+        boolean negative = line.charAt(i) == '-';
+        if (negative || line.charAt(i) == '+') {
+            i++;
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        int scale = 0;
+        boolean dot = false;
+        for (; i < end; i++) {
+            char c = line.charAt(i);
+            if (c >= '0' && c <= '9') {
+                if (digits < 17) {
+                    mantissa = mantissa * 10 + (c - '0');
+                    digits++;
+                    if (dot) {
+                        scale++;
+                    }
+                } else if (!dot) {
+                    scale--;
+                }
+            } else if (c == '.' && !dot) {
+                dot = true;
+            } else {
+                return parseFloatSlow(line.substring(start, end));
+            }
+        }
+        if (digits == 0 || scale < 0) {
+            return parseFloatSlow(line.substring(start, end));
+        }
+
+        double value = mantissa / POWERS_OF_TEN[scale];
+        return (float) (negative ? -value : value);
+    }
+
+    private static float parseFloatSlow(String value) {
+        try {
+            return Float.parseFloat(value);
+        } catch (NumberFormatException e) {
+            return 0.0f;
+        }
+    }
+}
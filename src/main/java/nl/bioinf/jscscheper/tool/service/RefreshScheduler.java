@@ -0,0 +1,137 @@
+package nl.bioinf.jscscheper.tool.service;
+
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Refreshes registered datasets in the background so request threads only ever read the
+ * last published snapshot. Every dataset has its own interval, jitter and failure backoff.
+ */
+public class RefreshScheduler {
+
+    @FunctionalInterface
+    public interface RefreshTask {
+        void refresh() throws Exception;
+    }
+
+    public static class Policy {
+        private final Duration interval;
+        private final Duration jitter;
+        private final Duration initialBackoff;
+        private final Duration maxBackoff;
+
+        public Policy(Duration interval, Duration jitter, Duration initialBackoff, Duration maxBackoff) {
+            this.interval = interval;
+            this.jitter = jitter;
+            this.initialBackoff = initialBackoff;
+            this.maxBackoff = maxBackoff;
+        }
+
+        public Duration getInterval() {
+            return interval;
+        }
+
+        public Duration getJitter() {
+            return jitter;
+        }
+
+        public Duration getInitialBackoff() {
+            return initialBackoff;
+        }
+
+        public Duration getMaxBackoff() {
+            return maxBackoff;
+        }
+    }
+
+    private final ScheduledExecutorService executor;
+
+    public RefreshScheduler(int threads) {
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = Executors.newScheduledThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "geovis-refresh-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void register(String name, Policy policy, RefreshTask task) {
+        register(name, policy, task, Duration.ZERO);
+    }
+
+    public void register(String name, Policy policy, RefreshTask task, Duration initialDelay) {
+        new Dataset(name, policy, task).schedule(initialDelay.toMillis());
+        System.out.println("[Refresh] Registered " + name + " (every " + policy.getInterval().toSeconds() + "s)");
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+        try {
+            if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+                System.err.println("[Refresh] Refresh threads did not stop within 5s");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private class Dataset implements Runnable {
+        private final String name;
+        private final Policy policy;
+        private final RefreshTask task;
+        private int consecutiveFailures = 0;
+
+        Dataset(String name, Policy policy, RefreshTask task) {
+            this.name = name;
+            this.policy = policy;
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            long start = System.currentTimeMillis();
+            try {
+                task.refresh();
+                consecutiveFailures = 0;
+                System.out.println("[Refresh] " + name + " refreshed in " + (System.currentTimeMillis() - start) + " ms");
+                schedule(withJitter(policy.getInterval().toMillis()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                consecutiveFailures++;
+                long backoff = backoffMillis();
+                System.err.println("[Refresh] " + name + " failed (" + consecutiveFailures + " in a row), retrying in "
+                        + backoff / 1000 + "s: " + e.getMessage());
+                schedule(backoff);
+            }
+        }
+
+        private long withJitter(long delay) {
+            long jitter = policy.getJitter().toMillis();
+            if (jitter <= 0) {
+                return delay;
+            }
+            return Math.max(0, delay + ThreadLocalRandom.current().nextLong(-jitter, jitter + 1));
+        }
+
+        private long backoffMillis() {
+            long initial = policy.getInitialBackoff().toMillis();
+            long max = policy.getMaxBackoff().toMillis();
+            int shift = Math.min(consecutiveFailures - 1, 20);
+            return withJitter(Math.min(max, initial << shift));
+        }
+
+        private void schedule(long delayMillis) {
+            try {
+                executor.schedule(this, delayMillis, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // scheduler is shutting down
+            }
+        }
+    }
+}
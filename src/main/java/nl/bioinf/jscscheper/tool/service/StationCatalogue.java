@@ -0,0 +1,136 @@
+package nl.bioinf.jscscheper.tool.service;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import nl.bioinf.jscscheper.tool.cache.Snapshot;
+import nl.bioinf.jscscheper.tool.model.Station;
+
+import javax.servlet.ServletContext;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The station catalogue from {@code /WEB-INF/stations.json}, parsed once and kept as an immutable
+ * list. The file's modification time is checked at most every few seconds and the catalogue is
+ * reloaded when it changes.
+ */
+public class StationCatalogue {
+
+    private static final Gson GSON = new Gson();
+    private static final long CHECK_INTERVAL = 5_000;
+
+    private final ServletContext context;
+    private final String path;
+
+    private volatile Snapshot<List<Station>> current = null;
+    private volatile long lastCheck = 0;
+    private long lastModified = -1;
+
+    public StationCatalogue(ServletContext context, String path) {
+        this.context = context;
+        this.path = path;
+    }
+
+    public List<Station> getStations() throws IOException {
+        return getSnapshot().getValue();
+    }
+
+    public Snapshot<List<Station>> getSnapshot() throws IOException {
+        Snapshot<List<Station>> snapshot = current;
+        if (snapshot != null && System.currentTimeMillis() - lastCheck < CHECK_INTERVAL) {
+            return snapshot;
+        }
+
+        synchronized (this) {
+            if (current != null && System.currentTimeMillis() - lastCheck < CHECK_INTERVAL) {
+                return current;
+            }
+
+            long modified = modificationTime();
+            if (current == null || modified != lastModified) {
+                long start = System.currentTimeMillis();
+                try {
+                    List<Station> stations = load();
+                    current = new Snapshot<>(stations, Long.MAX_VALUE);
+                    System.out.println("[Stations] Loaded " + stations.size() + " stations from " + path + " in "
+                            + (System.currentTimeMillis() - start) + " ms");
+                } catch (IOException | JsonParseException e) {
+                    if (current == null) {
+                        throw new IOException("Could not load " + path + ": " + e.getMessage(), e);
+                    }
+                    System.err.println("[Stations] Reload of " + path + " failed, keeping previous catalogue: "
+                            + e.getMessage());
+                }
+                lastModified = modified;
+            }
+            lastCheck = System.currentTimeMillis();
+            return current;
+        }
+    }
+
+    private List<Station> load() throws IOException {
+        InputStream is = context.getResourceAsStream(path);
+        if (is == null) {
+            throw new FileNotFoundException("Station catalogue not found: " + path);
+        }
+        return parse(is);
+    }
+
+    /**
+     * Reads a JSON array of stations, sharing the repeated strings between them.
+     */
+    static List<Station> parse(InputStream is) throws IOException {
+        List<Station> stations = new ArrayList<>();
+        Map<String, String> strings = new HashMap<>();
+
+        try (JsonReader reader = new JsonReader(
+                new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8)))) {
+            reader.beginArray();
+            while (reader.hasNext()) {
+                Station station = GSON.fromJson(reader, Station.class);
+                station.setElevationUnit(dedupe(strings, station.getElevationUnit()));
+                station.setMindate(dedupe(strings, station.getMindate()));
+                station.setMaxdate(dedupe(strings, station.getMaxdate()));
+                stations.add(station);
+            }
+            reader.endArray();
+        }
+
+        return List.copyOf(stations);
+    }
+
+    private static String dedupe(Map<String, String> strings, String value) {
+        if (value == null) {
+            return null;
+        }
+        String existing = strings.putIfAbsent(value, value);
+        return existing != null ? existing : value;
+    }
+
+    private long modificationTime() throws IOException {
+        String realPath = context.getRealPath(path);
+        if (realPath != null) {
+            return new File(realPath).lastModified();
+        }
+
+        URL url = context.getResource(path);
+        if (url == null) {
+            return 0;
+        }
+        URLConnection connection = url.openConnection();
+        connection.setUseCaches(false);
+        return connection.getLastModified();
+    }
+}
@@ -2,47 +2,214 @@ package nl.bioinf.jscscheper.tool.service;
 
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
+import nl.bioinf.jscscheper.tool.cache.SingleFlight;
+import nl.bioinf.jscscheper.tool.cache.Snapshot;
+import nl.bioinf.jscscheper.tool.cache.SnapshotStorage;
+import nl.bioinf.jscscheper.tool.cache.TtlCache;
 import nl.bioinf.jscscheper.tool.model.Station;
 
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.net.URI;
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
 import java.time.Duration;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import nl.bioinf.jscscheper.tool.util.AsyncLimiter;
 import nl.bioinf.jscscheper.tool.util.EuropeanCities;
+import nl.bioinf.jscscheper.tool.util.Futures;
 import nl.bioinf.jscscheper.tool.util.HttpClientUtil;
+import nl.bioinf.jscscheper.tool.util.Upstream;
+import nl.bioinf.jscscheper.tool.util.UpstreamTransport;
 
 public class WeatherDataFetcher {
 
-    private static final String OPEN_METEO_API = "https://api.open-meteo.com/v1/forecast";
+    private static final String OPEN_METEO_API = Upstream.OPEN_METEO.url("/v1/forecast");
+
+    private static final Duration CACHE_TTL = Duration.ofMinutes(15);
+    private static final Duration FAILURE_TTL = Duration.ofMinutes(1);
+    private static final Duration STALE_WINDOW = Duration.ofMinutes(45);
+
+    public static final Duration REFRESH_INTERVAL = Duration.ofMinutes(12);
+    // Background refreshes re-fetch cells older than this, so one round fetches shared cells once
+    private static final Duration REFRESH_MAX_AGE = REFRESH_INTERVAL.dividedBy(2);
+
+    // Open-Meteo's forecast models are no finer than ~0.1 degrees, so nearby stations share a cell
+    private static final double GRID_STEP = 0.1;
+
+    // Open-Meteo takes many locations per request, but long coordinate lists hit URL length limits
+    private static final int CHUNK_SIZE = 100;
+    private static final Duration CHUNK_TIMEOUT = Duration.ofSeconds(15);
+    private static final AsyncLimiter LIMITER = new AsyncLimiter(4);
+
+    private static final TtlCache<String, List<Station>> STATIONS_CACHE =
+            new TtlCache<>("weather-stations", 64, STALE_WINDOW);
+    private static final TtlCache<String, List<Station>> COUNTRY_CACHE =
+            new TtlCache<>("weather-countries", 64, STALE_WINDOW);
+    private static final TtlCache<Long, CurrentWeather> LOCATION_CACHE =
+            new TtlCache<>("weather-locations", 50_000, STALE_WINDOW);
+    private static final SingleFlight<String, Snapshot<List<Station>>> FLIGHTS = new SingleFlight<>("weather");
+
+    private static final Map<String, String[][]> EUROPEAN_CITIES = EuropeanCities.CITIES_BY_COUNTRY;
+
+    private static final String STATIONS_STORAGE = "weather-stations.v1";
+    private static final String COUNTRIES_STORAGE = "weather-countries.v1";
+    private static final Duration MAX_RESTORE_AGE = Duration.ofDays(1);
+
+    private static final SnapshotStorage.Codec<List<Station>> STATIONS_CODEC =
+            SnapshotStorage.list(new SnapshotStorage.Codec<>() {
+                @Override
+                public void write(DataOutputStream out, Station station) throws IOException {
+                    SnapshotStorage.writeString(out, station.getId());
+                    SnapshotStorage.writeString(out, station.getName());
+                    SnapshotStorage.writeString(out, station.getMindate());
+                    SnapshotStorage.writeString(out, station.getMaxdate());
+                    SnapshotStorage.writeString(out, station.getElevationUnit());
+                    out.writeFloat(station.getLatitude());
+                    out.writeFloat(station.getLongitude());
+                    out.writeFloat(station.getElevation());
+                    out.writeFloat(station.getDatacoverage());
+                    out.writeFloat(station.getTemperature());
+                    out.writeFloat(station.getApparentTemperature());
+                    out.writeFloat(station.getHumidity());
+                    out.writeFloat(station.getWindSpeed());
+                    out.writeFloat(station.getWindDirection());
+                    out.writeFloat(station.getUvIndex());
+                    out.writeInt(station.getWeatherCode());
+                    out.writeBoolean(station.isDay());
+                }
 
-    private static final HttpClient CLIENT = HttpClientUtil.getClient();
+                @Override
+                public Station read(ByteBuffer in) {
+                    Station station = new Station();
+                    station.setId(SnapshotStorage.readString(in));
+                    station.setName(SnapshotStorage.readString(in));
+                    station.setMindate(SnapshotStorage.readString(in));
+                    station.setMaxdate(SnapshotStorage.readString(in));
+                    station.setElevationUnit(SnapshotStorage.readString(in));
+                    station.setLatitude(in.getFloat());
+                    station.setLongitude(in.getFloat());
+                    station.setElevation(in.getFloat());
+                    station.setDatacoverage(in.getFloat());
+                    station.setTemperature(in.getFloat());
+                    station.setApparentTemperature(in.getFloat());
+                    station.setHumidity(in.getFloat());
+                    station.setWindSpeed(in.getFloat());
+                    station.setWindDirection(in.getFloat());
+                    station.setUvIndex(in.getFloat());
+                    station.setWeatherCode(in.getInt());
+                    station.setIsDay(in.get() != 0);
+                    return station;
+                }
+            });
+
+    /**
+     * Current conditions for one grid cell.
+     */
+    static final class CurrentWeather {
+        float temperature;
+        float apparentTemperature;
+        float humidity;
+        float windSpeed;
+        float windDirection;
+        float uvIndex;
+        int weatherCode;
+        boolean isDay;
+    }
 
-    private static List<Station> cachedStations = null;
-    private static long cacheTime = 0;
-    private static final long CACHE_TTL = 15 * 60 * 1000;
+    private final UpstreamTransport transport;
+    private final SnapshotStorage storage;
 
-    private static java.util.Map<String, List<Station>> countryCache = new java.util.HashMap<>();
-    private static java.util.Map<String, Long> countryCacheTime = new java.util.HashMap<>();
+    public WeatherDataFetcher() {
+        this(HttpClientUtil.getTransport(), SnapshotStorage.disabled());
+    }
 
-    private static final java.util.Map<String, String[][]> EUROPEAN_CITIES = EuropeanCities.CITIES_BY_COUNTRY;
+    public WeatherDataFetcher(UpstreamTransport transport, SnapshotStorage storage) {
+        this.transport = transport;
+        this.storage = storage;
+    }
+
+    /**
+     * Serves the station selections and countries saved by the previous run as stale data until
+     * they are refreshed. Returns true when anything was restored.
+     */
+    public boolean restore() {
+        int restored = storage.restoreCache(STATIONS_STORAGE, STATIONS_CACHE, SnapshotStorage.STRING,
+                STATIONS_CODEC, MAX_RESTORE_AGE);
+        restored += storage.restoreCache(COUNTRIES_STORAGE, COUNTRY_CACHE, SnapshotStorage.STRING,
+                STATIONS_CODEC, MAX_RESTORE_AGE);
+        return restored > 0;
+    }
 
     public List<Station> getStationsByCountry(String countryCode) {
-        Long cached = countryCacheTime.get(countryCode);
-        if (cached != null && System.currentTimeMillis() - cached < CACHE_TTL) {
-            System.out.println("[Weather] Returning cached data for " + countryCode);
-            return countryCache.get(countryCode);
+        return getCountrySnapshot(countryCode).join().getValue();
+    }
+
+    public CompletableFuture<Snapshot<List<Station>>> getCountrySnapshot(String countryCode) {
+        Snapshot<List<Station>> cached = COUNTRY_CACHE.get(countryCode);
+        if (cached != null) {
+            System.out.println("[Weather] Returning " + (cached.isExpired() ? "stale" : "cached")
+                    + " data for " + countryCode);
+            return CompletableFuture.completedFuture(cached);
         }
 
         String[][] cities = EUROPEAN_CITIES.get(countryCode);
         if (cities == null) {
             System.err.println("[Weather] No cities defined for country: " + countryCode);
-            return new ArrayList<>();
+            return CompletableFuture.completedFuture(new Snapshot<>(List.of(), 0));
+        }
+
+        return FLIGHTS.execute("country:" + countryCode, () -> loadCountry(countryCode, cities));
+    }
+
+    private CompletableFuture<Snapshot<List<Station>>> loadCountry(String countryCode, String[][] cities) {
+        Snapshot<List<Station>> cached = COUNTRY_CACHE.peek(countryCode);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        List<Station> stations = countryStations(countryCode, cities);
+
+        CompletableFuture<List<Station>> enriching = enrich(stations, CACHE_TTL);
+        return Futures.cancelling(enriching.handle((enriched, error) -> {
+            if (error == null) {
+                return COUNTRY_CACHE.put(countryCode, List.copyOf(enriched), CACHE_TTL);
+            }
+            if (Futures.isCancellation(error)) {
+                throw new CompletionException(error);
+            }
+            System.err.println("[Weather] Country fetch failed: " + Futures.unwrap(error).getMessage());
+            return COUNTRY_CACHE.put(countryCode, List.copyOf(stations), FAILURE_TTL);
+        }), enriching);
+    }
+
+    public void refreshCountries() throws IOException, InterruptedException {
+        IOException failure = null;
+        for (String countryCode : COUNTRY_CACHE.recentlyAccessedKeys(CACHE_TTL.plus(STALE_WINDOW))) {
+            try {
+                List<Station> enriched = Futures.await(
+                        enrich(countryStations(countryCode, EUROPEAN_CITIES.get(countryCode)), REFRESH_MAX_AGE));
+                COUNTRY_CACHE.put(countryCode, List.copyOf(enriched), CACHE_TTL);
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        storage.saveCache(COUNTRIES_STORAGE, COUNTRY_CACHE, SnapshotStorage.STRING, STATIONS_CODEC);
+        if (failure != null) {
+            throw failure;
         }
+    }
 
+    private List<Station> countryStations(String countryCode, String[][] cities) {
         List<Station> stations = new ArrayList<>();
         for (int i = 0; i < cities.length; i++) {
             Station s = new Station();
@@ -52,133 +219,270 @@ public class WeatherDataFetcher {
             s.setLongitude(Float.parseFloat(cities[i][2]));
             stations.add(s);
         }
+        return stations;
+    }
 
-        List<Station> enriched = fetchWeatherForStations(stations);
+    public List<Station> enrichWithWeatherData(List<Station> stations) {
+        return enrichSnapshot(stations).join().getValue();
+    }
 
-        countryCache.put(countryCode, enriched);
-        countryCacheTime.put(countryCode, System.currentTimeMillis());
+    /**
+     * Enriches an ad-hoc station selection, such as a random sample. The result is not cached as a
+     * list because the next selection differs; the per-location cache still makes it cheap.
+     */
+    public CompletableFuture<Snapshot<List<Station>>> enrichSnapshot(List<Station> stations) {
+        CompletableFuture<List<Station>> enriching = enrich(stations, CACHE_TTL);
+        return Futures.cancelling(enriching.handle((enriched, error) -> {
+            if (error == null) {
+                return new Snapshot<>(List.copyOf(enriched), CACHE_TTL.toMillis());
+            }
+            if (Futures.isCancellation(error)) {
+                throw new CompletionException(error);
+            }
+            System.err.println("[Weather] Request failed: " + Futures.unwrap(error).getMessage());
+            return new Snapshot<>(List.copyOf(stations), FAILURE_TTL.toMillis());
+        }), enriching);
+    }
 
-        return enriched;
+    /**
+     * Enriches a station selection that {@code key} identifies, e.g. the stations inside a viewport.
+     */
+    public CompletableFuture<Snapshot<List<Station>>> enrichSnapshot(String key, List<Station> stations) {
+        Snapshot<List<Station>> cached = STATIONS_CACHE.get(key);
+        if (cached != null) {
+            System.out.println("[Weather] Returning " + (cached.isExpired() ? "stale" : "cached") + " data ("
+                    + cached.getValue().size() + " stations)");
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        return FLIGHTS.execute(key, () -> loadStations(key, stations));
     }
 
-    private List<Station> fetchWeatherForStations(List<Station> stations) {
-        if (stations.isEmpty())
-            return stations;
+    private CompletableFuture<Snapshot<List<Station>>> loadStations(String key, List<Station> stations) {
+        Snapshot<List<Station>> cached = STATIONS_CACHE.peek(key);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
 
-        StringBuilder lats = new StringBuilder();
-        StringBuilder lons = new StringBuilder();
+        CompletableFuture<List<Station>> enriching = enrich(stations, CACHE_TTL);
+        return Futures.cancelling(enriching.handle((enriched, error) -> {
+            if (error == null) {
+                return STATIONS_CACHE.put(key, List.copyOf(enriched), CACHE_TTL);
+            }
+            if (Futures.isCancellation(error)) {
+                throw new CompletionException(error);
+            }
+            System.err.println("[Weather] Request failed: " + Futures.unwrap(error).getMessage());
+            return STATIONS_CACHE.put(key, List.copyOf(stations), FAILURE_TTL);
+        }), enriching);
+    }
 
-        for (int i = 0; i < stations.size(); i++) {
-            if (i > 0) {
-                lats.append(",");
-                lons.append(",");
+    public void refreshStations() throws IOException, InterruptedException {
+        IOException failure = null;
+        for (String key : STATIONS_CACHE.recentlyAccessedKeys(CACHE_TTL.plus(STALE_WINDOW))) {
+            Snapshot<List<Station>> cached = STATIONS_CACHE.peek(key);
+            if (cached == null) {
+                continue;
+            }
+            try {
+                STATIONS_CACHE.put(key, List.copyOf(Futures.await(enrich(cached.getValue(), REFRESH_MAX_AGE))),
+                        CACHE_TTL);
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        storage.saveCache(STATIONS_STORAGE, STATIONS_CACHE, SnapshotStorage.STRING, STATIONS_CODEC);
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Adds current weather to {@code stations} from the per-location cache, fetching only the grid
+     * cells that have no observation younger than {@code maxAge}. Cells that cannot be fetched fall
+     * back to a stale observation if there is one; the call fails only when nothing could be
+     * enriched at all.
+     */
+    private CompletableFuture<List<Station>> enrich(List<Station> stations, Duration maxAge) {
+        Map<Long, CurrentWeather> weather = new HashMap<>();
+        Set<Long> missingCells = new LinkedHashSet<>();
+        for (Station station : stations) {
+            long cell = cell(station.getLatitude(), station.getLongitude());
+            if (weather.containsKey(cell) || missingCells.contains(cell)) {
+                continue;
+            }
+            Snapshot<CurrentWeather> cached = LOCATION_CACHE.get(cell);
+            if (cached != null && cached.getAgeMillis() < maxAge.toMillis()) {
+                weather.put(cell, cached.getValue());
+            } else {
+                missingCells.add(cell);
             }
-            lats.append(stations.get(i).getLatitude());
-            lons.append(stations.get(i).getLongitude());
         }
 
-        try {
-            String url = OPEN_METEO_API +
-                    "?latitude=" + lats + "&longitude=" + lons +
-                    "&current=temperature_2m,apparent_temperature,relative_humidity_2m,weather_code,wind_speed_10m,wind_direction_10m,uv_index,is_day"
-                    +
-                    "&timezone=auto";
+        List<Long> missing = new ArrayList<>(missingCells);
+        int cached = weather.size();
+        if (missing.isEmpty()) {
+            return CompletableFuture.completedFuture(enriched(stations, weather, 0, 0, cached));
+        }
 
-            HttpResponse<String> response = CLIENT.send(
-                    HttpRequest.newBuilder(URI.create(url)).timeout(Duration.ofSeconds(30)).GET().build(),
-                    HttpResponse.BodyHandlers.ofString());
+        CompletableFuture<CurrentWeather[]> fetching = fetchWeather(missing);
+        return Futures.cancelling(fetching.handle((fetched, failure) -> {
+            if (Futures.isCancellation(failure)) {
+                throw new CompletionException(failure);
+            }
+            int fetchedCells = 0;
+            if (fetched != null) {
+                for (int i = 0; i < fetched.length; i++) {
+                    if (fetched[i] != null) {
+                        LOCATION_CACHE.put(missing.get(i), fetched[i], CACHE_TTL);
+                        weather.put(missing.get(i), fetched[i]);
+                        fetchedCells++;
+                    }
+                }
+            }
+            for (Long cell : missing) {
+                Snapshot<CurrentWeather> stale = LOCATION_CACHE.peek(cell);
+                if (!weather.containsKey(cell) && stale != null) {
+                    weather.put(cell, stale.getValue());
+                }
+            }
 
-            if (response.statusCode() == 200) {
-                return parseWeatherResponse(response.body(), stations);
+            if (failure != null && weather.isEmpty()) {
+                throw new CompletionException(Futures.unwrap(failure));
             }
-        } catch (Exception e) {
-            System.err.println("[Weather] Country fetch failed: " + e.getMessage());
+            return enriched(stations, weather, fetchedCells, missing.size(), cached);
+        }), fetching);
+    }
+
+    private List<Station> enriched(List<Station> stations, Map<Long, CurrentWeather> weather, int fetchedCells,
+            int missingCells, int cachedCells) {
+        List<Station> result = new ArrayList<>(stations.size());
+        for (Station station : stations) {
+            CurrentWeather current = weather.get(cell(station.getLatitude(), station.getLongitude()));
+            result.add(current != null ? enrichStation(station, current) : station);
         }
-        return stations;
+
+        System.out.println("[Weather] Enriched " + stations.size() + " stations (" + fetchedCells + "/"
+                + missingCells + " grid cells fetched, " + cachedCells + " cached)");
+        return result;
     }
 
-    public List<Station> enrichWithWeatherData(List<Station> stations) {
-        if (cachedStations != null && System.currentTimeMillis() - cacheTime < CACHE_TTL) {
-            System.out.println("[Weather] Returning cached data (" + cachedStations.size() + " stations)");
-            return cachedStations;
+    /**
+     * Fetches the cells in chunks of {@code CHUNK_SIZE} locations that are requested concurrently.
+     * The result has one entry per cell, null where its chunk failed; only when every chunk fails
+     * is the whole call a failure.
+     */
+    private CompletableFuture<CurrentWeather[]> fetchWeather(List<Long> cells) {
+        List<CompletableFuture<CurrentWeather[]>> requests = new ArrayList<>();
+        for (int from = 0; from < cells.size(); from += CHUNK_SIZE) {
+            List<Long> chunk = cells.subList(from, Math.min(from + CHUNK_SIZE, cells.size()));
+            requests.add(LIMITER.submit(() -> fetchChunk(chunk)));
         }
 
-        List<Station> enrichedStations = new ArrayList<>();
+        CompletableFuture<Void> all = CompletableFuture.allOf(requests.toArray(new CompletableFuture<?>[0]));
+        return Futures.cancelling(all.handle((done, error) -> {
+            CurrentWeather[] result = new CurrentWeather[cells.size()];
+            Throwable failure = null;
+            int failed = 0;
+            for (int i = 0; i < requests.size(); i++) {
+                try {
+                    CurrentWeather[] chunk = requests.get(i).join();
+                    System.arraycopy(chunk, 0, result, i * CHUNK_SIZE, chunk.length);
+                } catch (CompletionException | CancellationException e) {
+                    failure = Futures.unwrap(e);
+                    failed++;
+                    if (!Futures.isCancellation(failure)) {
+                        System.err.println("[Weather] Chunk " + (i + 1) + "/" + requests.size() + " failed: "
+                                + failure.getMessage());
+                    }
+                }
+            }
+
+            if (failed == requests.size()) {
+                throw new CompletionException(failure instanceof IOException || failure instanceof CancellationException
+                        ? failure : new IOException("Weather request failed: " + failure.getMessage(), failure));
+            }
+            return result;
+        }), requests);
+    }
 
+    private CompletableFuture<CurrentWeather[]> fetchChunk(List<Long> cells) {
         StringBuilder lats = new StringBuilder();
         StringBuilder lons = new StringBuilder();
 
-        for (int i = 0; i < stations.size(); i++) {
-            Station s = stations.get(i);
+        for (int i = 0; i < cells.size(); i++) {
             if (i > 0) {
                 lats.append(",");
                 lons.append(",");
             }
-            lats.append(s.getLatitude());
-            lons.append(s.getLongitude());
+            lats.append(cellLatitude(cells.get(i)));
+            lons.append(cellLongitude(cells.get(i)));
         }
 
-        try {
-            String url = OPEN_METEO_API +
-                    "?latitude=" + lats +
-                    "&longitude=" + lons +
-                    "&current=temperature_2m,apparent_temperature,relative_humidity_2m,weather_code,wind_speed_10m,wind_direction_10m,uv_index,is_day"
-                    +
-                    "&timezone=auto";
-
-            HttpResponse<String> response = CLIENT.send(
-                    HttpRequest.newBuilder(URI.create(url))
-                            .timeout(Duration.ofSeconds(30))
-                            .GET()
-                            .build(),
-                    HttpResponse.BodyHandlers.ofString());
-
-            if (response.statusCode() == 200) {
-                enrichedStations = parseWeatherResponse(response.body(), stations);
-            } else {
-                System.err.println("[Weather] API returned status " + response.statusCode());
-                enrichedStations = stations;
+        String url = OPEN_METEO_API +
+                "?latitude=" + lats +
+                "&longitude=" + lons +
+                "&current=temperature_2m,apparent_temperature,relative_humidity_2m,weather_code,wind_speed_10m,wind_direction_10m,uv_index,is_day"
+                +
+                "&timezone=auto";
+
+        CompletableFuture<HttpResponse<String>> sent = transport.sendAsync(
+                HttpRequest.newBuilder(URI.create(url))
+                        .timeout(CHUNK_TIMEOUT)
+                        .GET()
+                        .build(),
+                HttpResponse.BodyHandlers.ofString());
+        return Futures.cancelling(sent.thenApply(response -> {
+            if (response.statusCode() != 200) {
+                throw new CompletionException(new IOException("API returned status " + response.statusCode()));
             }
-        } catch (InterruptedException | IOException e) {
-            System.err.println("[Weather] Request failed: " + e.getMessage());
-            enrichedStations = stations;
-        }
-
-        System.out.println("[Weather] Enriched " + enrichedStations.size() + " stations");
-
-        cachedStations = enrichedStations;
-        cacheTime = System.currentTimeMillis();
-
-        return enrichedStations;
+            return parseWeatherResponse(response.body(), cells.size());
+        }), sent);
     }
 
-    private List<Station> parseWeatherResponse(String jsonResponse, List<Station> originalStations) {
-        List<Station> result = new ArrayList<>();
+    /**
+     * One observation per requested location, in request order; null where the response has none.
+     */
+    CurrentWeather[] parseWeatherResponse(String jsonResponse, int locations) {
+        CurrentWeather[] result = new CurrentWeather[locations];
 
         try {
             var parsed = JsonParser.parseString(jsonResponse);
 
             if (parsed.isJsonArray()) {
                 var array = parsed.getAsJsonArray();
-                for (int i = 0; i < array.size() && i < originalStations.size(); i++) {
-                    JsonObject stationData = array.get(i).getAsJsonObject();
-                    Station enriched = enrichStation(originalStations.get(i), stationData);
-                    result.add(enriched);
+                for (int i = 0; i < array.size() && i < locations; i++) {
+                    result[i] = parseCurrent(array.get(i).getAsJsonObject());
                 }
             } else {
-                JsonObject stationData = parsed.getAsJsonObject();
-                Station enriched = enrichStation(originalStations.get(0), stationData);
-                result.add(enriched);
+                result[0] = parseCurrent(parsed.getAsJsonObject());
             }
         } catch (Exception e) {
             System.err.println("[Weather] Parse error: " + e.getMessage());
-            return originalStations;
         }
 
         return result;
     }
 
-    private Station enrichStation(Station original, JsonObject data) {
+    private CurrentWeather parseCurrent(JsonObject data) {
+        JsonObject current = data.getAsJsonObject("current");
+        if (current == null) {
+            return null;
+        }
+
+        CurrentWeather weather = new CurrentWeather();
+        weather.temperature = getFloatOrDefault(current, "temperature_2m", Float.NaN);
+        weather.apparentTemperature = getFloatOrDefault(current, "apparent_temperature", Float.NaN);
+        weather.humidity = getFloatOrDefault(current, "relative_humidity_2m", Float.NaN);
+        weather.windSpeed = getFloatOrDefault(current, "wind_speed_10m", Float.NaN);
+        weather.windDirection = getFloatOrDefault(current, "wind_direction_10m", Float.NaN);
+        weather.uvIndex = getFloatOrDefault(current, "uv_index", Float.NaN);
+        weather.weatherCode = getIntOrDefault(current, "weather_code", -1);
+        weather.isDay = getIntOrDefault(current, "is_day", 1) == 1;
+        return weather;
+    }
+
+    Station enrichStation(Station original, CurrentWeather weather) {
         Station enriched = new Station();
 
         enriched.setId(original.getId());
@@ -191,21 +495,35 @@ public class WeatherDataFetcher {
         enriched.setMaxdate(original.getMaxdate());
         enriched.setDatacoverage(original.getDatacoverage());
 
-        JsonObject current = data.getAsJsonObject("current");
-        if (current != null) {
-            enriched.setTemperature(getFloatOrDefault(current, "temperature_2m", Float.NaN));
-            enriched.setApparentTemperature(getFloatOrDefault(current, "apparent_temperature", Float.NaN));
-            enriched.setHumidity(getFloatOrDefault(current, "relative_humidity_2m", Float.NaN));
-            enriched.setWindSpeed(getFloatOrDefault(current, "wind_speed_10m", Float.NaN));
-            enriched.setWindDirection(getFloatOrDefault(current, "wind_direction_10m", Float.NaN));
-            enriched.setUvIndex(getFloatOrDefault(current, "uv_index", Float.NaN));
-            enriched.setWeatherCode(getIntOrDefault(current, "weather_code", -1));
-            enriched.setIsDay(getIntOrDefault(current, "is_day", 1) == 1);
-        }
+        enriched.setTemperature(weather.temperature);
+        enriched.setApparentTemperature(weather.apparentTemperature);
+        enriched.setHumidity(weather.humidity);
+        enriched.setWindSpeed(weather.windSpeed);
+        enriched.setWindDirection(weather.windDirection);
+        enriched.setUvIndex(weather.uvIndex);
+        enriched.setWeatherCode(weather.weatherCode);
+        enriched.setIsDay(weather.isDay);
 
         return enriched;
     }
 
+    /**
+     * Packs the coordinates snapped to the {@code GRID_STEP} grid into one key.
+     */
+    static long cell(double latitude, double longitude) {
+        long lat = Math.round(latitude / GRID_STEP);
+        long lon = Math.round(longitude / GRID_STEP);
+        return (lat << 32) | (lon & 0xFFFFFFFFL);
+    }
+
+    private static double cellLatitude(long cell) {
+        return Math.round((cell >> 32) * GRID_STEP * 1000) / 1000.0;
+    }
+
+    private static double cellLongitude(long cell) {
+        return Math.round((int) cell * GRID_STEP * 1000) / 1000.0;
+    }
+
     private float getFloatOrDefault(JsonObject obj, String key, float defaultValue) {
         if (obj.has(key) && !obj.get(key).isJsonNull()) {
             return obj.get(key).getAsFloat();
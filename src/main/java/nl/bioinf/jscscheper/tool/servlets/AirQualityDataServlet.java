@@ -1,6 +1,8 @@
 package nl.bioinf.jscscheper.tool.servlets;
 
+import nl.bioinf.jscscheper.tool.cache.Snapshot;
 import nl.bioinf.jscscheper.tool.config.ApiResponse;
+import nl.bioinf.jscscheper.tool.config.AsyncResponses;
 import nl.bioinf.jscscheper.tool.model.AirQualityStation;
 import nl.bioinf.jscscheper.tool.service.AirQualityDataFetcher;
 
@@ -11,14 +13,50 @@ import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.util.List;
 
-@WebServlet(name = "AirQualityDataServlet", urlPatterns = "/airqualitydata")
+@WebServlet(name = "AirQualityDataServlet", urlPatterns = "/airqualitydata", asyncSupported = true)
 public class AirQualityDataServlet extends HttpServlet {
 
-    private final AirQualityDataFetcher fetcher = new AirQualityDataFetcher();
+    private AirQualityDataFetcher fetcher;
+    private AsyncResponses async;
+
+    @Override
+    public void init() {
+        fetcher = (AirQualityDataFetcher) getServletContext().getAttribute(AirQualityDataFetcher.class.getName());
+        async = (AsyncResponses) getServletContext().getAttribute(AsyncResponses.class.getName());
+    }
 
     @Override
     protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
-        List<AirQualityStation> stations = fetcher.getEuropeanStations();
-        ApiResponse.writeJson(response, stations);
+        SpatialQuery spatial;
+        ClusterQuery clusters;
+        try {
+            spatial = SpatialQuery.fromRequest(request);
+            clusters = ClusterQuery.fromRequest(request, spatial);
+        } catch (IllegalArgumentException e) {
+            ApiResponse.writeError(response, 400, e.getMessage());
+            return;
+        }
+
+        async.respond(request, response, fetcher.getEuropeanSnapshot(), "Failed to load air quality data",
+                stations -> write(request, response, spatial, clusters, stations));
+    }
+
+    private static void write(HttpServletRequest request, HttpServletResponse response, SpatialQuery spatial,
+            ClusterQuery clusters, Snapshot<List<AirQualityStation>> stations) throws IOException {
+        if (clusters != null) {
+            ApiResponse.writeJson(request, response, clusters.apply(stations,
+                    AirQualityStation::getLatitude, AirQualityStation::getLongitude,
+                    "europeanAqi", AirQualityStation::getEuropeanAqi), stations.getVersion());
+            return;
+        }
+
+        if (spatial == null) {
+            ApiResponse.writeJson(request, response, stations);
+            return;
+        }
+
+        List<AirQualityStation> visible = spatial.apply(stations,
+                AirQualityStation::getLatitude, AirQualityStation::getLongitude);
+        ApiResponse.writeJson(request, response, visible, stations.getVersion());
     }
 }
@@ -0,0 +1,178 @@
+package nl.bioinf.jscscheper.tool.servlets;
+
+import nl.bioinf.jscscheper.tool.cache.Snapshot;
+import nl.bioinf.jscscheper.tool.config.ApiResponse;
+import nl.bioinf.jscscheper.tool.config.ColumnarFormat;
+import nl.bioinf.jscscheper.tool.service.AirQualityHistoryStore;
+import nl.bioinf.jscscheper.tool.util.Downsampling;
+import nl.bioinf.jscscheper.tool.util.IsoTime;
+import nl.bioinf.jscscheper.tool.util.TimeSeries;
+
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Serves {@code /airqualitydata/history?city=&country=&from=&to=&points=&pollutants=}: the hourly
+ * history of one city, downsampled with LTTB to at most {@code points} samples. The first pollutant
+ * picks the samples; the others are returned at the same timestamps. Missing values are null.
+ * <p>
+ * Clients accepting {@link ColumnarFormat} get a {@code time} column (epoch seconds, float64) and one
+ * float32 column per pollutant with NaN for missing values instead.
+ */
+@WebServlet(name = "AirQualityHistoryServlet", urlPatterns = "/airqualitydata/history")
+public class AirQualityHistoryServlet extends HttpServlet {
+
+    private static final int DEFAULT_POINTS = 200;
+    private static final int MAX_POINTS = 5000;
+    private static final Duration DEFAULT_RANGE = Duration.ofDays(7);
+
+    private AirQualityHistoryStore history;
+
+    @Override
+    public void init() {
+        history = (AirQualityHistoryStore) getServletContext().getAttribute(AirQualityHistoryStore.class.getName());
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        String city = request.getParameter("city");
+        if (city == null || city.trim().isEmpty()) {
+            ApiResponse.writeError(response, 400, "city is required");
+            return;
+        }
+        String countryParam = request.getParameter("country");
+        String country = countryParam == null || countryParam.trim().isEmpty() ? null : countryParam.trim();
+
+        Snapshot<TimeSeries> snapshot = history.get(country, city.trim());
+        if (snapshot == null || snapshot.getValue().size() == 0) {
+            ApiResponse.writeError(response, 404, "No history for " + city);
+            return;
+        }
+        TimeSeries series = snapshot.getValue();
+
+        long to, from;
+        int points;
+        int[] columns;
+        try {
+            to = time(request.getParameter("to"), series.getLastTime(), "to");
+            from = time(request.getParameter("from"), to - DEFAULT_RANGE.getSeconds(), "from");
+            points = points(request.getParameter("points"));
+            columns = columns(series, request.getParameter("pollutants"));
+            if (from > to) {
+                throw new IllegalArgumentException("from must not be after to");
+            }
+        } catch (IllegalArgumentException e) {
+            ApiResponse.writeError(response, 400, e.getMessage());
+            return;
+        }
+
+        int start = series.indexAtOrAfter(from);
+        int end = to == Long.MAX_VALUE ? series.size() : series.indexAtOrAfter(to + 1);
+        int[] indices = Downsampling.lttb(series.times(), series.values(columns[0]), start, end, points);
+
+        ApiResponse.write(request, response, snapshot.getVersion(),
+                () -> json(series, indices, columns, city.trim(), country, from, to),
+                () -> table(series, indices, columns));
+    }
+
+    private static Map<String, Object> json(TimeSeries series, int[] indices, int[] columns, String city,
+            String country, long from, long to) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("city", city);
+        result.put("country", country);
+        result.put("from", from);
+        result.put("to", to);
+
+        long[] times = new long[indices.length];
+        for (int i = 0; i < indices.length; i++) {
+            times[i] = series.getTime(indices[i]);
+        }
+        result.put("time", times);
+
+        for (int column : columns) {
+            List<Float> values = new ArrayList<>(indices.length);
+            for (int index : indices) {
+                float value = series.getValue(column, index);
+                values.add(Float.isNaN(value) ? null : value);
+            }
+            result.put(series.getColumns()[column], values);
+        }
+        return result;
+    }
+
+    private static ColumnarFormat.Table table(TimeSeries series, int[] indices, int[] columns) {
+        ColumnarFormat.Table table = new ColumnarFormat.Table(indices.length);
+        double[] times = new double[indices.length];
+        for (int i = 0; i < indices.length; i++) {
+            times[i] = series.getTime(indices[i]);
+        }
+        table.float64("time", times);
+
+        for (int column : columns) {
+            float[] values = new float[indices.length];
+            for (int i = 0; i < indices.length; i++) {
+                values[i] = series.getValue(column, indices[i]);
+            }
+            table.float32(series.getColumns()[column], values);
+        }
+        return table;
+    }
+
+    /**
+     * Parses an ISO date or date-time, or a number of epoch seconds.
+     */
+    private static long time(String value, long defaultValue, String name) {
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        String text = value.trim();
+        try {
+            return Long.parseLong(text);
+        } catch (NumberFormatException e) {
+            try {
+                return IsoTime.parseEpochMillis(text) / 1000;
+            } catch (DateTimeParseException ex) {
+                throw new IllegalArgumentException(name + " must be an ISO date-time or epoch seconds, got '"
+                        + value + "'");
+            }
+        }
+    }
+
+    private static int points(String value) {
+        if (value == null || value.trim().isEmpty()) {
+            return DEFAULT_POINTS;
+        }
+        try {
+            int points = Integer.parseInt(value.trim());
+            if (points < 2 || points > MAX_POINTS) {
+                throw new IllegalArgumentException("points must be between 2 and " + MAX_POINTS);
+            }
+            return points;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("points must be a number, got '" + value + "'");
+        }
+    }
+
+    private static int[] columns(TimeSeries series, String value) {
+        String[] names = value == null || value.trim().isEmpty()
+                ? new String[] { "pm25", "pm10" } : value.split(",");
+        int[] columns = new int[names.length];
+        for (int i = 0; i < names.length; i++) {
+            columns[i] = series.column(names[i].trim());
+            if (columns[i] < 0) {
+                throw new IllegalArgumentException("Unknown pollutant '" + names[i].trim() + "', expected one of "
+                        + String.join(", ", AirQualityHistoryStore.POLLUTANTS));
+            }
+        }
+        return columns;
+    }
+}
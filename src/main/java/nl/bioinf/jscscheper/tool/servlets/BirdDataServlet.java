@@ -1,6 +1,8 @@
 package nl.bioinf.jscscheper.tool.servlets;
 
+import nl.bioinf.jscscheper.tool.cache.Snapshot;
 import nl.bioinf.jscscheper.tool.config.ApiResponse;
+import nl.bioinf.jscscheper.tool.config.AsyncResponses;
 import nl.bioinf.jscscheper.tool.model.BirdSighting;
 import nl.bioinf.jscscheper.tool.service.BirdDataFetcher;
 
@@ -10,51 +12,74 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
-@WebServlet(name = "BirdDataServlet", urlPatterns = "/birddata")
+@WebServlet(name = "BirdDataServlet", urlPatterns = "/birddata", asyncSupported = true)
 public class BirdDataServlet extends HttpServlet {
 
+    private static final String FAILURE = "Failed to fetch bird data";
+
     private BirdDataFetcher fetcher;
+    private AsyncResponses async;
 
     @Override
     public void init() {
-        String apiKey = System.getenv("EBIRD_API_KEY");
-
-        if (apiKey == null || apiKey.isEmpty()) {
-            apiKey = getServletContext().getInitParameter("ebird.api.key");
-        }
-
-        if (apiKey == null || apiKey.isEmpty()) {
-            System.err.println("[Birds] WARNING: No eBird API key configured! Set EBIRD_API_KEY env var.");
-            apiKey = "";
-        }
-        fetcher = new BirdDataFetcher(apiKey);
+        fetcher = (BirdDataFetcher) getServletContext().getAttribute(BirdDataFetcher.class.getName());
+        async = (AsyncResponses) getServletContext().getAttribute(AsyncResponses.class.getName());
     }
 
     @Override
     protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
         try {
-            List<BirdSighting> sightings;
-
+            // every parameter is checked before any upstream request starts
             String region = request.getParameter("region");
+            double lat = parseDouble(request.getParameter("lat"), 52.1326);
+            double lng = parseDouble(request.getParameter("lng"), 5.2913);
+            int dist = parseInt(request.getParameter("dist"), 50);
+
+            String bbox = request.getParameter("bbox");
+            SpatialQuery spatial = bbox == null || bbox.isEmpty() ? null : SpatialQuery.fromRequest(request);
+            ClusterQuery clusters = ClusterQuery.fromRequest(request, spatial);
 
-            if (region != null && !region.isEmpty()) {
-                sightings = fetcher.getRecentSightingsByRegion(region);
-            } else {
-                double lat = parseDouble(request.getParameter("lat"), 52.1326);
-                double lng = parseDouble(request.getParameter("lng"), 5.2913);
-                int dist = parseInt(request.getParameter("dist"), 50);
-                sightings = fetcher.getRecentSightings(lat, lng, dist);
-            }
+            CompletableFuture<Snapshot<List<BirdSighting>>> sightings = region != null && !region.isEmpty()
+                    ? fetcher.getRegionSnapshot(region)
+                    : fetcher.getRecentSnapshot(lat, lng, dist);
 
-            ApiResponse.writeJson(response, sightings);
+            async.respond(request, response, sightings, FAILURE,
+                    snapshot -> write(request, response, spatial, clusters, snapshot));
+        } catch (IllegalArgumentException e) {
+            ApiResponse.writeError(response, 400, e.getMessage());
         } catch (Exception e) {
             System.err.println("[Birds] Error: " + e.getMessage());
             e.printStackTrace();
-            ApiResponse.writeError(response, 500, "Failed to fetch bird data");
+            ApiResponse.writeError(response, 500, FAILURE);
         }
     }
 
+    private static void write(HttpServletRequest request, HttpServletResponse response, SpatialQuery spatial,
+            ClusterQuery clusters, Snapshot<List<BirdSighting>> sightings) throws IOException {
+        if (clusters != null) {
+            ApiResponse.writeJson(request, response, clusters.apply(sightings,
+                    BirdSighting::getLatitude, BirdSighting::getLongitude, "howMany", BirdDataServlet::howMany),
+                    sightings.getVersion());
+            return;
+        }
+        if (spatial == null) {
+            ApiResponse.writeJson(request, response, sightings);
+            return;
+        }
+
+        List<BirdSighting> visible = spatial.apply(sightings, BirdSighting::getLatitude, BirdSighting::getLongitude);
+        ApiResponse.writeJson(request, response, visible, sightings.getVersion());
+    }
+
+    /**
+     * eBird reports "X" (present, not counted) as a missing count.
+     */
+    private static double howMany(BirdSighting sighting) {
+        return sighting.getHowMany() > 0 ? sighting.getHowMany() : Double.NaN;
+    }
+
     private double parseDouble(String value, double defaultValue) {
         if (value == null)
             return defaultValue;
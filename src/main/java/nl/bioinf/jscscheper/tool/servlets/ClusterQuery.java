@@ -0,0 +1,63 @@
+package nl.bioinf.jscscheper.tool.servlets;
+
+import nl.bioinf.jscscheper.tool.cache.Snapshot;
+import nl.bioinf.jscscheper.tool.util.ClusterIndex;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.List;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * The {@code zoom=} parameter shared by the map endpoints: instead of individual points the response
+ * holds the clusters for that zoom level, optionally restricted to a {@code bbox}.
+ */
+class ClusterQuery {
+
+    private final int zoom;
+    private final SpatialQuery spatial;
+
+    private ClusterQuery(int zoom, SpatialQuery spatial) {
+        this.zoom = zoom;
+        this.spatial = spatial;
+    }
+
+    /**
+     * Parses {@code zoom}, or returns {@code null} when the request has none.
+     *
+     * @throws IllegalArgumentException when zoom is malformed or combined with a radius or nearest query
+     */
+    static ClusterQuery fromRequest(HttpServletRequest request, SpatialQuery spatial) {
+        String zoom = request.getParameter("zoom");
+        if (zoom == null || zoom.isEmpty()) {
+            return null;
+        }
+
+        int level;
+        try {
+            level = Integer.parseInt(zoom.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("zoom must be an integer, got '" + zoom + "'");
+        }
+        if (level < 0 || level > 30) {
+            throw new IllegalArgumentException("zoom must be between 0 and 30");
+        }
+        if (spatial != null && !spatial.isBoundingBox()) {
+            throw new IllegalArgumentException("zoom can only be combined with bbox");
+        }
+        return new ClusterQuery(level, spatial);
+    }
+
+    /**
+     * Clusters {@code snapshot}, building the cluster levels the first time the snapshot is clustered
+     * on {@code metricName}.
+     */
+    <T> List<ClusterIndex.Cluster<T>> apply(Snapshot<List<T>> snapshot, ToDoubleFunction<T> latitude,
+            ToDoubleFunction<T> longitude, String metricName, ToDoubleFunction<T> metric) {
+        ClusterIndex<T> index = snapshot.derive("clusters:" + metricName,
+                items -> new ClusterIndex<>(items, latitude, longitude, metric));
+        if (spatial == null) {
+            return index.clusters(zoom);
+        }
+        return spatial.apply(index, zoom);
+    }
+}
@@ -1,8 +1,11 @@
 package nl.bioinf.jscscheper.tool.servlets;
 
+import nl.bioinf.jscscheper.tool.cache.Snapshot;
 import nl.bioinf.jscscheper.tool.config.ApiResponse;
 import nl.bioinf.jscscheper.tool.model.Earthquake;
-import nl.bioinf.jscscheper.tool.service.EarthquakeDataFetcher;
+import nl.bioinf.jscscheper.tool.service.EarthquakeQuery;
+import nl.bioinf.jscscheper.tool.service.EarthquakeStore;
+import nl.bioinf.jscscheper.tool.util.UpstreamUnavailableException;
 
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
@@ -10,20 +13,54 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.util.List;
-import java.util.Map;
 
 @WebServlet(name = "EarthquakeDataServlet", urlPatterns = "/mapdata")
 public class EarthquakeDataServlet extends HttpServlet {
 
-    private final EarthquakeDataFetcher fetcher = new EarthquakeDataFetcher();
+    private static final int DEFAULT_LIMIT = 10;
+
+    private EarthquakeStore store;
+
+    @Override
+    public void init() {
+        store = (EarthquakeStore) getServletContext().getAttribute(EarthquakeStore.class.getName());
+    }
 
     @Override
     protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
-        Map<String, String[]> params = request.getParameterMap();
+        SpatialQuery spatial;
+        ClusterQuery clusters;
+        EarthquakeQuery query;
+        try {
+            spatial = SpatialQuery.fromRequest(request);
+            clusters = ClusterQuery.fromRequest(request, spatial);
+            query = EarthquakeQuery.fromParameters(request.getParameterMap(), DEFAULT_LIMIT);
+        } catch (IllegalArgumentException e) {
+            ApiResponse.writeError(response, 400, e.getMessage());
+            return;
+        }
+
+        Snapshot<List<Earthquake>> earthquakes;
+        try {
+            earthquakes = store.query(query);
+        } catch (UpstreamUnavailableException e) {
+            ApiResponse.writeUnavailable(response, e.getMessage());
+            return;
+        }
+
+        if (clusters != null) {
+            ApiResponse.writeJson(request, response, clusters.apply(earthquakes,
+                    Earthquake::getLatitude, Earthquake::getLongitude, "magnitude", Earthquake::getMagnitude),
+                    earthquakes.getVersion());
+            return;
+        }
 
-        String rawData = fetcher.getEarthquakes(params);
-        List<Earthquake> earthquakes = fetcher.responseToEarthquakes(rawData);
+        if (spatial == null) {
+            ApiResponse.writeJson(request, response, earthquakes);
+            return;
+        }
 
-        ApiResponse.writeJson(response, earthquakes);
+        List<Earthquake> visible = spatial.apply(earthquakes, Earthquake::getLatitude, Earthquake::getLongitude);
+        ApiResponse.writeJson(request, response, visible, earthquakes.getVersion());
     }
 }
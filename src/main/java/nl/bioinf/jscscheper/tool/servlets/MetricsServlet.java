@@ -0,0 +1,27 @@
+package nl.bioinf.jscscheper.tool.servlets;
+
+import nl.bioinf.jscscheper.tool.metrics.Metrics;
+
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Serves {@code /metrics} in the Prometheus text exposition format.
+ */
+@WebServlet(name = "MetricsServlet", urlPatterns = "/metrics")
+public class MetricsServlet extends HttpServlet {
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        response.setContentType("text/plain; version=0.0.4");
+        response.setCharacterEncoding("UTF-8");
+        response.setHeader("Cache-Control", "no-cache");
+        try (Writer out = response.getWriter()) {
+            Metrics.write(out);
+        }
+    }
+}
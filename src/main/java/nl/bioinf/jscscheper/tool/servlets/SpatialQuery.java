@@ -0,0 +1,151 @@
+package nl.bioinf.jscscheper.tool.servlets;
+
+import nl.bioinf.jscscheper.tool.cache.Snapshot;
+import nl.bioinf.jscscheper.tool.util.ClusterIndex;
+import nl.bioinf.jscscheper.tool.util.GridIndex;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Viewport parameters shared by the map endpoints:
+ * {@code bbox=minLon,minLat,maxLon,maxLat}, {@code lat=&lon=&radius=} (km) and
+ * {@code lat=&lon=&nearest=k}.
+ */
+class SpatialQuery {
+
+    private enum Kind {
+        BBOX, RADIUS, NEAREST
+    }
+
+    private final Kind kind;
+    private final double[] args;
+
+    private SpatialQuery(Kind kind, double... args) {
+        this.kind = kind;
+        this.args = args;
+    }
+
+    /**
+     * Parses the viewport parameters, or returns {@code null} when the request has none.
+     *
+     * @throws IllegalArgumentException when the parameters are present but malformed
+     */
+    static SpatialQuery fromRequest(HttpServletRequest request) {
+        String bbox = request.getParameter("bbox");
+        if (bbox != null && !bbox.isEmpty()) {
+            String[] parts = bbox.split(",");
+            if (parts.length != 4) {
+                throw new IllegalArgumentException("bbox must be minLon,minLat,maxLon,maxLat");
+            }
+            double minLon = parse("bbox", parts[0], -180, 180);
+            double minLat = parse("bbox", parts[1], -90, 90);
+            double maxLon = parse("bbox", parts[2], -180, 180);
+            double maxLat = parse("bbox", parts[3], -90, 90);
+            if (minLat > maxLat) {
+                throw new IllegalArgumentException("bbox minLat must not exceed maxLat");
+            }
+            return new SpatialQuery(Kind.BBOX, minLon, minLat, maxLon, maxLat);
+        }
+
+        String lat = request.getParameter("lat");
+        String lon = request.getParameter("lon");
+        String radius = request.getParameter("radius");
+        String nearest = request.getParameter("nearest");
+        if (lat == null || lon == null || (radius == null && nearest == null)) {
+            return null;
+        }
+
+        double latitude = parse("lat", lat, -90, 90);
+        double longitude = parse("lon", lon, -180, 180);
+        if (nearest != null) {
+            return new SpatialQuery(Kind.NEAREST, latitude, longitude, parse("nearest", nearest, 1, 10_000));
+        }
+        return new SpatialQuery(Kind.RADIUS, latitude, longitude, parse("radius", radius, 0, 20_100));
+    }
+
+    boolean isBoundingBox() {
+        return kind == Kind.BBOX;
+    }
+
+    <T> List<T> apply(GridIndex<T> index) {
+        switch (kind) {
+            case BBOX:
+                return index.withinBoundingBox(args[0], args[1], args[2], args[3]);
+            case RADIUS:
+                return index.withinRadius(args[0], args[1], args[2]);
+            default:
+                return index.nearest(args[0], args[1], (int) args[2]);
+        }
+    }
+
+    /**
+     * Clusters at {@code zoom} inside the bounding box; only valid for {@link #isBoundingBox()} queries.
+     */
+    <T> List<ClusterIndex.Cluster<T>> apply(ClusterIndex<T> index, int zoom) {
+        if (kind != Kind.BBOX) {
+            throw new IllegalStateException("Clusters can only be restricted to a bounding box");
+        }
+        return index.clusters(zoom, args[0], args[1], args[2], args[3]);
+    }
+
+    /**
+     * Queries the grid index of {@code snapshot}, building it the first time the snapshot is queried.
+     */
+    <T> List<T> apply(Snapshot<List<T>> snapshot, ToDoubleFunction<T> latitude, ToDoubleFunction<T> longitude) {
+        GridIndex<T> index = snapshot.derive("grid", items -> new GridIndex<>(items, latitude, longitude));
+        return apply(index);
+    }
+
+    /**
+     * Reduces {@code items} to at most {@code n} entries. Radius and nearest results keep the closest
+     * ones; bounding-box results are sampled evenly with a seed derived from the query, so the same
+     * URL always gets the same answer.
+     */
+    <T> List<T> limit(List<T> items, int n) {
+        if (items.size() <= n) {
+            return items;
+        }
+        if (n <= 0) {
+            return Collections.emptyList();
+        }
+        if (kind != Kind.BBOX) {
+            return new ArrayList<>(items.subList(0, n));
+        }
+
+        List<T> shuffled = new ArrayList<>(items);
+        Random random = new Random(key().hashCode());
+        for (int i = 0; i < n; i++) {
+            Collections.swap(shuffled, i, i + random.nextInt(shuffled.size() - i));
+        }
+        return new ArrayList<>(shuffled.subList(0, n));
+    }
+
+    /**
+     * Canonical form of the query, usable as a cache key.
+     */
+    String key() {
+        StringBuilder key = new StringBuilder(kind.name().toLowerCase());
+        for (double arg : args) {
+            key.append(':').append(arg);
+        }
+        return key.toString();
+    }
+
+    private static double parse(String name, String value, double min, double max) {
+        double parsed;
+        try {
+            parsed = Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " must be a number, got '" + value + "'");
+        }
+        if (Double.isNaN(parsed) || parsed < min || parsed > max) {
+            throw new IllegalArgumentException(name + " must be between " + min + " and " + max);
+        }
+        return parsed;
+    }
+}
@@ -0,0 +1,172 @@
+package nl.bioinf.jscscheper.tool.servlets;
+
+import nl.bioinf.jscscheper.tool.cache.SingleFlight;
+import nl.bioinf.jscscheper.tool.cache.Snapshot;
+import nl.bioinf.jscscheper.tool.cache.TtlCache;
+import nl.bioinf.jscscheper.tool.config.ApiResponse;
+import nl.bioinf.jscscheper.tool.config.AsyncResponses;
+import nl.bioinf.jscscheper.tool.model.AirQualityStation;
+import nl.bioinf.jscscheper.tool.model.Earthquake;
+import nl.bioinf.jscscheper.tool.model.Station;
+import nl.bioinf.jscscheper.tool.service.AirQualityDataFetcher;
+import nl.bioinf.jscscheper.tool.service.EarthquakeQuery;
+import nl.bioinf.jscscheper.tool.service.EarthquakeStore;
+import nl.bioinf.jscscheper.tool.service.StationCatalogue;
+import nl.bioinf.jscscheper.tool.util.GridIndex;
+import nl.bioinf.jscscheper.tool.util.UpstreamUnavailableException;
+import nl.bioinf.jscscheper.tool.util.VectorTileEncoder;
+
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.ToDoubleFunction;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Serves {@code /tiles/{layer}/{z}/{x}/{y}.mvt} as Mapbox Vector Tiles for the {@code stations},
+ * {@code airquality} and {@code earthquakes} layers; the earthquake layer takes the same filters as
+ * {@code /mapdata} but holds every matching event unless {@code limit} is given. Encoded tiles are
+ * cached by snapshot version, so a tile is encoded once per dataset refresh no matter how many
+ * clients view it.
+ */
+@WebServlet(name = "VectorTileServlet", urlPatterns = "/tiles/*", asyncSupported = true)
+public class VectorTileServlet extends HttpServlet {
+
+    private static final String CONTENT_TYPE = "application/vnd.mapbox-vector-tile";
+    private static final Pattern TILE_PATH = Pattern.compile("/([a-z]+)/(\\d{1,2})/(\\d{1,9})/(\\d{1,9})\\.mvt");
+    private static final Duration TILE_TTL = Duration.ofHours(1);
+
+    private static final TtlCache<String, byte[]> TILES =
+            new TtlCache<>("tiles", 32L * 1024 * 1024, tile -> tile.length, Duration.ZERO);
+    private static final SingleFlight<String, byte[]> FLIGHTS = new SingleFlight<>("tiles");
+
+    private AirQualityDataFetcher airQualityFetcher;
+    private EarthquakeStore earthquakeStore;
+    private StationCatalogue catalogue;
+    private AsyncResponses async;
+
+    @Override
+    public void init() {
+        airQualityFetcher = (AirQualityDataFetcher) getServletContext()
+                .getAttribute(AirQualityDataFetcher.class.getName());
+        catalogue = (StationCatalogue) getServletContext().getAttribute(StationCatalogue.class.getName());
+        earthquakeStore = (EarthquakeStore) getServletContext().getAttribute(EarthquakeStore.class.getName());
+        async = (AsyncResponses) getServletContext().getAttribute(AsyncResponses.class.getName());
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        String pathInfo = request.getPathInfo();
+        Matcher matcher = TILE_PATH.matcher(pathInfo == null ? "" : pathInfo);
+        if (!matcher.matches()) {
+            ApiResponse.writeError(response, 404, "Expected /tiles/{layer}/{z}/{x}/{y}.mvt");
+            return;
+        }
+
+        String layer = matcher.group(1);
+        VectorTileEncoder encoder;
+        try {
+            encoder = new VectorTileEncoder(Integer.parseInt(matcher.group(2)),
+                    Integer.parseInt(matcher.group(3)), Integer.parseInt(matcher.group(4)));
+        } catch (IllegalArgumentException e) {
+            ApiResponse.writeError(response, 400, e.getMessage());
+            return;
+        }
+        String tile = matcher.group(2) + "/" + matcher.group(3) + "/" + matcher.group(4);
+
+        try {
+            switch (layer) {
+                case "stations":
+                    writeTile(request, response, encoder, tile, layer, catalogue.getSnapshot(),
+                            Station::getLatitude, Station::getLongitude, (station, feature) -> feature
+                                    .attribute("id", station.getId())
+                                    .attribute("name", station.getName())
+                                    .attribute("elevation", station.getElevation()));
+                    break;
+                case "airquality":
+                    // a cold cache waits for the air quality sweep
+                    async.respond(request, response, airQualityFetcher.getEuropeanSnapshot(), "Failed to encode tile",
+                            stations -> writeTile(request, response, encoder, tile, layer, stations,
+                                    AirQualityStation::getLatitude, AirQualityStation::getLongitude,
+                                    (station, feature) -> feature
+                                            .attribute("name", station.getName())
+                                            .attribute("city", station.getCity())
+                                            .attribute("country", station.getCountry())
+                                            .attribute("europeanAqi", station.getEuropeanAqi())
+                                            .attribute("pm25", station.getPm25())
+                                            .attribute("pm10", station.getPm10())
+                                            .attribute("no2", station.getNo2())
+                                            .attribute("o3", station.getO3())));
+                    break;
+                case "earthquakes":
+                    // filtered results share the store's version, so the filters are part of the tile key
+                    EarthquakeQuery query = EarthquakeQuery.fromParameters(request.getParameterMap(),
+                            EarthquakeQuery.ALL);
+                    writeTile(request, response, encoder, tile + "?" + query.key(), layer,
+                            earthquakeStore.query(query),
+                            Earthquake::getLatitude, Earthquake::getLongitude, (earthquake, feature) -> feature
+                                    .attribute("eventId", earthquake.getEventId())
+                                    .attribute("date", earthquake.getDate())
+                                    .attribute("location", earthquake.getLocation())
+                                    .attribute("magnitude", earthquake.getMagnitude())
+                                    .attribute("depth", earthquake.getDepth()));
+                    break;
+                default:
+                    ApiResponse.writeError(response, 404, "Unknown layer: " + layer);
+            }
+        } catch (IllegalArgumentException e) {
+            ApiResponse.writeError(response, 400, e.getMessage());
+        } catch (UpstreamUnavailableException e) {
+            ApiResponse.writeUnavailable(response, e.getMessage());
+        } catch (Exception e) {
+            System.err.println("[Tiles] Error encoding " + layer + "/" + tile + ": " + e.getMessage());
+            e.printStackTrace();
+            ApiResponse.writeError(response, 500, "Failed to encode tile");
+        }
+    }
+
+    private static <T> void writeTile(HttpServletRequest request, HttpServletResponse response,
+            VectorTileEncoder encoder, String tile, String layer, Snapshot<List<T>> snapshot,
+            ToDoubleFunction<T> latitude, ToDoubleFunction<T> longitude,
+            BiConsumer<T, VectorTileEncoder.Feature> attributes) throws IOException {
+        String key = layer + ":" + snapshot.getVersion() + ":" + tile;
+
+        byte[] body = TILES.getFresh(key);
+        if (body == null) {
+            body = FLIGHTS.join(key, () -> {
+                byte[] cached = TILES.getFresh(key);
+                if (cached != null) {
+                    return cached;
+                }
+                byte[] encoded = encode(encoder, layer, snapshot, latitude, longitude, attributes);
+                TILES.put(key, encoded, TILE_TTL);
+                return encoded;
+            });
+        }
+
+        ApiResponse.writeBytes(request, response, CONTENT_TYPE, body, snapshot.getVersion());
+    }
+
+    private static <T> byte[] encode(VectorTileEncoder encoder, String layer, Snapshot<List<T>> snapshot,
+            ToDoubleFunction<T> latitude, ToDoubleFunction<T> longitude,
+            BiConsumer<T, VectorTileEncoder.Feature> attributes) {
+        GridIndex<T> index = snapshot.derive("grid", items -> new GridIndex<>(items, latitude, longitude));
+        double[] bounds = encoder.bounds();
+
+        VectorTileEncoder.Layer points = encoder.layer(layer);
+        for (T item : index.withinBoundingBox(bounds[0], bounds[1], bounds[2], bounds[3])) {
+            VectorTileEncoder.Feature feature = points.addPoint(latitude.applyAsDouble(item),
+                    longitude.applyAsDouble(item));
+            if (feature != null) {
+                attributes.accept(item, feature);
+            }
+        }
+        return encoder.encode();
+    }
+}
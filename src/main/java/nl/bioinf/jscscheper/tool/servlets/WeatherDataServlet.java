@@ -1,28 +1,59 @@
 package nl.bioinf.jscscheper.tool.servlets;
 
-import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
+import nl.bioinf.jscscheper.tool.cache.Snapshot;
 import nl.bioinf.jscscheper.tool.config.ApiResponse;
+import nl.bioinf.jscscheper.tool.config.AsyncResponses;
+import nl.bioinf.jscscheper.tool.config.ColumnarFormat;
 import nl.bioinf.jscscheper.tool.model.Station;
+import nl.bioinf.jscscheper.tool.service.StationCatalogue;
 import nl.bioinf.jscscheper.tool.service.WeatherDataFetcher;
 
-import javax.servlet.ServletContext;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.io.*;
+import java.io.IOException;
 import java.util.Collections;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 
-@WebServlet(name = "WeatherDataServlet", urlPatterns = { "/stationdownload", "/weatherdata" })
+@WebServlet(name = "WeatherDataServlet", urlPatterns = { "/stationdownload", "/weatherdata" },
+        asyncSupported = true)
 public class WeatherDataServlet extends HttpServlet {
 
-    private static final Gson GSON = new Gson();
-    private static final String STATIONS_FILE = "/WEB-INF/stations.json";
-    private static final WeatherDataFetcher weatherFetcher = new WeatherDataFetcher();
+    private static final String FAILURE = "Failed to load station data";
+
+    static final ColumnarFormat.Schema<Station> COLUMNS = new ColumnarFormat.Schema<Station>()
+            .string("id", Station::getId)
+            .string("name", Station::getName)
+            .float32("latitude", Station::getLatitude)
+            .float32("longitude", Station::getLongitude)
+            .float32("elevation", Station::getElevation)
+            .string("elevationUnit", Station::getElevationUnit)
+            .string("mindate", Station::getMindate)
+            .string("maxdate", Station::getMaxdate)
+            .float32("datacoverage", Station::getDatacoverage)
+            .float32("temperature", Station::getTemperature)
+            .float32("apparentTemperature", Station::getApparentTemperature)
+            .float32("humidity", Station::getHumidity)
+            .float32("windSpeed", Station::getWindSpeed)
+            .float32("windDirection", Station::getWindDirection)
+            .float32("uvIndex", Station::getUvIndex)
+            .int32("weatherCode", Station::getWeatherCode)
+            .bool("isDay", Station::isDay);
+
+    private StationCatalogue catalogue;
+    private WeatherDataFetcher weatherFetcher;
+    private AsyncResponses async;
+
+    @Override
+    public void init() {
+        catalogue = (StationCatalogue) getServletContext().getAttribute(StationCatalogue.class.getName());
+        weatherFetcher = (WeatherDataFetcher) getServletContext().getAttribute(WeatherDataFetcher.class.getName());
+        async = (AsyncResponses) getServletContext().getAttribute(AsyncResponses.class.getName());
+    }
 
     @Override
     protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
@@ -31,40 +62,87 @@ public class WeatherDataServlet extends HttpServlet {
         String nstationsParam = request.getParameter("nstations");
 
         try {
+            SpatialQuery spatial = SpatialQuery.fromRequest(request);
+            ClusterQuery clusters = ClusterQuery.fromRequest(request, spatial);
+
             if (countryParam != null && !countryParam.isEmpty() && !countryParam.equals("all")) {
-                List<Station> countryStations = weatherFetcher.getStationsByCountry(countryParam.toUpperCase());
-                ApiResponse.writeJson(response, countryStations);
+                async.respond(request, response, weatherFetcher.getCountrySnapshot(countryParam.toUpperCase()),
+                        FAILURE, countryStations -> {
+                            if (clusters != null) {
+                                writeTemperatureClusters(request, response, clusters, countryStations);
+                            } else if (spatial == null) {
+                                ApiResponse.write(request, response, countryStations, COLUMNS);
+                            } else {
+                                List<Station> visible = spatial.apply(countryStations,
+                                        Station::getLatitude, Station::getLongitude);
+                                ApiResponse.write(request, response, visible, countryStations.getVersion(), COLUMNS);
+                            }
+                        });
+                return;
+            }
+
+            if (clusters != null && path.equals("/stationdownload")) {
+                Snapshot<List<Station>> catalogueSnapshot = catalogue.getSnapshot();
+                ApiResponse.writeJson(request, response, clusters.apply(catalogueSnapshot,
+                        Station::getLatitude, Station::getLongitude, "elevation", Station::getElevation),
+                        catalogueSnapshot.getVersion());
                 return;
             }
 
             int defaultCount = path.equals("/weatherdata") ? 100 : 1000;
             int nstations = (nstationsParam != null) ? Integer.parseInt(nstationsParam) : defaultCount;
 
-            List<Station> stations = loadStations();
+            if (spatial != null) {
+                Snapshot<List<Station>> catalogueSnapshot = catalogue.getSnapshot();
+                List<Station> visible = spatial.limit(
+                        spatial.apply(catalogueSnapshot, Station::getLatitude, Station::getLongitude), nstations);
+
+                if (path.equals("/weatherdata")) {
+                    String key = catalogueSnapshot.getVersion() + ":" + spatial.key() + ":" + nstations;
+                    writeEnriched(request, response, clusters, weatherFetcher.enrichSnapshot(key, visible));
+                } else {
+                    ApiResponse.write(request, response, visible, catalogueSnapshot.getVersion(), COLUMNS);
+                }
+                return;
+            }
+
+            List<Station> stations = catalogue.getStations();
             List<Station> randomStations = pickRandom(stations, Math.min(nstations, stations.size()));
 
             if (path.equals("/weatherdata")) {
-                randomStations = weatherFetcher.enrichWithWeatherData(randomStations);
+                writeEnriched(request, response, clusters, weatherFetcher.enrichSnapshot(randomStations));
+                return;
             }
 
-            ApiResponse.writeJson(response, randomStations);
+            ApiResponse.write(request, response, randomStations, COLUMNS);
+        } catch (IllegalArgumentException e) {
+            ApiResponse.writeError(response, 400, e.getMessage());
         } catch (Exception e) {
             System.err.println("[Weather] Error loading stations: " + e.getMessage());
             e.printStackTrace();
-            ApiResponse.writeError(response, 500, "Failed to load station data");
+            ApiResponse.writeError(response, 500, FAILURE);
         }
     }
 
-    private List<Station> loadStations() throws IOException {
-        ServletContext context = getServletContext();
-        try (InputStream is = context.getResourceAsStream(STATIONS_FILE);
-                BufferedReader reader = new BufferedReader(new InputStreamReader(is))) {
-            return GSON.fromJson(reader, new TypeToken<List<Station>>() {
-            }.getType());
-        }
+    private void writeEnriched(HttpServletRequest request, HttpServletResponse response, ClusterQuery clusters,
+            CompletableFuture<Snapshot<List<Station>>> enriched) throws IOException {
+        async.respond(request, response, enriched, FAILURE, stations -> {
+            if (clusters != null) {
+                writeTemperatureClusters(request, response, clusters, stations);
+            } else {
+                ApiResponse.write(request, response, stations, COLUMNS);
+            }
+        });
+    }
+
+    private static void writeTemperatureClusters(HttpServletRequest request, HttpServletResponse response,
+            ClusterQuery clusters, Snapshot<List<Station>> stations) throws IOException {
+        ApiResponse.writeJson(request, response, clusters.apply(stations,
+                Station::getLatitude, Station::getLongitude, "temperature", Station::getTemperature),
+                stations.getVersion());
     }
 
-    private static <E> List<E> pickRandom(List<E> list, int n) {
+    static <E> List<E> pickRandom(List<E> list, int n) {
         if (list.isEmpty() || n <= 0)
             return Collections.emptyList();
         return new Random()
@@ -0,0 +1,111 @@
+package nl.bioinf.jscscheper.tool.util;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Runs asynchronous tasks with at most {@code maxInFlight} of them outstanding at any time.
+ * Tasks beyond the limit are queued and started as earlier ones complete; callers are never blocked.
+ * Cancelling the returned future drops a queued task, or cancels the future of a running one.
+ */
+public class AsyncLimiter {
+
+    private final int maxInFlight;
+    private final Queue<BooleanSupplier> pending = new ArrayDeque<>();
+    private int inFlight = 0;
+    // slots released but not yet handed on, and whether a thread is handing them on
+    private int freed = 0;
+    private boolean draining = false;
+
+    public AsyncLimiter(int maxInFlight) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight must be at least 1, got " + maxInFlight);
+        }
+        this.maxInFlight = maxInFlight;
+    }
+
+    public <T> CompletableFuture<T> submit(Supplier<CompletableFuture<T>> task) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        // false when the task was cancelled before it could start
+        BooleanSupplier start = () -> {
+            if (result.isDone()) {
+                return false;
+            }
+            CompletableFuture<T> started;
+            try {
+                started = task.get();
+            } catch (RuntimeException e) {
+                started = CompletableFuture.failedFuture(e);
+            }
+            started.whenComplete((value, error) -> {
+                release();
+                if (error != null) {
+                    result.completeExceptionally(error);
+                } else {
+                    result.complete(value);
+                }
+            });
+            Futures.cancelling(result, started);
+            return true;
+        };
+
+        boolean runNow;
+        synchronized (this) {
+            runNow = inFlight < maxInFlight;
+            if (runNow) {
+                inFlight++;
+            } else {
+                pending.add(start);
+            }
+        }
+        if (runNow) {
+            start.getAsBoolean();
+        }
+        return result;
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * Hands a freed slot to the next queued task. A task that completes while it is being started
+     * frees its slot again right away; that release is left to the thread already draining the
+     * queue instead of recursing, so a run of tasks that fail synchronously uses no extra stack.
+     */
+    private void release() {
+        synchronized (this) {
+            freed++;
+            if (draining) {
+                return;
+            }
+            draining = true;
+        }
+        while (true) {
+            BooleanSupplier next;
+            synchronized (this) {
+                next = freed > 0 ? pending.poll() : null;
+                if (next == null) {
+                    inFlight -= freed;
+                    freed = 0;
+                    draining = false;
+                    return;
+                }
+                freed--;
+            }
+            if (!next.getAsBoolean()) {
+                // cancelled while queued: the slot is still free
+                synchronized (this) {
+                    freed++;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package nl.bioinf.jscscheper.tool.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Point clusters for every map zoom level from 0 to {@link #MAX_ZOOM}.
+ * <p>
+ * Points are projected to Web Mercator and bucketed into cells of a quarter tile (64 px on a 256 px
+ * tile). Points are sorted once by the Morton code of their finest cell; a cell at a coarser zoom is
+ * then a prefix of that code, so every level is a single pass merging adjacent runs. Levels are built
+ * the first time they are requested and kept for the lifetime of the index.
+ */
+public class ClusterIndex<T> {
+
+    public static final int MAX_ZOOM = 16;
+    private static final int CELL_BITS = 2;
+    private static final int FINEST_BITS = MAX_ZOOM + CELL_BITS;
+    private static final int INDEX_BITS = 64 - 1 - 2 * FINEST_BITS;
+
+    private final List<T> items;
+    private final double[] lats;
+    private final double[] lons;
+    private final double[] xs;
+    private final double[] ys;
+    private final double[] values;
+    private final long[] sorted;
+    private final AtomicReferenceArray<List<Cluster<T>>> levels = new AtomicReferenceArray<>(MAX_ZOOM + 1);
+
+    /**
+     * @param metric value summarised per cluster (min, max, average); NaN means the point has none
+     */
+    public ClusterIndex(List<T> items, ToDoubleFunction<T> latitude, ToDoubleFunction<T> longitude,
+            ToDoubleFunction<T> metric) {
+        this.items = List.copyOf(items);
+        int n = this.items.size();
+        if (n >= 1 << INDEX_BITS) {
+            throw new IllegalArgumentException("Too many points to cluster: " + n);
+        }
+
+        this.lats = new double[n];
+        this.lons = new double[n];
+        this.xs = new double[n];
+        this.ys = new double[n];
+        this.values = new double[n];
+        this.sorted = new long[n];
+        int cells = 1 << FINEST_BITS;
+
+        for (int i = 0; i < n; i++) {
+            T item = this.items.get(i);
+            lats[i] = latitude.applyAsDouble(item);
+            lons[i] = longitude.applyAsDouble(item);
+            xs[i] = WebMercator.x(lons[i]);
+            ys[i] = WebMercator.y(lats[i]);
+            values[i] = metric.applyAsDouble(item);
+            long cx = Math.min(cells - 1, (long) (xs[i] * cells));
+            long cy = Math.min(cells - 1, (long) (ys[i] * cells));
+            sorted[i] = (interleave(cx) | interleave(cy) << 1) << INDEX_BITS | i;
+        }
+        Arrays.sort(sorted);
+    }
+
+    /**
+     * All clusters at {@code zoom}; zoom levels beyond {@link #MAX_ZOOM} get the finest clusters.
+     */
+    public List<Cluster<T>> clusters(int zoom) {
+        int level = Math.max(0, Math.min(MAX_ZOOM, zoom));
+        List<Cluster<T>> clusters = levels.get(level);
+        if (clusters == null) {
+            clusters = build(level);
+            if (!levels.compareAndSet(level, null, clusters)) {
+                clusters = levels.get(level);
+            }
+        }
+        return clusters;
+    }
+
+    /**
+     * Clusters at {@code zoom} whose centre lies inside the box. A {@code minLon} greater than
+     * {@code maxLon} is treated as a box that crosses the antimeridian.
+     */
+    public List<Cluster<T>> clusters(int zoom, double minLon, double minLat, double maxLon, double maxLat) {
+        List<Cluster<T>> result = new ArrayList<>();
+        boolean wraps = minLon > maxLon;
+        for (Cluster<T> cluster : clusters(zoom)) {
+            double lon = cluster.longitude;
+            boolean inLon = wraps ? lon >= minLon || lon <= maxLon : lon >= minLon && lon <= maxLon;
+            if (inLon && cluster.latitude >= minLat && cluster.latitude <= maxLat) {
+                result.add(cluster);
+            }
+        }
+        return result;
+    }
+
+    public int size() {
+        return items.size();
+    }
+
+    private List<Cluster<T>> build(int zoom) {
+        int shift = INDEX_BITS + 2 * (MAX_ZOOM - zoom);
+        List<Cluster<T>> clusters = new ArrayList<>();
+
+        int start = 0;
+        while (start < sorted.length) {
+            long cell = sorted[start] >>> shift;
+            int end = start + 1;
+            while (end < sorted.length && sorted[end] >>> shift == cell) {
+                end++;
+            }
+            clusters.add(aggregate(start, end));
+            start = end;
+        }
+        return Collections.unmodifiableList(clusters);
+    }
+
+    private Cluster<T> aggregate(int start, int end) {
+        int count = end - start;
+        int valueCount = 0;
+        double sumX = 0, sumY = 0, sum = 0;
+        double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+
+        for (int p = start; p < end; p++) {
+            int i = (int) (sorted[p] & ((1L << INDEX_BITS) - 1));
+            sumX += xs[i];
+            sumY += ys[i];
+            if (!Double.isNaN(values[i])) {
+                valueCount++;
+                sum += values[i];
+                min = Math.min(min, values[i]);
+                max = Math.max(max, values[i]);
+            }
+        }
+
+        Double minValue = valueCount > 0 ? min : null;
+        Double maxValue = valueCount > 0 ? max : null;
+        Double avgValue = valueCount > 0 ? sum / valueCount : null;
+        if (count == 1) {
+            int i = (int) (sorted[start] & ((1L << INDEX_BITS) - 1));
+            return new Cluster<>(lats[i], lons[i], 1, minValue, maxValue, avgValue, items.get(i));
+        }
+        return new Cluster<>(WebMercator.latitude(sumY / count), WebMercator.longitude(sumX / count), count,
+                minValue, maxValue, avgValue, null);
+    }
+
+    /**
+     * One cluster as sent to the map. A cluster of a single point carries the point itself as
+     * {@code item}; min, max and avg are left out when none of the points has a metric value.
+     */
+    public static class Cluster<T> {
+        private final double latitude;
+        private final double longitude;
+        private final int count;
+        private final Double min;
+        private final Double max;
+        private final Double avg;
+        private final T item;
+
+        Cluster(double latitude, double longitude, int count, Double min, Double max, Double avg, T item) {
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.count = count;
+            this.min = min;
+            this.max = max;
+            this.avg = avg;
+            this.item = item;
+        }
+
+        public double getLatitude() {
+            return latitude;
+        }
+
+        public double getLongitude() {
+            return longitude;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public Double getMin() {
+            return min;
+        }
+
+        public Double getMax() {
+            return max;
+        }
+
+        public Double getAvg() {
+            return avg;
+        }
+
+        public T getItem() {
+            return item;
+        }
+    }
+
+    /**
+     * Spreads the low 32 bits of {@code v} over the even bit positions.
+     */
+    private static long interleave(long v) {
+        v &= 0xFFFFFFFFL;
+        v = (v | v << 16) & 0x0000FFFF0000FFFFL;
+        v = (v | v << 8) & 0x00FF00FF00FF00FFL;
+        v = (v | v << 4) & 0x0F0F0F0F0F0F0F0FL;
+        v = (v | v << 2) & 0x3333333333333333L;
+        v = (v | v << 1) & 0x5555555555555555L;
+        return v;
+    }
+}
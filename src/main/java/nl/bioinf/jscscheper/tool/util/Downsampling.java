@@ -0,0 +1,79 @@
+package nl.bioinf.jscscheper.tool.util;
+
+import java.util.Arrays;
+
+/**
+ * Downsampling for charts.
+ */
+public final class Downsampling {
+
+    private Downsampling() {
+    }
+
+    /**
+     * Largest-Triangle-Three-Buckets: picks at most {@code threshold} of the samples in
+     * {@code [from, to)} that keep the visual shape of the line, always including the first and last.
+     * Samples whose value is NaN are skipped. Returns the chosen indices in ascending order.
+     */
+    public static int[] lttb(long[] times, float[] values, int from, int to, int threshold) {
+        int[] candidates = new int[Math.max(0, to - from)];
+        int count = 0;
+        for (int i = from; i < to; i++) {
+            if (!Float.isNaN(values[i])) {
+                candidates[count++] = i;
+            }
+        }
+        if (threshold >= count || threshold < 3) {
+            return threshold >= count ? Arrays.copyOf(candidates, count) : evenly(candidates, count, threshold);
+        }
+
+        int[] sampled = new int[threshold];
+        int n = 0;
+        sampled[n++] = candidates[0];
+
+        double bucketSize = (double) (count - 2) / (threshold - 2);
+        int a = 0;
+        for (int bucket = 0; bucket < threshold - 2; bucket++) {
+            int start = (int) Math.floor(bucket * bucketSize) + 1;
+            int end = (int) Math.floor((bucket + 1) * bucketSize) + 1;
+
+            // average of the next bucket is the third corner of the triangle
+            int nextStart = end;
+            int nextEnd = Math.min((int) Math.floor((bucket + 2) * bucketSize) + 1, count);
+            double avgX = 0, avgY = 0;
+            for (int k = nextStart; k < nextEnd; k++) {
+                avgX += times[candidates[k]];
+                avgY += values[candidates[k]];
+            }
+            int nextCount = Math.max(1, nextEnd - nextStart);
+            avgX /= nextCount;
+            avgY /= nextCount;
+
+            double ax = times[candidates[a]];
+            double ay = values[candidates[a]];
+            double maxArea = -1;
+            int chosen = start;
+            for (int k = start; k < end; k++) {
+                double area = Math.abs((ax - avgX) * (values[candidates[k]] - ay)
+                        - (ax - times[candidates[k]]) * (avgY - ay));
+                if (area > maxArea) {
+                    maxArea = area;
+                    chosen = k;
+                }
+            }
+            sampled[n++] = candidates[chosen];
+            a = chosen;
+        }
+
+        sampled[n++] = candidates[count - 1];
+        return Arrays.copyOf(sampled, n);
+    }
+
+    private static int[] evenly(int[] candidates, int count, int threshold) {
+        int[] sampled = new int[Math.max(0, threshold)];
+        for (int i = 0; i < sampled.length; i++) {
+            sampled[i] = candidates[(int) ((long) i * (count - 1) / Math.max(1, sampled.length - 1))];
+        }
+        return sampled;
+    }
+}
@@ -0,0 +1,78 @@
+package nl.bioinf.jscscheper.tool.util;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Helpers for the {@link CompletableFuture} chains between servlets and upstreams. Cancelling a
+ * future does not cancel the futures it was derived from, so each stage that owns work
+ * (an upstream request, a queued task) is linked with {@link #cancelling} to the future its caller
+ * holds; cancelling that future then stops the work underneath.
+ */
+public final class Futures {
+
+    private Futures() {
+    }
+
+    /**
+     * Returns {@code future}, after arranging that cancelling it also cancels {@code sources}.
+     */
+    public static <T> CompletableFuture<T> cancelling(CompletableFuture<T> future, CompletableFuture<?>... sources) {
+        return cancelling(future, List.of(sources));
+    }
+
+    public static <T> CompletableFuture<T> cancelling(CompletableFuture<T> future,
+            Collection<? extends CompletableFuture<?>> sources) {
+        future.whenComplete((value, error) -> {
+            if (future.isCancelled()) {
+                for (CompletableFuture<?> source : sources) {
+                    source.cancel(true);
+                }
+            }
+        });
+        return future;
+    }
+
+    /**
+     * The error a stage actually failed with, without the {@link CompletionException} or
+     * {@link ExecutionException} that wraps it on the way through a chain.
+     */
+    public static Throwable unwrap(Throwable error) {
+        while ((error instanceof CompletionException || error instanceof ExecutionException)
+                && error.getCause() != null) {
+            error = error.getCause();
+        }
+        return error;
+    }
+
+    public static boolean isCancellation(Throwable error) {
+        return unwrap(error) instanceof CancellationException;
+    }
+
+    /**
+     * Waits for {@code future} on the calling thread. IOExceptions and runtime exceptions are
+     * rethrown as they are, anything else wrapped in an IOException; an interrupt cancels the future.
+     */
+    public static <T> T await(CompletableFuture<T> future) throws IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            throw e;
+        } catch (ExecutionException | CancellationException e) {
+            Throwable cause = unwrap(e);
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+}
@@ -0,0 +1,245 @@
+package nl.bioinf.jscscheper.tool.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Immutable uniform-grid spatial index over points in latitude/longitude.
+ * <p>
+ * Cells are sized from the data's bounding box so each holds a handful of points on average. Point
+ * indices are stored cell by cell in one flat array ({@code cellStart} marks where each cell begins),
+ * so a query only touches the cells that overlap it.
+ */
+public class GridIndex<T> {
+
+    public static final double EARTH_RADIUS_KM = 6371.0088;
+    private static final double KM_PER_DEGREE = Math.PI * EARTH_RADIUS_KM / 180.0;
+    private static final int TARGET_PER_CELL = 4;
+    private static final int MAX_CELLS = 1 << 20;
+
+    private final List<T> items;
+    private final double[] lats;
+    private final double[] lons;
+
+    private final double minLat;
+    private final double minLon;
+    private final double cellSize;
+    private final int cols;
+    private final int rows;
+    private final int[] cellStart;
+    private final int[] pointsByCell;
+
+    public GridIndex(List<T> items, ToDoubleFunction<T> latitude, ToDoubleFunction<T> longitude) {
+        this.items = List.copyOf(items);
+        int n = this.items.size();
+        this.lats = new double[n];
+        this.lons = new double[n];
+
+        double loLat = 90, hiLat = -90, loLon = 180, hiLon = -180;
+        for (int i = 0; i < n; i++) {
+            T item = this.items.get(i);
+            lats[i] = clamp(latitude.applyAsDouble(item), -90, 90);
+            lons[i] = clamp(longitude.applyAsDouble(item), -180, 180);
+            loLat = Math.min(loLat, lats[i]);
+            hiLat = Math.max(hiLat, lats[i]);
+            loLon = Math.min(loLon, lons[i]);
+            hiLon = Math.max(hiLon, lons[i]);
+        }
+        if (n == 0) {
+            loLat = hiLat = loLon = hiLon = 0;
+        }
+
+        double width = Math.max(hiLon - loLon, 1e-6);
+        double height = Math.max(hiLat - loLat, 1e-6);
+        int targetCells = Math.max(1, Math.min(MAX_CELLS, n / TARGET_PER_CELL));
+        double size = Math.sqrt(width * height / targetCells);
+        size = Math.max(size, Math.max(width, height) / 4096);
+
+        this.minLat = loLat;
+        this.minLon = loLon;
+        this.cellSize = size;
+        this.cols = (int) (width / size) + 1;
+        this.rows = (int) (height / size) + 1;
+
+        int[] counts = new int[cols * rows + 1];
+        int[] cellOf = new int[n];
+        for (int i = 0; i < n; i++) {
+            cellOf[i] = col(lons[i]) + row(lats[i]) * cols;
+            counts[cellOf[i] + 1]++;
+        }
+        for (int c = 1; c < counts.length; c++) {
+            counts[c] += counts[c - 1];
+        }
+        this.cellStart = counts;
+        this.pointsByCell = new int[n];
+        int[] fill = Arrays.copyOf(counts, counts.length - 1);
+        for (int i = 0; i < n; i++) {
+            pointsByCell[fill[cellOf[i]]++] = i;
+        }
+    }
+
+    public int size() {
+        return items.size();
+    }
+
+    public List<T> getItems() {
+        return items;
+    }
+
+    public double getLatitude(int index) {
+        return lats[index];
+    }
+
+    public double getLongitude(int index) {
+        return lons[index];
+    }
+
+    /**
+     * Items inside the box. A {@code minLon} greater than {@code maxLon} is treated as a box that
+     * crosses the antimeridian.
+     */
+    public List<T> withinBoundingBox(double minLon, double minLat, double maxLon, double maxLat) {
+        List<T> result = new ArrayList<>();
+        for (int index : indicesWithin(minLon, minLat, maxLon, maxLat)) {
+            result.add(items.get(index));
+        }
+        return result;
+    }
+
+    /**
+     * Items within {@code radiusKm} great-circle distance, nearest first.
+     */
+    public List<T> withinRadius(double lat, double lon, double radiusKm) {
+        return itemsOf(indicesWithinRadius(lat, lon, radiusKm));
+    }
+
+    /**
+     * The {@code k} items closest to the given point, nearest first.
+     */
+    public List<T> nearest(double lat, double lon, int k) {
+        if (k <= 0 || items.isEmpty()) {
+            return Collections.emptyList();
+        }
+        double radius = Math.max(cellSize * KM_PER_DEGREE, 1);
+        while (true) {
+            int[] found = indicesWithinRadius(lat, lon, radius);
+            if (found.length >= k || radius >= Math.PI * EARTH_RADIUS_KM) {
+                return itemsOf(Arrays.copyOf(found, Math.min(k, found.length)));
+            }
+            radius *= 2;
+        }
+    }
+
+    public static double distanceKm(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLon = Math.toRadians(lon2 - lon1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2) +
+                Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) *
+                        Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    private int[] indicesWithin(double minLon, double minLat, double maxLon, double maxLat) {
+        if (minLon > maxLon) {
+            int[] east = indicesWithin(minLon, minLat, 180, maxLat);
+            int[] west = indicesWithin(-180, minLat, maxLon, maxLat);
+            int[] both = Arrays.copyOf(east, east.length + west.length);
+            System.arraycopy(west, 0, both, east.length, west.length);
+            return both;
+        }
+
+        int[] found = new int[16];
+        int count = 0;
+        if (items.isEmpty() || maxLat < minLat || minLat > maxIndexedLat() || maxLat < this.minLat
+                || minLon > maxIndexedLon() || maxLon < this.minLon) {
+            return new int[0];
+        }
+
+        int c0 = col(minLon), c1 = col(maxLon);
+        int r0 = row(minLat), r1 = row(maxLat);
+        for (int r = r0; r <= r1; r++) {
+            for (int c = c0; c <= c1; c++) {
+                int cell = c + r * cols;
+                for (int p = cellStart[cell]; p < cellStart[cell + 1]; p++) {
+                    int i = pointsByCell[p];
+                    if (lats[i] >= minLat && lats[i] <= maxLat && lons[i] >= minLon && lons[i] <= maxLon) {
+                        if (count == found.length) {
+                            found = Arrays.copyOf(found, count * 2);
+                        }
+                        found[count++] = i;
+                    }
+                }
+            }
+        }
+        return Arrays.copyOf(found, count);
+    }
+
+    private int[] indicesWithinRadius(double lat, double lon, double radiusKm) {
+        double dLat = radiusKm / KM_PER_DEGREE;
+        double cos = Math.cos(Math.toRadians(Math.min(89.9, Math.abs(lat) + dLat)));
+        double dLon = radiusKm / (KM_PER_DEGREE * Math.max(cos, 1e-6));
+
+        int[] candidates;
+        if (dLon >= 180 || lat + dLat >= 90 || lat - dLat <= -90) {
+            candidates = indicesWithin(-180, Math.max(-90, lat - dLat), 180, Math.min(90, lat + dLat));
+        } else {
+            double west = lon - dLon, east = lon + dLon;
+            candidates = indicesWithin(west < -180 ? west + 360 : west, lat - dLat,
+                    east > 180 ? east - 360 : east, lat + dLat);
+        }
+
+        int count = 0;
+        double[] distances = new double[candidates.length];
+        for (int index : candidates) {
+            double distance = distanceKm(lat, lon, lats[index], lons[index]);
+            if (distance <= radiusKm) {
+                distances[count] = distance;
+                candidates[count++] = index;
+            }
+        }
+
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        double[] d = distances;
+        Arrays.sort(order, (a, b) -> Double.compare(d[a], d[b]));
+
+        int[] sorted = new int[count];
+        for (int i = 0; i < count; i++) {
+            sorted[i] = candidates[order[i]];
+        }
+        return sorted;
+    }
+
+    private List<T> itemsOf(int[] indices) {
+        List<T> result = new ArrayList<>(indices.length);
+        for (int index : indices) {
+            result.add(items.get(index));
+        }
+        return result;
+    }
+
+    private double maxIndexedLat() {
+        return minLat + rows * cellSize;
+    }
+
+    private double maxIndexedLon() {
+        return minLon + cols * cellSize;
+    }
+
+    private int col(double lon) {
+        return (int) clamp(Math.floor((lon - minLon) / cellSize), 0, cols - 1);
+    }
+
+    private int row(double lat) {
+        return (int) clamp(Math.floor((lat - minLat) / cellSize), 0, rows - 1);
+    }
+
+    private static double clamp(double value, double min, double max) {
+        return Math.max(min, Math.min(max, value));
+    }
+}
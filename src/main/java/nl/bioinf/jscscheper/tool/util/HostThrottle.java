@@ -0,0 +1,226 @@
+package nl.bioinf.jscscheper.tool.util;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Paces the requests to one upstream host. Two limits apply to every request:
+ * <ul>
+ * <li>a token bucket caps the request rate at {@code ratePerSecond} with bursts of {@code burst}</li>
+ * <li>an AIMD limit caps the requests in flight. It grows by one per round of successful requests and
+ * halves when the host answers 429 or 503, times out, or responds twice as slowly as its long-term
+ * average</li>
+ * </ul>
+ * A {@code Retry-After} from the host holds back every request until that time has passed. Waiting
+ * requests are queued, never blocking a thread; a request that would have to wait for a
+ * {@code Retry-After} longer than it is willing to fails right away instead.
+ */
+public class HostThrottle {
+
+    public enum Outcome {
+        SUCCESS, OVERLOAD, ERROR
+    }
+
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "host-throttle");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final double MIN_LIMIT = 1;
+    private static final double DECREASE_FACTOR = 0.5;
+    private static final double SLOW_FACTOR = 2.0;
+    private static final double SHORT_WEIGHT = 0.2;
+    private static final double LONG_WEIGHT = 0.02;
+    private static final long DECREASE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final String host;
+    private final double ratePerSecond;
+    private final int burst;
+    private final double maxLimit;
+
+    private final Queue<CompletableFuture<Void>> waiting = new ArrayDeque<>();
+    private double tokens;
+    private long refilledAt = System.nanoTime();
+    private double limit;
+    private int inFlight = 0;
+    private long blockedUntil = 0;
+    private long lastDecrease = 0;
+    private double shortLatency = -1;
+    private double longLatency = -1;
+    private boolean wakeUpScheduled = false;
+
+    private long throttled = 0;
+    private long overloads = 0;
+
+    public HostThrottle(String host, double ratePerSecond, int burst, int initialLimit, int maxLimit) {
+        this.host = host;
+        this.ratePerSecond = ratePerSecond;
+        this.burst = burst;
+        this.tokens = burst;
+        this.limit = initialLimit;
+        this.maxLimit = maxLimit;
+    }
+
+    /**
+     * Completes once the request may be sent; the caller must then {@link #release} it exactly once.
+     * Fails with an {@link IOException} when the host asked to be left alone for longer than
+     * {@code maxWait}. Cancelling the returned future gives up the place in the queue.
+     */
+    public CompletableFuture<Void> acquire(Duration maxWait) {
+        CompletableFuture<Void> permit = new CompletableFuture<>();
+        synchronized (this) {
+            long blockedFor = blockedUntil - System.nanoTime();
+            if (blockedFor > maxWait.toNanos()) {
+                throttled++;
+                return CompletableFuture.failedFuture(new IOException(host + " asked to retry after "
+                        + TimeUnit.NANOSECONDS.toSeconds(blockedFor) + " s"));
+            }
+            waiting.add(permit);
+        }
+        dispatch();
+        return permit;
+    }
+
+    /**
+     * Reports how a request went. {@code retryAfter} is the host's {@code Retry-After}, or null.
+     */
+    public void release(Outcome outcome, long latencyNanos, Duration retryAfter) {
+        synchronized (this) {
+            inFlight--;
+            long now = System.nanoTime();
+
+            if (outcome == Outcome.SUCCESS) {
+                shortLatency = shortLatency < 0 ? latencyNanos
+                        : shortLatency + SHORT_WEIGHT * (latencyNanos - shortLatency);
+                longLatency = longLatency < 0 ? latencyNanos
+                        : longLatency + LONG_WEIGHT * (latencyNanos - longLatency);
+                if (shortLatency > SLOW_FACTOR * longLatency) {
+                    decrease(now);
+                } else {
+                    limit = Math.min(maxLimit, limit + 1 / limit);
+                }
+            } else if (outcome == Outcome.OVERLOAD) {
+                overloads++;
+                decrease(now);
+            }
+
+            if (retryAfter != null && !retryAfter.isNegative()) {
+                blockedUntil = Math.max(blockedUntil, now + retryAfter.toNanos());
+                System.err.println("[Http] " + host + " asked to retry after " + retryAfter.getSeconds() + " s");
+            }
+        }
+        dispatch();
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public synchronized double getLimit() {
+        return limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    public synchronized int getWaiting() {
+        return waiting.size();
+    }
+
+    public synchronized long getThrottled() {
+        return throttled;
+    }
+
+    public synchronized long getOverloads() {
+        return overloads;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "HostThrottle{" + host + ", limit=" + String.format("%.1f", limit) + ", inFlight=" + inFlight
+                + ", waiting=" + waiting.size() + ", overloads=" + overloads + '}';
+    }
+
+    private void decrease(long now) {
+        // a burst of failures from one congested moment counts as a single signal
+        if (now - lastDecrease < DECREASE_INTERVAL_NANOS) {
+            return;
+        }
+        lastDecrease = now;
+        limit = Math.max(MIN_LIMIT, limit * DECREASE_FACTOR);
+        System.err.println("[Http] " + host + " is congested, concurrency limit now "
+                + String.format("%.1f", limit));
+    }
+
+    /**
+     * Hands out permits while the limits allow it. Permits are completed outside the lock because
+     * completing one starts the request on this thread.
+     */
+    private void dispatch() {
+        List<CompletableFuture<Void>> granted = new ArrayList<>();
+        synchronized (this) {
+            long now = System.nanoTime();
+            tokens = Math.min(burst, tokens + (now - refilledAt) * ratePerSecond / 1e9);
+            refilledAt = now;
+
+            while (!waiting.isEmpty() && inFlight < (int) limit) {
+                if (waiting.peek().isDone()) {
+                    waiting.poll();
+                    continue;
+                }
+                long wait = now < blockedUntil ? blockedUntil - now
+                        : tokens < 1 ? (long) ((1 - tokens) * 1e9 / ratePerSecond) : 0;
+                if (wait > 0) {
+                    scheduleWakeUp(wait);
+                    break;
+                }
+                tokens--;
+                inFlight++;
+                granted.add(waiting.poll());
+            }
+        }
+
+        for (CompletableFuture<Void> permit : granted) {
+            if (!permit.complete(null)) {
+                // cancelled while being granted
+                release(Outcome.ERROR, 0, null);
+            }
+        }
+    }
+
+    /**
+     * Stops the timer thread shared by all throttles, so an undeployed application does not leave it
+     * behind. Requests still waiting for a token are not woken up any more.
+     */
+    public static void shutdown() {
+        TIMER.shutdownNow();
+    }
+
+    private void scheduleWakeUp(long delayNanos) {
+        if (wakeUpScheduled) {
+            return;
+        }
+        wakeUpScheduled = true;
+        try {
+            TIMER.schedule(() -> {
+                synchronized (this) {
+                    wakeUpScheduled = false;
+                }
+                dispatch();
+            }, delayNanos, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            // shutting down
+        }
+    }
+}
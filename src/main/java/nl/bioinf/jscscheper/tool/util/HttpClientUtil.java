@@ -3,16 +3,64 @@ package nl.bioinf.jscscheper.tool.util;
 import java.net.http.HttpClient;
 import java.time.Duration;
 
+/**
+ * The HTTP client and live transport shared by all fetchers. Requests are paced per host by a
+ * {@link HostThrottle}: a rate that stays within each provider's published or observed limits, and
+ * a concurrency limit that adapts to how the host responds.
+ */
 public class HttpClientUtil {
 
     private static final HttpClient CLIENT = HttpClient.newBuilder()
             .connectTimeout(Duration.ofSeconds(10))
             .build();
 
+    private static final ThrottledTransport TRANSPORT = throttled(new LiveTransport(CLIENT));
+
     private HttpClientUtil() {
     }
 
+    /**
+     * The unthrottled client; fetchers go through {@link #getTransport()} instead.
+     */
     public static HttpClient getClient() {
         return CLIENT;
     }
+
+    /**
+     * Throttled requests to the live upstreams.
+     */
+    public static UpstreamTransport getTransport() {
+        return TRANSPORT;
+    }
+
+    /**
+     * {@code transport} paced with the per-host limits below.
+     */
+    public static ThrottledTransport throttled(UpstreamTransport transport) {
+        return new ThrottledTransport(transport, HttpClientUtil::throttleFor);
+    }
+
+    /**
+     * Throttles are keyed by authority, so an upstream pointed at a local simulator keeps the limits
+     * of the service it stands in for.
+     */
+    private static HostThrottle throttleFor(String authority) {
+        Upstream upstream = Upstream.forAuthority(authority);
+        if (upstream == null) {
+            return new HostThrottle(authority, 10, 20, 8, 32);
+        }
+        switch (upstream) {
+            // Open-Meteo's free tier allows 600 calls a minute
+            case OPEN_METEO:
+            case OPEN_METEO_AIR_QUALITY:
+                return new HostThrottle(authority, 8, 16, 8, 32);
+            // eBird publishes no limit but blocks keys that hammer it
+            case EBIRD:
+                return new HostThrottle(authority, 4, 8, 4, 16);
+            case KNMI:
+                return new HostThrottle(authority, 2, 4, 2, 4);
+            default:
+                return new HostThrottle(authority, 10, 20, 8, 32);
+        }
+    }
 }
@@ -0,0 +1,26 @@
+package nl.bioinf.jscscheper.tool.util;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * Parses the time parameters accepted by the API: {@code 2024-01-31}, {@code 2024-01-31T12:00:00}
+ * and fractional seconds, optionally with a trailing {@code Z}. Times without a zone are UTC.
+ */
+public final class IsoTime {
+
+    private IsoTime() {
+    }
+
+    /**
+     * @throws java.time.format.DateTimeParseException when {@code value} is not an ISO date or date-time
+     */
+    public static long parseEpochMillis(String value) {
+        String text = value.endsWith("Z") ? value.substring(0, value.length() - 1) : value;
+        if (text.length() == 10) {
+            return LocalDate.parse(text).atStartOfDay().toInstant(ZoneOffset.UTC).toEpochMilli();
+        }
+        return LocalDateTime.parse(text).toInstant(ZoneOffset.UTC).toEpochMilli();
+    }
+}
@@ -0,0 +1,31 @@
+package nl.bioinf.jscscheper.tool.util;
+
+import java.io.IOException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Sends requests with an {@link HttpClient}. Cancelling a request aborts its exchange on Java 16 and
+ * later; on Java 11 the response is still read, but nobody waits for it.
+ */
+public class LiveTransport implements UpstreamTransport {
+
+    private final HttpClient client;
+
+    public LiveTransport(HttpClient client) {
+        this.client = client;
+    }
+
+    @Override
+    public <T> CompletableFuture<HttpResponse<T>> sendAsync(HttpRequest request, HttpResponse.BodyHandler<T> handler) {
+        return client.sendAsync(request, handler);
+    }
+
+    @Override
+    public <T> HttpResponse<T> send(HttpRequest request, HttpResponse.BodyHandler<T> handler)
+            throws IOException, InterruptedException {
+        return client.send(request, handler);
+    }
+}
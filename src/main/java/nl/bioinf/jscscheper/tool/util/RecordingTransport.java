@@ -0,0 +1,103 @@
+package nl.bioinf.jscscheper.tool.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Sends requests through another transport and saves each complete 2xx response to
+ * {@link Recordings}. The body is copied as it streams past, so the fetcher still reads it the way
+ * it asked to; a response that fails or is not read to the end is not saved. Errors and throttling
+ * answers (429, 5xx) are not saved either, so a bad moment upstream never replaces a good recording.
+ */
+public class RecordingTransport implements UpstreamTransport {
+
+    /**
+     * Passes everything to {@code target} and hands a copy of the body to {@code onComplete}.
+     */
+    private static final class TeeSubscriber<T> implements HttpResponse.BodySubscriber<T> {
+        private final HttpResponse.BodySubscriber<T> target;
+        private final Consumer<byte[]> onComplete;
+        private final ByteArrayOutputStream copy = new ByteArrayOutputStream();
+
+        TeeSubscriber(HttpResponse.BodySubscriber<T> target, Consumer<byte[]> onComplete) {
+            this.target = target;
+            this.onComplete = onComplete;
+        }
+
+        @Override
+        public CompletionStage<T> getBody() {
+            return target.getBody();
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            target.onSubscribe(subscription);
+        }
+
+        @Override
+        public void onNext(List<ByteBuffer> items) {
+            for (ByteBuffer item : items) {
+                ByteBuffer view = item.duplicate();
+                byte[] bytes = new byte[view.remaining()];
+                view.get(bytes);
+                copy.write(bytes, 0, bytes.length);
+            }
+            target.onNext(items);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            target.onError(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            onComplete.accept(copy.toByteArray());
+            target.onComplete();
+        }
+    }
+
+    private final UpstreamTransport delegate;
+    private final Recordings recordings;
+
+    public RecordingTransport(UpstreamTransport delegate, Recordings recordings) {
+        this.delegate = delegate;
+        this.recordings = recordings;
+    }
+
+    @Override
+    public <T> CompletableFuture<HttpResponse<T>> sendAsync(HttpRequest request, HttpResponse.BodyHandler<T> handler) {
+        return delegate.sendAsync(request, recording(request, handler, System.nanoTime()));
+    }
+
+    @Override
+    public <T> HttpResponse<T> send(HttpRequest request, HttpResponse.BodyHandler<T> handler)
+            throws IOException, InterruptedException {
+        return delegate.send(request, recording(request, handler, System.nanoTime()));
+    }
+
+    private <T> HttpResponse.BodyHandler<T> recording(HttpRequest request, HttpResponse.BodyHandler<T> handler,
+            long start) {
+        return info -> {
+            if (info.statusCode() / 100 != 2) {
+                System.out.println("[Recordings] Not saving " + info.statusCode() + " for " + Recordings.key(request));
+                return handler.apply(info);
+            }
+            return new TeeSubscriber<>(handler.apply(info), body -> {
+                long latencyMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                // onComplete runs on the HttpClient's threads, which should not wait for the disk
+                CompletableFuture.runAsync(() -> recordings.save(request, info.statusCode(), info.headers(),
+                        latencyMillis, body));
+            });
+        };
+    }
+}
@@ -0,0 +1,247 @@
+package nl.bioinf.jscscheper.tool.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Upstream responses saved by {@link RecordingTransport} and served by {@link ReplayTransport}: one
+ * file per request in a subdirectory per upstream, holding a few header lines, a blank line and
+ * the body exactly as received. A newer response to the same request replaces the older one;
+ * only successful responses are recorded, so that is always a good one.
+ * <p>
+ * Requests are matched on method, upstream and sorted query, so the same recordings replay whether
+ * the upstream was reached at its public URL or through a {@code geovis.upstream.*} override.
+ * Parameters that move with the clock only match by name, not by value.
+ */
+public class Recordings {
+
+    public static final class Recording {
+        private final int status;
+        private final Map<String, List<String>> headers;
+        private final long latencyMillis;
+        private final byte[] body;
+
+        Recording(int status, Map<String, List<String>> headers, long latencyMillis, byte[] body) {
+            this.status = status;
+            this.headers = headers;
+            this.latencyMillis = latencyMillis;
+            this.body = body;
+        }
+
+        public int getStatus() {
+            return status;
+        }
+
+        public Map<String, List<String>> getHeaders() {
+            return headers;
+        }
+
+        public long getLatencyMillis() {
+            return latencyMillis;
+        }
+
+        public byte[] getBody() {
+            return body;
+        }
+    }
+
+    private static final String MAGIC = "GEOVIS-RECORDING 1";
+
+    // KNMI's times follow the newest stored event and the previous sync, air quality's past_days the
+    // stored history
+    private static final Set<String> IGNORED_PARAMETERS = Set.of("starttime", "endtime", "updatedafter",
+            "past_days");
+    private static final Set<String> RECORDED_HEADERS = Set.of("content-type", "retry-after");
+
+    private final Path directory;
+
+    public Recordings(Path directory) {
+        this.directory = directory;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * The saved response to {@code request}, or null when there is none or it cannot be read.
+     */
+    public Recording load(HttpRequest request) {
+        String key = key(request);
+        Path file = file(request.uri(), key);
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(file);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            System.err.println("[Recordings] Could not read " + file + ": " + e);
+            return null;
+        }
+
+        int end = indexOf(bytes, "\n\n".getBytes(StandardCharsets.UTF_8));
+        if (end < 0) {
+            System.err.println("[Recordings] Ignoring malformed " + file);
+            return null;
+        }
+        String[] lines = new String(bytes, 0, end, StandardCharsets.UTF_8).split("\n");
+        if (!lines[0].equals(MAGIC)) {
+            System.err.println("[Recordings] Ignoring " + file + ": not a recording");
+            return null;
+        }
+
+        int status = -1;
+        long latency = 0;
+        String recordedKey = null;
+        Map<String, List<String>> headers = new LinkedHashMap<>();
+        for (int i = 1; i < lines.length; i++) {
+            int colon = lines[i].indexOf(": ");
+            if (colon < 0) {
+                continue;
+            }
+            String name = lines[i].substring(0, colon);
+            String value = lines[i].substring(colon + 2);
+            switch (name) {
+                case "key":
+                    recordedKey = value;
+                    break;
+                case "status":
+                    status = Integer.parseInt(value);
+                    break;
+                case "latency-ms":
+                    latency = Long.parseLong(value);
+                    break;
+                case "header":
+                    int separator = value.indexOf(": ");
+                    if (separator > 0) {
+                        headers.computeIfAbsent(value.substring(0, separator), k -> new ArrayList<>())
+                                .add(value.substring(separator + 2));
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        // a different key means two requests share a file name
+        if (status < 0 || !key.equals(recordedKey)) {
+            return null;
+        }
+
+        byte[] body = new byte[bytes.length - end - 2];
+        System.arraycopy(bytes, end + 2, body, 0, body.length);
+        return new Recording(status, Collections.unmodifiableMap(headers), latency, body);
+    }
+
+    public void save(HttpRequest request, int status, HttpHeaders headers, long latencyMillis, byte[] body) {
+        String key = key(request);
+        Path file = file(request.uri(), key);
+        Path temp = null;
+        try {
+            StringBuilder header = new StringBuilder(MAGIC).append('\n')
+                    .append("key: ").append(key).append('\n')
+                    .append("uri: ").append(request.uri()).append('\n')
+                    .append("recorded: ").append(Instant.now()).append('\n')
+                    .append("status: ").append(status).append('\n')
+                    .append("latency-ms: ").append(latencyMillis).append('\n');
+            for (Map.Entry<String, List<String>> entry : headers.map().entrySet()) {
+                if (RECORDED_HEADERS.contains(entry.getKey().toLowerCase(Locale.ROOT))) {
+                    for (String value : entry.getValue()) {
+                        header.append("header: ").append(entry.getKey()).append(": ").append(value).append('\n');
+                    }
+                }
+            }
+            header.append('\n');
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream(header.length() + body.length);
+            out.write(header.toString().getBytes(StandardCharsets.UTF_8));
+            out.write(body);
+
+            Files.createDirectories(file.getParent());
+            temp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+            Files.write(temp, out.toByteArray());
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            temp = null;
+        } catch (IOException | RuntimeException e) {
+            System.err.println("[Recordings] Could not save " + key + ": " + e);
+        } finally {
+            if (temp != null) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException ignored) {
+                    // a leftover temporary file is never read
+                }
+            }
+        }
+    }
+
+    /**
+     * {@code GET open-meteo/v1/forecast?current=...&latitude=...}: the upstream's key instead of its
+     * host, and the query parameters sorted, with only the names of the ignored ones.
+     */
+    public static String key(HttpRequest request) {
+        URI uri = request.uri();
+        List<String> parameters = new ArrayList<>();
+        if (uri.getRawQuery() != null) {
+            for (String parameter : uri.getRawQuery().split("&")) {
+                int eq = parameter.indexOf('=');
+                String name = eq < 0 ? parameter : parameter.substring(0, eq);
+                if (!parameter.isEmpty()) {
+                    parameters.add(IGNORED_PARAMETERS.contains(name) ? name : parameter);
+                }
+            }
+        }
+        Collections.sort(parameters);
+        return request.method() + " " + upstream(uri) + uri.getRawPath()
+                + (parameters.isEmpty() ? "" : "?" + String.join("&", parameters));
+    }
+
+    static String upstream(URI uri) {
+        Upstream upstream = Upstream.forAuthority(uri.getAuthority());
+        return upstream != null ? upstream.getKey()
+                : String.valueOf(uri.getAuthority()).replaceAll("[^A-Za-z0-9.-]", "_");
+    }
+
+    private Path file(URI uri, String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder name = new StringBuilder();
+            for (int i = 0; i < 16; i++) {
+                name.append(String.format("%02x", digest[i]));
+            }
+            return directory.resolve(upstream(uri)).resolve(name.append(".http").toString());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static int indexOf(byte[] bytes, byte[] pattern) {
+        outer:
+        for (int i = 0; i <= bytes.length - pattern.length; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (bytes[i + j] != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,279 @@
+package nl.bioinf.jscscheper.tool.util;
+
+import nl.bioinf.jscscheper.tool.metrics.Counter;
+import nl.bioinf.jscscheper.tool.metrics.Metrics;
+
+import javax.net.ssl.SSLSession;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Answers requests from {@link Recordings} without touching the network. Each response is held
+ * back by a {@link Latency}, so a run can be as fast as possible, as slow as when it was recorded,
+ * or as slow as a degraded upstream. A response held back longer than the request's timeout fails
+ * with the same {@link HttpTimeoutException} a live request would. Requests without a recording
+ * fail with an {@link IOException}.
+ */
+public class ReplayTransport implements UpstreamTransport {
+
+    /**
+     * Delay per upstream, parsed from {@code none}, {@code recorded}, {@code recorded*2},
+     * {@code recorded+250ms} or {@code 300ms}. A comma-separated list sets a default and overrides
+     * per upstream key: {@code recorded,ebird=recorded*4+500ms}.
+     */
+    public static final class Latency {
+        private static final class Term {
+            private final double recordedScale;
+            private final long extraMillis;
+
+            Term(double recordedScale, long extraMillis) {
+                this.recordedScale = recordedScale;
+                this.extraMillis = extraMillis;
+            }
+        }
+
+        private final Term defaultTerm;
+        private final Map<String, Term> upstreams;
+
+        private Latency(Term defaultTerm, Map<String, Term> upstreams) {
+            this.defaultTerm = defaultTerm;
+            this.upstreams = upstreams;
+        }
+
+        public static Latency parse(String spec) {
+            Term defaultTerm = new Term(1, 0);
+            Map<String, Term> upstreams = new HashMap<>();
+            for (String part : spec.split(",")) {
+                String trimmed = part.trim();
+                int eq = trimmed.indexOf('=');
+                if (eq < 0) {
+                    defaultTerm = term(trimmed);
+                } else {
+                    upstreams.put(trimmed.substring(0, eq).trim(), term(trimmed.substring(eq + 1).trim()));
+                }
+            }
+            return new Latency(defaultTerm, Map.copyOf(upstreams));
+        }
+
+        long delayMillis(String upstream, long recordedMillis) {
+            Term term = upstreams.getOrDefault(upstream, defaultTerm);
+            return Math.max(0, Math.round(recordedMillis * term.recordedScale) + term.extraMillis);
+        }
+
+        private static Term term(String spec) {
+            if (spec.equals("none")) {
+                return new Term(0, 0);
+            }
+            if (!spec.startsWith("recorded")) {
+                return new Term(0, millis(spec));
+            }
+            String rest = spec.substring("recorded".length());
+            double scale = 1;
+            long extra = 0;
+            int plus = rest.indexOf('+');
+            if (plus >= 0) {
+                extra = millis(rest.substring(plus + 1));
+                rest = rest.substring(0, plus);
+            }
+            if (rest.startsWith("*")) {
+                scale = Double.parseDouble(rest.substring(1));
+            } else if (!rest.isEmpty()) {
+                throw new IllegalArgumentException("Invalid latency '" + spec + "'");
+            }
+            return new Term(scale, extra);
+        }
+
+        private static long millis(String value) {
+            try {
+                if (value.endsWith("ms")) {
+                    return Long.parseLong(value.substring(0, value.length() - 2));
+                }
+                if (value.endsWith("s")) {
+                    return Math.round(Double.parseDouble(value.substring(0, value.length() - 1)) * 1000);
+                }
+            } catch (NumberFormatException e) {
+                // reported below
+            }
+            throw new IllegalArgumentException("Invalid duration '" + value + "', expected e.g. 250ms or 2s");
+        }
+    }
+
+    private static final class Info implements HttpResponse.ResponseInfo {
+        private final int status;
+        private final HttpHeaders headers;
+
+        Info(int status, HttpHeaders headers) {
+            this.status = status;
+            this.headers = headers;
+        }
+
+        @Override
+        public int statusCode() {
+            return status;
+        }
+
+        @Override
+        public HttpHeaders headers() {
+            return headers;
+        }
+
+        @Override
+        public HttpClient.Version version() {
+            return HttpClient.Version.HTTP_1_1;
+        }
+    }
+
+    private static final class Response<T> implements HttpResponse<T> {
+        private final HttpRequest request;
+        private final Info info;
+        private final T body;
+
+        Response(HttpRequest request, Info info, T body) {
+            this.request = request;
+            this.info = info;
+            this.body = body;
+        }
+
+        @Override
+        public int statusCode() {
+            return info.status;
+        }
+
+        @Override
+        public HttpRequest request() {
+            return request;
+        }
+
+        @Override
+        public Optional<HttpResponse<T>> previousResponse() {
+            return Optional.empty();
+        }
+
+        @Override
+        public HttpHeaders headers() {
+            return info.headers;
+        }
+
+        @Override
+        public T body() {
+            return body;
+        }
+
+        @Override
+        public Optional<SSLSession> sslSession() {
+            return Optional.empty();
+        }
+
+        @Override
+        public URI uri() {
+            return request.uri();
+        }
+
+        @Override
+        public HttpClient.Version version() {
+            return info.version();
+        }
+    }
+
+    /**
+     * Publishes the recorded body as a single buffer, then completes. Both wait for demand, so
+     * subscribers that read in lock-step (such as {@code ofInputStream}) are never overrun.
+     */
+    private static final class BodyPublication implements Flow.Subscription {
+        private final HttpResponse.BodySubscriber<?> subscriber;
+        private final byte[] body;
+        private boolean published;
+        private boolean done;
+
+        BodyPublication(HttpResponse.BodySubscriber<?> subscriber, byte[] body) {
+            this.subscriber = subscriber;
+            this.body = body;
+            this.published = body.length == 0;
+        }
+
+        @Override
+        public synchronized void request(long n) {
+            if (done || n <= 0) {
+                return;
+            }
+            if (!published) {
+                published = true;
+                subscriber.onNext(List.of(ByteBuffer.wrap(body).asReadOnlyBuffer()));
+                if (n == 1) {
+                    return;
+                }
+            }
+            done = true;
+            subscriber.onComplete();
+        }
+
+        @Override
+        public synchronized void cancel() {
+            done = true;
+        }
+    }
+
+    private final Recordings recordings;
+    private final Latency latency;
+    private final Map<String, Recordings.Recording> loaded = new ConcurrentHashMap<>();
+    private final Counter hits = Metrics.counter("geovis_replay_requests_total",
+            "Upstream requests answered by the replay transport", "result", "hit");
+    private final Counter misses = Metrics.counter("geovis_replay_requests_total",
+            "Upstream requests answered by the replay transport", "result", "miss");
+
+    public ReplayTransport(Recordings recordings, Latency latency) {
+        this.recordings = recordings;
+        this.latency = latency;
+    }
+
+    @Override
+    public <T> CompletableFuture<HttpResponse<T>> sendAsync(HttpRequest request, HttpResponse.BodyHandler<T> handler) {
+        // recordings are immutable during a run, so each is read from disk once
+        Recordings.Recording recording = loaded.computeIfAbsent(Recordings.key(request),
+                key -> recordings.load(request));
+        if (recording == null) {
+            misses.increment();
+            return CompletableFuture.failedFuture(new IOException("No recording for " + Recordings.key(request)));
+        }
+        hits.increment();
+
+        long delay = latency.delayMillis(Recordings.upstream(request.uri()), recording.getLatencyMillis());
+        Optional<Duration> timeout = request.timeout();
+        if (timeout.isPresent() && delay >= timeout.get().toMillis()) {
+            CompletableFuture<HttpResponse<T>> timedOut = new CompletableFuture<>();
+            CompletableFuture.delayedExecutor(timeout.get().toMillis(), TimeUnit.MILLISECONDS)
+                    .execute(() -> timedOut.completeExceptionally(new HttpTimeoutException("request timed out")));
+            return timedOut;
+        }
+
+        // a response cancelled while it is held back is never delivered
+        Executor executor = CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS);
+        CompletableFuture<CompletableFuture<HttpResponse<T>>> delayed =
+                CompletableFuture.supplyAsync(() -> respond(request, recording, handler), executor);
+        return Futures.cancelling(delayed.thenCompose(response -> response), delayed);
+    }
+
+    private static <T> CompletableFuture<HttpResponse<T>> respond(HttpRequest request,
+            Recordings.Recording recording, HttpResponse.BodyHandler<T> handler) {
+        Info info = new Info(recording.getStatus(), HttpHeaders.of(recording.getHeaders(), (name, value) -> true));
+        HttpResponse.BodySubscriber<T> subscriber = handler.apply(info);
+        subscriber.onSubscribe(new BodyPublication(subscriber, recording.getBody()));
+        return subscriber.getBody().toCompletableFuture().thenApply(body -> new Response<>(request, info, body));
+    }
+}
@@ -0,0 +1,183 @@
+package nl.bioinf.jscscheper.tool.util;
+
+import nl.bioinf.jscscheper.tool.metrics.Histogram;
+import nl.bioinf.jscscheper.tool.metrics.Metrics;
+
+import java.io.IOException;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Collection;
+import java.util.Optional;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
+
+/**
+ * Transport that sends every request through the {@link HostThrottle} of its host (the URI
+ * authority, so port included), and feeds the status and latency of the response back into it.
+ * It sits outside recording and replay, so recorded latencies exclude the time spent waiting for a
+ * permit and replayed traffic is paced like live traffic. A request cancelled while it waits gives up
+ * its place in the queue; once sent, the cancellation is passed on.
+ */
+public class ThrottledTransport implements UpstreamTransport {
+
+    // how long a request may be held back by a Retry-After when it has no timeout of its own
+    private static final Duration DEFAULT_MAX_WAIT = Duration.ofSeconds(30);
+    private static final Duration MAX_RETRY_AFTER = Duration.ofMinutes(10);
+
+    private final UpstreamTransport delegate;
+    private final Function<String, HostThrottle> throttleFactory;
+    private final ConcurrentHashMap<String, HostThrottle> throttles = new ConcurrentHashMap<>();
+
+    public ThrottledTransport(UpstreamTransport delegate, Function<String, HostThrottle> throttleFactory) {
+        this.delegate = delegate;
+        this.throttleFactory = throttleFactory;
+    }
+
+    public HostThrottle throttle(String host) {
+        return throttles.computeIfAbsent(host, key -> {
+            HostThrottle throttle = throttleFactory.apply(key);
+            Metrics.gauge("geovis_upstream_concurrency_limit", "Adaptive concurrency limit per upstream host",
+                    throttle::getLimit, "host", key);
+            Metrics.gauge("geovis_upstream_in_flight", "Requests in flight per upstream host",
+                    throttle::getInFlight, "host", key);
+            Metrics.gauge("geovis_upstream_queued", "Requests waiting for the throttle per upstream host",
+                    throttle::getWaiting, "host", key);
+            Metrics.counter("geovis_upstream_rejected_total", "Requests failed fast because of a Retry-After",
+                    throttle::getThrottled, "host", key);
+            return throttle;
+        });
+    }
+
+    public Collection<HostThrottle> getThrottles() {
+        return throttles.values();
+    }
+
+    @Override
+    public <T> HttpResponse<T> send(HttpRequest request, HttpResponse.BodyHandler<T> responseBodyHandler)
+            throws IOException, InterruptedException {
+        HostThrottle throttle = throttle(request.uri().getAuthority());
+        long queued = System.nanoTime();
+        CompletableFuture<Void> permit = throttle.acquire(request.timeout().orElse(DEFAULT_MAX_WAIT));
+        try {
+            permit.get();
+            waitTimer(throttle).recordSince(queued);
+        } catch (InterruptedException e) {
+            if (!permit.cancel(false)) {
+                // granted just before the interrupt
+                throttle.release(HostThrottle.Outcome.ERROR, 0, null);
+            }
+            throw e;
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        }
+
+        long start = System.nanoTime();
+        try {
+            HttpResponse<T> response = delegate.send(request, responseBodyHandler);
+            release(throttle, response, start);
+            return response;
+        } catch (IOException | RuntimeException | InterruptedException e) {
+            release(throttle, e, start);
+            throw e;
+        }
+    }
+
+    @Override
+    public <T> CompletableFuture<HttpResponse<T>> sendAsync(HttpRequest request,
+            HttpResponse.BodyHandler<T> responseBodyHandler) {
+        HostThrottle throttle = throttle(request.uri().getAuthority());
+        long queued = System.nanoTime();
+        CompletableFuture<HttpResponse<T>> result = new CompletableFuture<>();
+        CompletableFuture<Void> permit = throttle.acquire(request.timeout().orElse(DEFAULT_MAX_WAIT));
+
+        permit.whenComplete((granted, refused) -> {
+            if (refused != null) {
+                result.completeExceptionally(refused);
+                return;
+            }
+            if (result.isDone()) {
+                // cancelled just as the permit was granted
+                throttle.release(HostThrottle.Outcome.ERROR, 0, null);
+                return;
+            }
+            waitTimer(throttle).recordSince(queued);
+            long start = System.nanoTime();
+            CompletableFuture<HttpResponse<T>> sent;
+            try {
+                sent = delegate.sendAsync(request, responseBodyHandler);
+            } catch (RuntimeException e) {
+                sent = CompletableFuture.failedFuture(e);
+            }
+            sent.whenComplete((response, error) -> {
+                if (error != null) {
+                    release(throttle, error, start);
+                    result.completeExceptionally(error);
+                } else {
+                    release(throttle, response, start);
+                    result.complete(response);
+                }
+            });
+            Futures.cancelling(result, sent);
+        });
+        // cancelled while queued: give up the place in the queue
+        return Futures.cancelling(result, permit);
+    }
+
+    private static void release(HostThrottle throttle, HttpResponse<?> response, long start) {
+        long latency = System.nanoTime() - start;
+        int status = response.statusCode();
+        boolean overloaded = status == 429 || status == 503;
+        throttle.release(overloaded ? HostThrottle.Outcome.OVERLOAD : HostThrottle.Outcome.SUCCESS, latency,
+                overloaded ? retryAfter(response.headers().firstValue("Retry-After")) : null);
+        requestTimer(throttle, status == 429 ? "429" : status / 100 + "xx").record(latency);
+    }
+
+    private static void release(HostThrottle throttle, Throwable error, long start) {
+        long latency = System.nanoTime() - start;
+        Throwable cause = Futures.unwrap(error);
+        boolean timeout = cause instanceof HttpTimeoutException;
+        throttle.release(timeout ? HostThrottle.Outcome.OVERLOAD : HostThrottle.Outcome.ERROR, latency, null);
+        requestTimer(throttle, timeout ? "timeout" : cause instanceof CancellationException ? "cancelled" : "error")
+                .record(latency);
+    }
+
+    private static Histogram requestTimer(HostThrottle throttle, String outcome) {
+        return Metrics.timer("geovis_upstream_request_duration_seconds", "Upstream request latency by outcome",
+                "host", throttle.getHost(), "outcome", outcome);
+    }
+
+    private static Histogram waitTimer(HostThrottle throttle) {
+        return Metrics.timer("geovis_upstream_throttle_wait_seconds", "Time requests waited for the host throttle",
+                "host", throttle.getHost());
+    }
+
+    /**
+     * Parses a {@code Retry-After} of delay-seconds or an HTTP date; null if absent or unreadable.
+     */
+    static Duration retryAfter(Optional<String> header) {
+        if (header.isEmpty()) {
+            return null;
+        }
+        String value = header.get().trim();
+        Duration delay;
+        try {
+            delay = Duration.ofSeconds(Long.parseLong(value));
+        } catch (NumberFormatException e) {
+            try {
+                delay = Duration.between(ZonedDateTime.now(),
+                        ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME));
+            } catch (DateTimeParseException ex) {
+                return null;
+            }
+        }
+        return delay.compareTo(MAX_RETRY_AFTER) > 0 ? MAX_RETRY_AFTER : delay;
+    }
+}
@@ -0,0 +1,139 @@
+package nl.bioinf.jscscheper.tool.util;
+
+import java.util.Arrays;
+
+/**
+ * Immutable columnar time series: one ascending array of epoch-second timestamps and one float array
+ * per column. Missing values are NaN.
+ */
+public final class TimeSeries {
+
+    private final String[] columns;
+    private final long[] times;
+    private final float[][] values;
+
+    /**
+     * @param times  strictly ascending epoch seconds
+     * @param values one array per column, each as long as {@code times}
+     */
+    public TimeSeries(String[] columns, long[] times, float[][] values) {
+        if (values.length != columns.length) {
+            throw new IllegalArgumentException("Expected " + columns.length + " columns, got " + values.length);
+        }
+        for (float[] column : values) {
+            if (column.length != times.length) {
+                throw new IllegalArgumentException("Column length does not match the number of timestamps");
+            }
+        }
+        this.columns = columns;
+        this.times = times;
+        this.values = values;
+    }
+
+    public static TimeSeries empty(String[] columns) {
+        return new TimeSeries(columns, new long[0], new float[columns.length][0]);
+    }
+
+    public int size() {
+        return times.length;
+    }
+
+    public String[] getColumns() {
+        return columns.clone();
+    }
+
+    public int column(String name) {
+        for (int c = 0; c < columns.length; c++) {
+            if (columns[c].equals(name)) {
+                return c;
+            }
+        }
+        return -1;
+    }
+
+    public long getTime(int index) {
+        return times[index];
+    }
+
+    public float getValue(int column, int index) {
+        return values[column][index];
+    }
+
+    public long getFirstTime() {
+        return times.length == 0 ? Long.MIN_VALUE : times[0];
+    }
+
+    public long getLastTime() {
+        return times.length == 0 ? Long.MIN_VALUE : times[times.length - 1];
+    }
+
+    /**
+     * Index of the first sample at or after {@code epochSecond}; {@link #size()} if there is none.
+     */
+    public int indexAtOrAfter(long epochSecond) {
+        int index = Arrays.binarySearch(times, epochSecond);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    /**
+     * The underlying timestamp array, for downsampling. Callers must not modify it.
+     */
+    public long[] times() {
+        return times;
+    }
+
+    /**
+     * The underlying values of one column. Callers must not modify it.
+     */
+    public float[] values(int column) {
+        return values[column];
+    }
+
+    /**
+     * Combines this series with {@code newer}, which must have the same columns, keeping only samples
+     * in {@code [minTime, maxTime]}. Where both have a sample for the same timestamp the newer value
+     * wins unless it is missing.
+     */
+    public TimeSeries merge(TimeSeries newer, long minTime, long maxTime) {
+        if (!Arrays.equals(columns, newer.columns)) {
+            throw new IllegalArgumentException("Cannot merge series with different columns");
+        }
+
+        long[] mergedTimes = new long[times.length + newer.times.length];
+        float[][] mergedValues = new float[columns.length][mergedTimes.length];
+        int i = indexAtOrAfter(minTime), j = newer.indexAtOrAfter(minTime), n = 0;
+
+        while (i < times.length || j < newer.times.length) {
+            long a = i < times.length ? times[i] : Long.MAX_VALUE;
+            long b = j < newer.times.length ? newer.times[j] : Long.MAX_VALUE;
+            long time = Math.min(a, b);
+            if (time > maxTime) {
+                break;
+            }
+
+            mergedTimes[n] = time;
+            for (int c = 0; c < columns.length; c++) {
+                float value = Float.NaN;
+                if (b == time) {
+                    value = newer.values[c][j];
+                }
+                if (Float.isNaN(value) && a == time) {
+                    value = values[c][i];
+                }
+                mergedValues[c][n] = value;
+            }
+            if (a == time) {
+                i++;
+            }
+            if (b == time) {
+                j++;
+            }
+            n++;
+        }
+
+        for (int c = 0; c < columns.length; c++) {
+            mergedValues[c] = Arrays.copyOf(mergedValues[c], n);
+        }
+        return new TimeSeries(columns, Arrays.copyOf(mergedTimes, n), mergedValues);
+    }
+}
@@ -0,0 +1,54 @@
+package nl.bioinf.jscscheper.tool.util;
+
+import java.net.URI;
+
+/**
+ * The external APIs the fetchers call. Each base URL can be pointed elsewhere with a system property
+ * {@code geovis.upstream.<key>}, e.g. {@code -Dgeovis.upstream.knmi=http://localhost:18083} to run
+ * against the load-test simulator instead of the live service.
+ */
+public enum Upstream {
+    OPEN_METEO("open-meteo", "https://api.open-meteo.com"),
+    OPEN_METEO_AIR_QUALITY("open-meteo-air-quality", "https://air-quality-api.open-meteo.com"),
+    EBIRD("ebird", "https://api.ebird.org"),
+    KNMI("knmi", "http://rdsa.knmi.nl");
+
+    public static final String PROPERTY_PREFIX = "geovis.upstream.";
+
+    private final String key;
+    private final String baseUrl;
+    private final String authority;
+
+    Upstream(String key, String defaultUrl) {
+        String configured = System.getProperty(PROPERTY_PREFIX + key, defaultUrl).trim();
+        this.key = key;
+        this.baseUrl = configured.endsWith("/") ? configured.substring(0, configured.length() - 1) : configured;
+        this.authority = URI.create(baseUrl).getAuthority();
+        if (!baseUrl.equals(defaultUrl)) {
+            System.out.println("[Upstream] " + key + " -> " + baseUrl);
+        }
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * {@code path} (starting with {@code /}) on this upstream.
+     */
+    public String url(String path) {
+        return baseUrl + path;
+    }
+
+    /**
+     * The upstream served from {@code authority} ({@code host[:port]}), or null for any other host.
+     */
+    public static Upstream forAuthority(String authority) {
+        for (Upstream upstream : values()) {
+            if (upstream.authority.equalsIgnoreCase(authority)) {
+                return upstream;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,22 @@
+package nl.bioinf.jscscheper.tool.util;
+
+import java.io.IOException;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * How fetchers reach their upstreams. {@link LiveTransport} sends over the network,
+ * {@link RecordingTransport} does the same and saves every response, and {@link ReplayTransport}
+ * answers from those saved responses without any network access. {@link ThrottledTransport} paces
+ * any of them per host. Cancelling the future returned by {@link #sendAsync} abandons the request.
+ */
+public interface UpstreamTransport {
+
+    <T> CompletableFuture<HttpResponse<T>> sendAsync(HttpRequest request, HttpResponse.BodyHandler<T> handler);
+
+    default <T> HttpResponse<T> send(HttpRequest request, HttpResponse.BodyHandler<T> handler)
+            throws IOException, InterruptedException {
+        return Futures.await(sendAsync(request, handler));
+    }
+}
@@ -0,0 +1,14 @@
+package nl.bioinf.jscscheper.tool.util;
+
+import java.io.IOException;
+
+/**
+ * An answer could not be assembled because part of the upstream data is missing. Unlike other
+ * failures this is usually transient, so it is answered with 503 and {@code Retry-After}.
+ */
+public class UpstreamUnavailableException extends IOException {
+
+    public UpstreamUnavailableException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,284 @@
+package nl.bioinf.jscscheper.tool.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encodes point layers as a Mapbox Vector Tile (specification 2.1) for one {@code z/x/y} tile.
+ * <p>
+ * Coordinates are quantised to the tile's {@link #EXTENT} grid. Points within {@link #BUFFER} units
+ * outside the tile are kept so symbols on a tile edge are not cut off. Attribute keys and values are
+ * deduplicated per layer, as the format intends.
+ */
+public class VectorTileEncoder {
+
+    public static final int EXTENT = 4096;
+    public static final int BUFFER = 64;
+
+    private final int z;
+    private final int x;
+    private final int y;
+    private final List<Layer> layers = new ArrayList<>();
+
+    public VectorTileEncoder(int z, int x, int y) {
+        if (z < 0 || z > 30 || x < 0 || y < 0 || x >= 1 << z || y >= 1 << z) {
+            throw new IllegalArgumentException("No such tile: " + z + "/" + x + "/" + y);
+        }
+        this.z = z;
+        this.x = x;
+        this.y = y;
+    }
+
+    /**
+     * The area covered by this tile including its buffer, as {@code minLon, minLat, maxLon, maxLat}.
+     */
+    public double[] bounds() {
+        double size = 1.0 / (1 << z);
+        double margin = size * BUFFER / EXTENT;
+        double minX = Math.max(0, x * size - margin);
+        double maxX = Math.min(1, (x + 1) * size + margin);
+        double minY = Math.max(0, y * size - margin);
+        double maxY = Math.min(1, (y + 1) * size + margin);
+        return new double[] {
+                WebMercator.longitude(minX), WebMercator.latitude(maxY),
+                WebMercator.longitude(maxX), WebMercator.latitude(minY)
+        };
+    }
+
+    public Layer layer(String name) {
+        Layer layer = new Layer(name);
+        layers.add(layer);
+        return layer;
+    }
+
+    public byte[] encode() {
+        ProtoBuffer tile = new ProtoBuffer();
+        for (Layer layer : layers) {
+            if (!layer.features.isEmpty()) {
+                tile.writeMessage(3, layer.encode());
+            }
+        }
+        return tile.toByteArray();
+    }
+
+    public class Layer {
+        private final String name;
+        private final List<Feature> features = new ArrayList<>();
+        private final Map<String, Integer> keys = new HashMap<>();
+        private final Map<Object, Integer> values = new HashMap<>();
+        private final List<String> keyList = new ArrayList<>();
+        private final List<Object> valueList = new ArrayList<>();
+
+        private Layer(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Adds a point, or returns {@code null} when it falls outside the tile and its buffer.
+         */
+        public Feature addPoint(double lat, double lon) {
+            double scale = 1 << z;
+            long px = Math.round((WebMercator.x(lon) * scale - x) * EXTENT);
+            long py = Math.round((WebMercator.y(lat) * scale - y) * EXTENT);
+            if (px < -BUFFER || px > EXTENT + BUFFER || py < -BUFFER || py > EXTENT + BUFFER) {
+                return null;
+            }
+            Feature feature = new Feature(this, (int) px, (int) py);
+            features.add(feature);
+            return feature;
+        }
+
+        public int size() {
+            return features.size();
+        }
+
+        private int key(String key) {
+            return keys.computeIfAbsent(key, k -> {
+                keyList.add(k);
+                return keyList.size() - 1;
+            });
+        }
+
+        private int value(Object value) {
+            return values.computeIfAbsent(value, v -> {
+                valueList.add(v);
+                return valueList.size() - 1;
+            });
+        }
+
+        private ProtoBuffer encode() {
+            ProtoBuffer layer = new ProtoBuffer();
+            layer.writeVarintField(15, 2);
+            layer.writeStringField(1, name);
+            for (Feature feature : features) {
+                layer.writeMessage(2, feature.encode());
+            }
+            for (String key : keyList) {
+                layer.writeStringField(3, key);
+            }
+            for (Object value : valueList) {
+                layer.writeMessage(4, encodeValue(value));
+            }
+            layer.writeVarintField(5, EXTENT);
+            return layer;
+        }
+
+        private ProtoBuffer encodeValue(Object value) {
+            ProtoBuffer encoded = new ProtoBuffer();
+            if (value instanceof String) {
+                encoded.writeStringField(1, (String) value);
+            } else if (value instanceof Float) {
+                encoded.writeTag(2, 5);
+                encoded.writeFixed32(Float.floatToIntBits((Float) value));
+            } else if (value instanceof Double) {
+                encoded.writeTag(3, 1);
+                encoded.writeFixed64(Double.doubleToLongBits((Double) value));
+            } else if (value instanceof Long) {
+                long v = (Long) value;
+                encoded.writeVarintField(6, (v << 1) ^ (v >> 63));
+            } else {
+                encoded.writeVarintField(7, (Boolean) value ? 1 : 0);
+            }
+            return encoded;
+        }
+    }
+
+    public static class Feature {
+        private final Layer layer;
+        private final int px;
+        private final int py;
+        private int[] tags = new int[8];
+        private int tagCount = 0;
+
+        private Feature(Layer layer, int px, int py) {
+            this.layer = layer;
+            this.px = px;
+            this.py = py;
+        }
+
+        public Feature attribute(String key, String value) {
+            return value == null ? this : tag(key, value);
+        }
+
+        public Feature attribute(String key, double value) {
+            return Double.isNaN(value) ? this : tag(key, value);
+        }
+
+        public Feature attribute(String key, float value) {
+            return Float.isNaN(value) ? this : tag(key, value);
+        }
+
+        public Feature attribute(String key, long value) {
+            return tag(key, value);
+        }
+
+        public Feature attribute(String key, boolean value) {
+            return tag(key, value);
+        }
+
+        private Feature tag(String key, Object value) {
+            if (tagCount + 2 > tags.length) {
+                tags = Arrays.copyOf(tags, tags.length * 2);
+            }
+            tags[tagCount++] = layer.key(key);
+            tags[tagCount++] = layer.value(value);
+            return this;
+        }
+
+        private ProtoBuffer encode() {
+            ProtoBuffer feature = new ProtoBuffer();
+            if (tagCount > 0) {
+                ProtoBuffer packed = new ProtoBuffer();
+                for (int i = 0; i < tagCount; i++) {
+                    packed.writeVarint(tags[i]);
+                }
+                feature.writeMessage(2, packed);
+            }
+            feature.writeVarintField(3, 1);
+
+            ProtoBuffer geometry = new ProtoBuffer();
+            geometry.writeVarint(1 | 1 << 3);
+            geometry.writeVarint(zigZag(px));
+            geometry.writeVarint(zigZag(py));
+            feature.writeMessage(4, geometry);
+            return feature;
+        }
+
+        private static int zigZag(int n) {
+            return (n << 1) ^ (n >> 31);
+        }
+    }
+
+    /**
+     * Minimal protobuf wire-format writer, just enough for the vector tile schema.
+     */
+    private static class ProtoBuffer {
+        private byte[] bytes = new byte[64];
+        private int size = 0;
+
+        void writeTag(int field, int wireType) {
+            writeVarint(field << 3 | wireType);
+        }
+
+        void writeVarintField(int field, long value) {
+            writeTag(field, 0);
+            writeVarint(value);
+        }
+
+        void writeStringField(int field, String value) {
+            byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+            writeTag(field, 2);
+            writeVarint(utf8.length);
+            writeRaw(utf8, utf8.length);
+        }
+
+        void writeMessage(int field, ProtoBuffer message) {
+            writeTag(field, 2);
+            writeVarint(message.size);
+            writeRaw(message.bytes, message.size);
+        }
+
+        void writeVarint(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                bytes[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[size++] = (byte) value;
+        }
+
+        void writeFixed32(int value) {
+            ensure(4);
+            for (int i = 0; i < 4; i++) {
+                bytes[size++] = (byte) (value >>> (8 * i));
+            }
+        }
+
+        void writeFixed64(long value) {
+            ensure(8);
+            for (int i = 0; i < 8; i++) {
+                bytes[size++] = (byte) (value >>> (8 * i));
+            }
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(bytes, size);
+        }
+
+        private void writeRaw(byte[] data, int length) {
+            ensure(length);
+            System.arraycopy(data, 0, bytes, size, length);
+            size += length;
+        }
+
+        private void ensure(int extra) {
+            if (size + extra > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + extra));
+            }
+        }
+    }
+}
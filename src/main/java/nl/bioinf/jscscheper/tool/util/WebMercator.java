@@ -0,0 +1,30 @@
+package nl.bioinf.jscscheper.tool.util;
+
+/**
+ * Spherical Web Mercator in normalised world coordinates: x and y both run from 0 to 1, starting at
+ * the north-west corner, so the tile column at zoom z is {@code floor(x * 2^z)}.
+ */
+public final class WebMercator {
+
+    public static final double MAX_LATITUDE = 85.05112878;
+
+    private WebMercator() {
+    }
+
+    public static double x(double lon) {
+        return (Math.max(-180, Math.min(180, lon)) + 180) / 360;
+    }
+
+    public static double y(double lat) {
+        double sin = Math.sin(Math.toRadians(Math.max(-MAX_LATITUDE, Math.min(MAX_LATITUDE, lat))));
+        return 0.5 - Math.log((1 + sin) / (1 - sin)) / (4 * Math.PI);
+    }
+
+    public static double longitude(double x) {
+        return x * 360 - 180;
+    }
+
+    public static double latitude(double y) {
+        return Math.toDegrees(Math.atan(Math.sinh(Math.PI * (1 - 2 * y))));
+    }
+}